@@ -0,0 +1,164 @@
+package cmsc420.meeshquest.part3;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Measures the wall-clock time MeeshQuest takes over its largest command
+ * documents with every stage on one thread and pipelined across three
+ * threads, in each input mode. Every document is read into memory before
+ * timing starts and all results are discarded, so the figures cover parsing,
+ * validation, command processing and result serialization only.
+ * <p>
+ * Usage: <code>PipelineBenchmark [input file or directory] [documents] [iterations]</code>.
+ * From a directory, only the given number of largest documents are used.
+ * Run from the project directory so the schema can be found. Only documents
+ * that pass schema validation are used, and documents containing commands
+ * that exit the program or draw to the screen are skipped.
+ */
+public class PipelineBenchmark {
+	/** commands which exit the program or need a display */
+	private static final String[] SKIPPED_COMMANDS = { "<mst", "<nearestAirport",
+			"<saveMap" };
+
+	/** discards everything written to it */
+	private static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	public static void main(String[] args) throws IOException,
+			ParserConfigurationException {
+		final File corpus = new File(args.length > 0 ? args[0]
+				: "src/Inputs/part3");
+		final int count = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		final PrintStream err = System.err;
+		System.setErr(new PrintStream(NULL_OUTPUT));
+		List<byte[]> documents = new ArrayList<byte[]>();
+		try {
+			load(corpus, documents);
+		} finally {
+			System.setErr(err);
+		}
+		Collections.sort(documents, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				return b.length - a.length;
+			}
+		});
+		documents = documents.subList(0, Math.min(count, documents.size()));
+		long bytes = 0;
+		for (byte[] document : documents) {
+			bytes += document.length;
+		}
+		System.out.println(documents.size() + " documents, " + bytes
+				+ " bytes, " + iterations + " iterations, "
+				+ Runtime.getRuntime().availableProcessors() + " processors");
+
+		System.setErr(new PrintStream(NULL_OUTPUT));
+		try {
+			compare("full validation", false, false, documents, iterations);
+			compare("trusted", false, true, documents, iterations);
+			compare("trusted, streamed", true, true, documents, iterations);
+		} finally {
+			System.setErr(err);
+		}
+	}
+
+	/**
+	 * Processes the documents in one input mode, serially and pipelined, and
+	 * reports the best time of each.
+	 */
+	private static void compare(final String mode, final boolean streamInput,
+			final boolean trustedInput, final List<byte[]> documents,
+			final int iterations) {
+		final long serial = run(streamInput, trustedInput, false, documents,
+				iterations);
+		final long pipelined = run(streamInput, trustedInput, true, documents,
+				iterations);
+		System.out.printf("%-20s serial %8.1f ms  pipelined %8.1f ms  speedup %.2fx%n",
+				mode, serial / 1e6, pipelined / 1e6, (double) serial / pipelined);
+	}
+
+	/**
+	 * Processes every document in one mode and returns the best time over
+	 * the iterations, in nanoseconds. The first pass warms up and is not
+	 * timed.
+	 */
+	private static long run(final boolean streamInput,
+			final boolean trustedInput, final boolean pipelined,
+			final List<byte[]> documents, final int iterations) {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i <= iterations; i++) {
+			final long start = System.nanoTime();
+			for (byte[] document : documents) {
+				final MeeshQuest meeshQuest = new MeeshQuest(streamInput,
+						trustedInput);
+				meeshQuest.setPipelined(pipelined);
+				try {
+					meeshQuest.process(new ByteArrayInputStream(document),
+							NULL_OUTPUT);
+				} catch (RuntimeException e) {
+					/* aborts the same way in either mode */
+				} catch (StackOverflowError e) {
+					/* likewise */
+				}
+			}
+			final long elapsed = System.nanoTime() - start;
+			if (i > 0) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Reads every valid input document under a file or directory into
+	 * memory.
+	 */
+	private static void load(final File file, final List<byte[]> documents)
+			throws IOException, ParserConfigurationException {
+		if (file.isDirectory()) {
+			final File[] files = file.listFiles();
+			if (files != null) {
+				for (File child : files) {
+					load(child, documents);
+				}
+			}
+		} else if (file.getName().endsWith(".xml")) {
+			final byte[] document = Files.readAllBytes(file.toPath());
+			final String text = new String(document, StandardCharsets.UTF_8);
+			for (String skipped : SKIPPED_COMMANDS) {
+				if (text.contains(skipped)) {
+					return;
+				}
+			}
+			try {
+				ValidationService.getInstance().validateNoNamespace(
+						new ByteArrayInputStream(document));
+			} catch (SAXException e) {
+				return;
+			}
+			documents.add(document);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package cmsc420.meeshquest.part3;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Measures end-to-end throughput of MeeshQuest over a corpus of command
+ * documents, with full schema validation and with trusted input. Every
+ * document is read into memory before timing starts and all results are
+ * discarded, so the figures cover parsing, validation, command processing
+ * and result serialization only.
+ * <p>
+ * Usage: <code>ValidationBenchmark [corpus directory] [iterations]</code>.
+ * Run from the project directory so the schema can be found. Only documents
+ * that pass schema validation are used, so every mode does the same command
+ * processing. Documents containing commands that exit the program or draw to
+ * the screen are skipped.
+ */
+public class ValidationBenchmark {
+	/** commands which exit the program or need a display */
+	private static final String[] SKIPPED_COMMANDS = { "<mst", "<nearestAirport",
+			"<saveMap" };
+
+	/** discards everything written to it */
+	private static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	public static void main(String[] args) throws IOException,
+			ParserConfigurationException {
+		final File corpus = new File(args.length > 0 ? args[0]
+				: "src/Inputs/part3");
+		final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		final PrintStream err = System.err;
+		System.setErr(new PrintStream(NULL_OUTPUT));
+		final List<byte[]> documents = new ArrayList<byte[]>();
+		try {
+			load(corpus, documents);
+		} finally {
+			System.setErr(err);
+		}
+		long bytes = 0;
+		for (byte[] document : documents) {
+			bytes += document.length;
+		}
+		System.out.println(documents.size() + " documents, " + bytes
+				+ " bytes, " + iterations + " iterations");
+
+		System.setErr(new PrintStream(NULL_OUTPUT));
+		try {
+			run("full validation", false, false, documents, bytes, iterations);
+			run("trusted", false, true, documents, bytes, iterations);
+			run("trusted, streamed", true, true, documents, bytes, iterations);
+		} finally {
+			System.setErr(err);
+		}
+	}
+
+	/**
+	 * Processes the corpus in one mode and reports its throughput. The first
+	 * pass warms up and is not timed.
+	 */
+	private static void run(final String mode, final boolean streamInput,
+			final boolean trustedInput, final List<byte[]> documents,
+			final long bytes, final int iterations) {
+		int aborted = 0;
+		for (int i = 0; i <= iterations; i++) {
+			if (i == 1) {
+				aborted = 0;
+			}
+			final long start = System.nanoTime();
+			for (byte[] document : documents) {
+				try {
+					new MeeshQuest(streamInput, trustedInput).process(
+							new ByteArrayInputStream(document), NULL_OUTPUT);
+				} catch (RuntimeException e) {
+					aborted++;
+				} catch (StackOverflowError e) {
+					aborted++;
+				}
+			}
+			final long elapsed = System.nanoTime() - start;
+			if (i > 0) {
+				final double seconds = elapsed / 1e9;
+				System.out.printf("%-20s pass %d: %8.1f documents/s %8.2f MB/s%n",
+						mode, i, documents.size() / seconds, bytes / seconds / 1e6);
+			}
+		}
+		System.out.println(mode + ": " + aborted / iterations
+				+ " documents aborted per pass");
+	}
+
+	/**
+	 * Reads every valid input document under a directory into memory.
+	 */
+	private static void load(final File file, final List<byte[]> documents)
+			throws IOException, ParserConfigurationException {
+		if (file.isDirectory()) {
+			final File[] files = file.listFiles();
+			if (files != null) {
+				for (File child : files) {
+					load(child, documents);
+				}
+			}
+		} else if (file.getName().endsWith(".xml")) {
+			final byte[] document = Files.readAllBytes(file.toPath());
+			final String text = new String(document, StandardCharsets.UTF_8);
+			for (String skipped : SKIPPED_COMMANDS) {
+				if (text.contains(skipped)) {
+					return;
+				}
+			}
+			try {
+				ValidationService.getInstance().validateNoNamespace(
+						new ByteArrayInputStream(document));
+			} catch (SAXException e) {
+				return;
+			}
+			documents.add(document);
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package cmsc420.pmquadtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import cmsc420.command.World;
+import cmsc420.geometry.City;
+import cmsc420.geometry.Geometry;
+import cmsc420.geometry.Road;
+import cmsc420.pmquadtree.PMQuadtree.Black;
+import cmsc420.pmquadtree.PMQuadtree.Gray;
+import cmsc420.pmquadtree.PMQuadtree.Node;
+
+/**
+ * Compares {@link BucketPMQuadtree}s of several bucket sizes against PM1 and
+ * PM3 Quadtrees holding the same roads. The edges of a lattice of cities
+ * crowded towards the middle of the metropole, as downtown streets are, are
+ * mapped in random order to each tree, and the depth and nodes of the tree
+ * built are reported along with the rate roads were mapped at and the time a
+ * nearest city search and a window search take.
+ * <p>
+ * The nearest city search visits regions best first and scans every city of
+ * the leaves it reaches; the window search counts the geometry of the leaves
+ * overlapping a window. Every tree must find the same nearest distances.
+ * <p>
+ * Usage: <code>BucketTreeBenchmark [cities per side] [queries] [rounds]</code>.
+ */
+public class BucketTreeBenchmark {
+	/** least distance between neighbouring cities of the lattice */
+	private static final int SPACING = 4;
+
+	/** bucket sizes compared against PM1 and PM3 */
+	private static final int[] BUCKET_SIZES = { 2, 4, 8, 16 };
+
+	public static void main(String[] args) throws Throwable {
+		final int n = args.length > 0 ? Integer.parseInt(args[0]) : 120;
+		final int numQueries = args.length > 1 ? Integer.parseInt(args[1])
+				: 20000;
+		final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		final int[] positions = createPositions(n);
+		int size = 1;
+		while (size <= positions[n - 1]) {
+			size <<= 1;
+		}
+		final World world = new World(size, size, 1, 1);
+		final List<Road> roads = createLattice(positions, new Random(420));
+
+		final Random random = new Random(7);
+		final float[] queries = new float[2 * numQueries];
+		for (int i = 0; i < queries.length; i++) {
+			/* half the queries land downtown, where the cities are */
+			queries[i] = (i & 2) == 0 ? random.nextInt(size) : size / 2
+					+ (float) random.nextGaussian() * size / 16;
+		}
+
+		System.out.printf("%d roads in a %dx%d metropole, %d queries, best of %d rounds%n",
+				roads.size(), size, size, numQueries, rounds);
+		System.out.printf("%-9s %6s %8s %8s %9s %11s %12s %12s%n", "tree",
+				"depth", "black", "gray", "entries", "inserts/s",
+				"nearest us", "window us");
+
+		double[] expected = null;
+		for (int bucketSize = -1; bucketSize <= BUCKET_SIZES.length; bucketSize++) {
+			long insert = Long.MAX_VALUE, nearest = Long.MAX_VALUE, window = Long.MAX_VALUE;
+			PMQuadtree pmQuadtree = null;
+			double[] distances = null;
+			for (int round = 0; round < rounds; round++) {
+				pmQuadtree = create(bucketSize, world);
+				long start = System.nanoTime();
+				for (Road road : roads) {
+					pmQuadtree.addRoad(road);
+				}
+				insert = Math.min(insert, System.nanoTime() - start);
+
+				distances = new double[numQueries];
+				start = System.nanoTime();
+				for (int i = 0; i < numQueries; i++) {
+					distances[i] = nearest(pmQuadtree.getRoot(),
+							queries[2 * i], queries[2 * i + 1]);
+				}
+				nearest = Math.min(nearest, System.nanoTime() - start);
+
+				long count = 0;
+				start = System.nanoTime();
+				for (int i = 0; i < numQueries; i++) {
+					count += count(pmQuadtree.getRoot(), 0, 0, size, size,
+							(int) queries[2 * i], (int) queries[2 * i + 1],
+							size / 32);
+				}
+				window = Math.min(window, System.nanoTime() - start);
+				if (count < 0) {
+					throw new IllegalStateException();
+				}
+			}
+
+			if (expected == null) {
+				expected = distances;
+			} else {
+				for (int i = 0; i < numQueries; i++) {
+					if (distances[i] != expected[i]) {
+						throw new IllegalStateException(name(bucketSize)
+								+ " found another nearest city");
+					}
+				}
+			}
+
+			final int[] counts = new int[5];
+			measure(pmQuadtree.getRoot(), 0, counts);
+			System.out.printf("%-9s %6d %8d %8d %9d %11.0f %12.2f %12.2f%n",
+					name(bucketSize), counts[3], counts[Node.BLACK],
+					counts[Node.GRAY], counts[4], roads.size() / (insert / 1e9),
+					nearest / 1e3 / numQueries, window / 1e3 / numQueries);
+		}
+	}
+
+	/**
+	 * Creates the tree for an index into the bucket sizes, or a PM1 Quadtree
+	 * for -1 and a PM3 Quadtree for 0.
+	 */
+	private static PMQuadtree create(final int bucketSize, final World world) {
+		if (bucketSize < 0) {
+			return new PM1Quadtree(world);
+		} else if (bucketSize == 0) {
+			return new PM3Quadtree(world);
+		}
+		return new BucketPMQuadtree(world, BUCKET_SIZES[bucketSize - 1]);
+	}
+
+	private static String name(final int bucketSize) {
+		if (bucketSize < 0) {
+			return "PM1";
+		} else if (bucketSize == 0) {
+			return "PM3";
+		}
+		return "bucket " + BUCKET_SIZES[bucketSize - 1];
+	}
+
+	/**
+	 * Counts the nodes of each type below a node, the depth of its deepest
+	 * leaf and the geometry its leaves hold between them.
+	 */
+	private static void measure(final Node node, final int depth,
+			final int[] counts) {
+		counts[node.getType()]++;
+		counts[3] = Math.max(counts[3], depth);
+		if (node.getType() == Node.BLACK) {
+			counts[4] += ((Black) node).getGeometry().size();
+		} else if (node.getType() == Node.GRAY) {
+			for (int i = 0; i < 4; i++) {
+				measure(((Gray) node).getChild(i), depth + 1, counts);
+			}
+		}
+	}
+
+	/**
+	 * A region or a city waiting to be visited by a nearest city search.
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		private final double distance;
+
+		private final Node node;
+
+		private Candidate(final double distance, final Node node) {
+			this.distance = distance;
+			this.node = node;
+		}
+
+		public int compareTo(final Candidate o) {
+			return Double.compare(distance, o.distance);
+		}
+	}
+
+	/**
+	 * Finds the distance from a point to the nearest city, visiting regions
+	 * best first. A city is a candidate without a node.
+	 */
+	private static double nearest(final Node root,
+			final float x, final float y) {
+		final PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+		candidates.add(new Candidate(0, root));
+		while (!candidates.isEmpty()) {
+			final Candidate c = candidates.remove();
+			if (c.node == null) {
+				return c.distance;
+			} else if (c.node.getType() == Node.BLACK) {
+				final GeometryList geometry = ((Black) c.node).getGeometry();
+				for (int i = 0; i < geometry.getNumPoints(); i++) {
+					final Geometry g = geometry.get(i);
+					if (g.isCity()) {
+						final City city = (City) g;
+						candidates.add(new Candidate(Math.hypot(city.getLocalX()
+								- x, city.getLocalY() - y), null));
+					}
+				}
+			} else if (c.node.getType() == Node.GRAY) {
+				final Gray gray = (Gray) c.node;
+				for (int i = 0; i < 4; i++) {
+					final int childX = gray.getChildX(i), childY = gray.getChildY(i);
+					final double dx = Math.max(0, Math.max(childX - x, x
+							- (childX + gray.getHalfWidth())));
+					final double dy = Math.max(0, Math.max(childY - y, y
+							- (childY + gray.getHalfHeight())));
+					candidates.add(new Candidate(Math.hypot(dx, dy), gray
+							.getChild(i)));
+				}
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Counts the geometry of the black nodes below a node whose region
+	 * overlaps a window, as a range search would scan it.
+	 */
+	private static long count(final Node node, final int originX,
+			final int originY, final int width, final int height, final int x,
+			final int y, final int window) {
+		if (originX > x + window || x > originX + width || originY > y + window
+				|| y > originY + height) {
+			return 0;
+		}
+		if (node.getType() == Node.BLACK) {
+			return ((Black) node).getGeometry().size();
+		} else if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			long count = 0;
+			for (int i = 0; i < 4; i++) {
+				count += count(gray.getChild(i), gray.getChildX(i),
+						gray.getChildY(i), gray.getHalfWidth(), gray
+								.getHalfHeight(), x, y, window);
+			}
+			return count;
+		}
+		return 0;
+	}
+
+	/**
+	 * Creates the coordinates of the lattice's rows and columns, strictly
+	 * increasing and crowded towards the middle, where neighbours are
+	 * {@link #SPACING} apart.
+	 */
+	private static int[] createPositions(final int n) {
+		final int[] positions = new int[n];
+		final double spread = n * SPACING * 4.0;
+		for (int i = 0; i < n; i++) {
+			final double t = 2.0 * i / (n - 1) - 1;
+			final int p = (int) Math.round(spread * (1 + 0.1 * t + 0.9 * t * t * t));
+			positions[i] = i == 0 ? SPACING : Math.max(p, positions[i - 1]
+					+ SPACING);
+		}
+		return positions;
+	}
+
+	/**
+	 * Creates every edge of the lattice with rows and columns at some
+	 * coordinates, in random order.
+	 */
+	private static List<Road> createLattice(final int[] positions,
+			final Random random) {
+		final int n = positions.length;
+		final City[][] cities = new City[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				cities[i][j] = new City("c" + i + "_" + j, positions[i],
+						positions[j], 0, 0, 1, "black");
+			}
+		}
+		final List<Road> roads = new ArrayList<Road>();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i + 1][j]));
+				}
+				if (j + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i][j + 1]));
+				}
+			}
+		}
+		Collections.shuffle(roads, random);
+		return roads;
+	}
+}
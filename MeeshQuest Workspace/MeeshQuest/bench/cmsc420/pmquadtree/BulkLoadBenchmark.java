@@ -0,0 +1,141 @@
+package cmsc420.pmquadtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import cmsc420.command.World;
+import cmsc420.geometry.Airport;
+import cmsc420.geometry.City;
+import cmsc420.geometry.Road;
+import cmsc420.pmquadtree.PMQuadtree.Black;
+import cmsc420.pmquadtree.PMQuadtree.Gray;
+import cmsc420.pmquadtree.PMQuadtree.Node;
+
+/**
+ * Compares building a PM Quadtree with {@link PMQuadtree#load} against
+ * mapping the same roads one at a time. The edges of a square lattice of
+ * cities are mapped in random order to PM3 and PM1 Quadtrees both ways, and
+ * the trees built must have the same nodes holding the same geometry in the
+ * same order, as <code>printPMQuadtree</code> would print them.
+ * <p>
+ * The best time of several rounds is reported for each way.
+ * <p>
+ * Usage: <code>BulkLoadBenchmark [roads] [rounds]</code>.
+ */
+public class BulkLoadBenchmark {
+	/** spacing of the lattice; the metropole is as wide as it needs to be */
+	private static final int SPACING = 4;
+
+	public static void main(String[] args) throws Throwable {
+		final int numRoads = args.length > 0 ? Integer.parseInt(args[0])
+				: 200000;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		int n = 2;
+		while (2 * n * (n - 1) < numRoads) {
+			n++;
+		}
+		int size = 1;
+		while (size < n * SPACING) {
+			size <<= 1;
+		}
+		final List<Road> roads = createLattice(n, new Random(420)).subList(0,
+				numRoads);
+		final World world = new World(size, size, 1, 1);
+
+		System.out.printf("%d roads, %d processors, best of %d rounds%n",
+				numRoads, Runtime.getRuntime().availableProcessors(), rounds);
+		System.out.printf("%-5s %14s %10s %8s%n", "tree", "one at a time",
+				"load", "speedup");
+		for (int order : new int[] { 3, 1 }) {
+			long incremental = Long.MAX_VALUE, bulk = Long.MAX_VALUE;
+			for (int i = 0; i < rounds; i++) {
+				final PMQuadtree one = create(order, world);
+				long start = System.nanoTime();
+				for (Road road : roads) {
+					one.addRoad(road);
+				}
+				incremental = Math.min(incremental, System.nanoTime() - start);
+
+				final PMQuadtree all = create(order, world);
+				start = System.nanoTime();
+				all.load(Collections.<Airport> emptyList(), roads);
+				bulk = Math.min(bulk, System.nanoTime() - start);
+
+				if (!same(one.getRoot(), all.getRoot())
+						|| one.getNumRoads() != all.getNumRoads()
+						|| one.getNumCities() != all.getNumCities()) {
+					throw new IllegalStateException("PM" + order
+							+ " trees differ");
+				}
+			}
+			System.out.printf("PM%-3d %14.1f %10.1f %7.1fx%n", order,
+					incremental / 1e6, bulk / 1e6, (double) incremental / bulk);
+		}
+	}
+
+	private static PMQuadtree create(final int order, final World world) {
+		return order == 3 ? new PM3Quadtree(world) : new PM1Quadtree(world);
+	}
+
+	/**
+	 * Returns if two nodes have the same shape and hold the same geometry in
+	 * the same order.
+	 */
+	private static boolean same(final Node a, final Node b) {
+		if (a.getType() != b.getType()) {
+			return false;
+		} else if (a.getType() == Node.BLACK) {
+			final GeometryList geometryA = ((Black) a).getGeometry();
+			final GeometryList geometryB = ((Black) b).getGeometry();
+			if (geometryA.size() != geometryB.size()) {
+				return false;
+			}
+			for (int i = 0; i < geometryA.size(); i++) {
+				if (geometryA.get(i) != geometryB.get(i)) {
+					return false;
+				}
+			}
+		} else if (a.getType() == Node.GRAY) {
+			final Gray grayA = (Gray) a, grayB = (Gray) b;
+			if (grayA.getCenterX() != grayB.getCenterX()
+					|| grayA.getCenterY() != grayB.getCenterY()) {
+				return false;
+			}
+			for (int i = 0; i < 4; i++) {
+				if (!same(grayA.getChild(i), grayB.getChild(i))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates every edge of a square lattice of cities, in random order.
+	 */
+	private static List<Road> createLattice(final int n, final Random random) {
+		final City[][] cities = new City[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				cities[i][j] = new City("c" + i + "_" + j, i * SPACING, j
+						* SPACING, 0, 0, 1, "black");
+			}
+		}
+		final List<Road> roads = new ArrayList<Road>();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i + 1][j]));
+				}
+				if (j + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i][j + 1]));
+				}
+			}
+		}
+		Collections.shuffle(roads, random);
+		return roads;
+	}
+}
@@ -0,0 +1,231 @@
+package cmsc420.pmquadtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cmsc420.command.World;
+import cmsc420.geometry.City;
+import cmsc420.geometry.Road;
+import cmsc420.pmquadtree.PMQuadtree.Black;
+import cmsc420.pmquadtree.PMQuadtree.Gray;
+import cmsc420.pmquadtree.PMQuadtree.Node;
+
+/**
+ * Measures how reads of a {@link ConcurrentPMQuadtree} scale with the number
+ * of threads reading it while another thread keeps changing it. Some edges
+ * of a square lattice of cities are mapped, and for each number of readers
+ * one writer maps more of them, while the readers count the black nodes and
+ * geometry inside random windows of the latest version, as a range search
+ * would.
+ * <p>
+ * A road unmapped from a PM Quadtree cannot be mapped to it again, so the
+ * writer maps the rest of the lattice instead, clearing the tree and mapping
+ * the first roads again whenever the lattice runs out. Each reader also
+ * checks the version it read was not changed while it was being read. The
+ * reads and changes made per second are reported for each number of
+ * readers.
+ * <p>
+ * Usage: <code>ConcurrentReadBenchmark [roads] [seconds] [max readers]</code>.
+ */
+public class ConcurrentReadBenchmark {
+	/** spatial width and height of the metropole */
+	private static final int SIZE = 1024;
+
+	/** distance between neighbouring cities of the lattice */
+	private static final int SPACING = 4;
+
+	/** width and height of the windows read */
+	private static final int WINDOW = SIZE / 8;
+
+	public static void main(String[] args) throws Throwable {
+		final List<Road> lattice = createLattice(new Random(420));
+		final int numRoads = Math.min(lattice.size(),
+				args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+		final double seconds = args.length > 1 ? Double
+				.parseDouble(args[1]) : 2;
+		final int maxReaders = args.length > 2 ? Integer.parseInt(args[2])
+				: 2 * Runtime.getRuntime().availableProcessors();
+
+		final ConcurrentPMQuadtree tree = new ConcurrentPMQuadtree(
+				new PM3Quadtree(new World(SIZE, SIZE, 1, 1)));
+		final int[] next = { load(tree, lattice, numRoads) };
+
+		System.out.printf("%d roads, %d processors, %.1f s per run%n",
+				numRoads, Runtime.getRuntime().availableProcessors(), seconds);
+		System.out.printf("%-8s %14s %14s %14s%n", "readers", "reads/s",
+				"reads/s/reader", "changes/s");
+		for (int readers = 1; readers <= maxReaders; readers <<= 1) {
+			run(tree, lattice, numRoads, next, readers, seconds);
+		}
+	}
+
+	/**
+	 * Reads the tree from some threads while changing it from another for a
+	 * while, and prints the rates.
+	 */
+	private static void run(final ConcurrentPMQuadtree tree,
+			final List<Road> lattice, final int numRoads, final int[] next,
+			final int readers, final double seconds) throws Throwable {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final CountDownLatch started = new CountDownLatch(readers + 1);
+		final long[] reads = new long[readers];
+		final long[] changes = new long[1];
+		final Throwable[] failure = new Throwable[1];
+		final List<Thread> threads = new ArrayList<Thread>();
+
+		for (int i = 0; i < readers; i++) {
+			final int reader = i;
+			threads.add(new Thread() {
+				public void run() {
+					final Random random = new Random(reader);
+					started.countDown();
+					try {
+						while (running.get()) {
+							read(tree, random);
+							reads[reader]++;
+						}
+					} catch (Throwable t) {
+						fail(failure, t, running);
+					}
+				}
+			});
+		}
+		threads.add(new Thread() {
+			public void run() {
+				started.countDown();
+				try {
+					while (running.get()) {
+						if (next[0] == lattice.size()) {
+							next[0] = load(tree, lattice, numRoads);
+						} else {
+							tree.addRoad(lattice.get(next[0]++));
+						}
+						changes[0]++;
+					}
+				} catch (Throwable t) {
+					fail(failure, t, running);
+				}
+			}
+		});
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		started.await();
+		final long start = System.nanoTime();
+		Thread.sleep((long) (seconds * 1000));
+		running.set(false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		final double elapsed = (System.nanoTime() - start) / 1e9;
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+
+		long total = 0;
+		for (long r : reads) {
+			total += r;
+		}
+		System.out.printf("%-8d %14.0f %14.0f %14.0f%n", readers, total
+				/ elapsed, total / elapsed / readers, changes[0] / elapsed);
+	}
+
+	/**
+	 * Clears the tree and maps the first roads of the lattice to it, and
+	 * returns the index of the next road to be mapped.
+	 */
+	private static int load(final ConcurrentPMQuadtree tree,
+			final List<Road> lattice, final int numRoads) throws Throwable {
+		tree.clear();
+		for (int i = 0; i < numRoads; i++) {
+			tree.addRoad(lattice.get(i));
+		}
+		return numRoads;
+	}
+
+	/**
+	 * Counts what lies in a random window of the latest version twice, and
+	 * checks the counts agree.
+	 */
+	private static void read(final ConcurrentPMQuadtree tree,
+			final Random random) {
+		final Node root = tree.getRoot();
+		final int x = random.nextInt(SIZE - WINDOW);
+		final int y = random.nextInt(SIZE - WINDOW);
+		final long count = count(root, 0, 0, SIZE, SIZE, x, y);
+		if (count(root, 0, 0, SIZE, SIZE, x, y) != count) {
+			throw new IllegalStateException("version changed while read");
+		}
+	}
+
+	/**
+	 * Counts the black nodes and their geometry below a node whose region
+	 * overlaps a window.
+	 */
+	private static long count(final Node node, final int originX,
+			final int originY, final int width, final int height, final int x,
+			final int y) {
+		if (originX >= x + WINDOW || x >= originX + width
+				|| originY >= y + WINDOW || y >= originY + height) {
+			return 0;
+		}
+		if (node.getType() == Node.BLACK) {
+			return 1 + ((Black) node).getGeometry().size();
+		} else if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			long count = 0;
+			for (int i = 0; i < 4; i++) {
+				count += count(gray.getChild(i), gray.getChildX(i),
+						gray.getChildY(i), gray.getHalfWidth(), gray
+								.getHalfHeight(), x, y);
+			}
+			return count;
+		}
+		return 0;
+	}
+
+	/**
+	 * Records the first failure of a thread and stops the others.
+	 */
+	private static void fail(final Throwable[] failure, final Throwable t,
+			final AtomicBoolean running) {
+		synchronized (failure) {
+			if (failure[0] == null) {
+				failure[0] = t;
+			}
+		}
+		running.set(false);
+	}
+
+	/**
+	 * Creates every edge of a square lattice of cities, in random order.
+	 */
+	private static List<Road> createLattice(final Random random) {
+		final int n = SIZE / SPACING;
+		final City[][] cities = new City[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				cities[i][j] = new City("c" + i + "_" + j, i * SPACING, j
+						* SPACING, 0, 0, 1, "black");
+			}
+		}
+		final List<Road> roads = new ArrayList<Road>();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i + 1][j]));
+				}
+				if (j + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i][j + 1]));
+				}
+			}
+		}
+		Collections.shuffle(roads, random);
+		return roads;
+	}
+}
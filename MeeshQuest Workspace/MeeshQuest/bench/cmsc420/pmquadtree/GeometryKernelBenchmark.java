@@ -0,0 +1,164 @@
+package cmsc420.pmquadtree;
+
+import java.awt.geom.Rectangle2D;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import cmsc420.geom.Inclusive2DIntersectionVerifier;
+import cmsc420.geometry.City;
+import cmsc420.geometry.IntegerGeometry;
+import cmsc420.geometry.Road;
+
+/**
+ * Compares the intersection tests a PM Quadtree makes with
+ * {@link IntegerGeometry} against the same tests made the way they used to be,
+ * building a <code>Line2D</code> and <code>Rectangle2D</code> for each and
+ * asking {@link Inclusive2DIntersectionVerifier}. Random short roads are
+ * tested against random regions of a quadtree, as a gray node tests the
+ * roads it passes down, and against each other, as a road being mapped is
+ * tested against its candidates. Both ways must agree on every test.
+ * <p>
+ * Each way is run for several rounds after warming up, and the best round is
+ * reported along with the bytes allocated per test, where the JVM can measure
+ * them.
+ * <p>
+ * Usage: <code>GeometryKernelBenchmark [roads] [rounds]</code>.
+ */
+public class GeometryKernelBenchmark {
+	/** spatial width and height of the metropole */
+	private static final int SIZE = 1 << 16;
+
+	/** number of regions each road is tested against */
+	private static final int REGIONS = 64;
+
+	public static void main(String[] args) {
+		final int numRoads = args.length > 0 ? Integer.parseInt(args[0])
+				: 20000;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		final Random random = new Random(420);
+		final Road[] roads = new Road[numRoads];
+		for (int i = 0; i < numRoads; i++) {
+			final int x = random.nextInt(SIZE), y = random.nextInt(SIZE);
+			final City start = new City("a" + i, x, y, 0, 0, 1, "black");
+			final City end = new City("b" + i, Math.min(SIZE, x
+					+ random.nextInt(SIZE >> 6)), Math.min(SIZE, y
+					+ random.nextInt(SIZE >> 6)), 0, 0, 1, "black");
+			roads[i] = new Road(start, end);
+		}
+		final int[] regions = new int[REGIONS * 4];
+		for (int i = 0; i < REGIONS; i++) {
+			final int width = SIZE >> (1 + random.nextInt(10));
+			regions[i * 4] = random.nextInt(SIZE / width) * width;
+			regions[i * 4 + 1] = random.nextInt(SIZE / width) * width;
+			regions[i * 4 + 2] = width;
+			regions[i * 4 + 3] = width;
+		}
+
+		final long tests = (long) numRoads * REGIONS + numRoads - 1;
+		if (box(roads, regions, true) + segment(roads, true) != box(roads,
+				regions, false)
+				+ segment(roads, false)) {
+			throw new IllegalStateException("kernel and verifier disagree");
+		}
+		System.out.printf("%d roads, %d regions, %d tests per round%n",
+				numRoads, REGIONS, tests);
+		System.out.printf("%-10s %10s %12s%n", "path", "ns/test", "bytes/test");
+		report("verifier", roads, regions, false, rounds, tests);
+		report("kernel", roads, regions, true, rounds, tests);
+	}
+
+	/**
+	 * Runs one way of testing for some rounds and prints its best time and
+	 * its allocation per test.
+	 */
+	private static void report(final String name, final Road[] roads,
+			final int[] regions, final boolean kernel, final int rounds,
+			final long tests) {
+		for (int i = 0; i < rounds; i++) {
+			run(roads, regions, kernel);
+		}
+		long best = Long.MAX_VALUE;
+		final long allocated = allocatedBytes();
+		for (int i = 0; i < rounds; i++) {
+			final long start = System.nanoTime();
+			run(roads, regions, kernel);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		final long bytes = allocatedBytes() - allocated;
+		System.out.printf("%-10s %10.1f %12s%n", name, (double) best / tests,
+				allocated < 0 ? "-" : String.format("%.1f", (double) bytes
+						/ rounds / tests));
+	}
+
+	/**
+	 * Runs every test once and returns how many found an intersection.
+	 */
+	private static int run(final Road[] roads, final int[] regions,
+			final boolean kernel) {
+		return box(roads, regions, kernel) + segment(roads, kernel);
+	}
+
+	/**
+	 * Tests every road against every region.
+	 */
+	private static int box(final Road[] roads, final int[] regions,
+			final boolean kernel) {
+		int found = 0;
+		for (Road road : roads) {
+			for (int i = 0; i < regions.length; i += 4) {
+				final boolean intersects;
+				if (kernel) {
+					intersects = IntegerGeometry.intersects(road, regions[i],
+							regions[i + 1], regions[i + 2], regions[i + 3]);
+				} else {
+					intersects = Inclusive2DIntersectionVerifier.intersects(
+							road.toLine2D(), new Rectangle2D.Float(regions[i],
+									regions[i + 1], regions[i + 2],
+									regions[i + 3]));
+				}
+				if (intersects) {
+					found++;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Tests every road against the road after it.
+	 */
+	private static int segment(final Road[] roads, final boolean kernel) {
+		int found = 0;
+		for (int i = 1; i < roads.length; i++) {
+			final boolean intersects;
+			if (kernel) {
+				intersects = IntegerGeometry.intersects(roads[i - 1], roads[i]);
+			} else {
+				intersects = Inclusive2DIntersectionVerifier.intersects(
+						roads[i - 1].toLine2D(), roads[i].toLine2D());
+			}
+			if (intersects) {
+				found++;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Gets the bytes allocated by this thread so far, or -1 if the JVM cannot
+	 * tell.
+	 */
+	private static long allocatedBytes() {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported()) {
+				return threads.getThreadAllocatedBytes(Thread.currentThread()
+						.getId());
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,231 @@
+package cmsc420.pmquadtree;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import cmsc420.command.World;
+import cmsc420.geometry.City;
+import cmsc420.geometry.Geometry;
+import cmsc420.geometry.Road;
+import cmsc420.pmquadtree.PMQuadtree.Black;
+import cmsc420.pmquadtree.PMQuadtree.Gray;
+import cmsc420.pmquadtree.PMQuadtree.Node;
+
+/**
+ * Compares finding the k cities nearest to a point with a
+ * {@link NearestCitySearch} against the way nearestCity used to search,
+ * queueing an object for each region and city it reached in a
+ * <code>PriorityQueue</code>. The edges of a square lattice of cities are
+ * mapped to a PM3 Quadtree, and both ways must find the same cities in the
+ * same order for every query.
+ * <p>
+ * Each way is run for several rounds, and the best round is reported along
+ * with the bytes allocated per query, where the JVM can measure them.
+ * <p>
+ * Usage: <code>NearestCitiesBenchmark [cities per side] [queries] [rounds]</code>.
+ */
+public class NearestCitiesBenchmark {
+	/** distance between neighbouring cities of the lattice */
+	private static final int SPACING = 4;
+
+	/** numbers of cities found per query */
+	private static final int[] KS = { 1, 10, 100 };
+
+	public static void main(String[] args) throws Throwable {
+		final int n = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		final int numQueries = args.length > 1 ? Integer.parseInt(args[1])
+				: 20000;
+		final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		int size = 1;
+		while (size < n * SPACING) {
+			size <<= 1;
+		}
+		final PMQuadtree pmQuadtree = new PM3Quadtree(new World(size, size, 1,
+				1));
+		for (Road road : createLattice(n, new Random(420))) {
+			pmQuadtree.addRoad(road);
+		}
+		final Node root = pmQuadtree.getRoot();
+
+		final Random random = new Random(7);
+		final int[] queries = new int[2 * numQueries];
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = random.nextInt(size);
+		}
+
+		System.out.printf("%d cities, %d queries, best of %d rounds%n", n * n,
+				numQueries, rounds);
+		System.out.printf("%-6s %12s %12s %12s %12s%n", "k", "queue us",
+				"queue bytes", "heap us", "heap bytes");
+		final NearestCitySearch search = new NearestCitySearch();
+		for (int k : KS) {
+			for (int i = 0; i < numQueries; i++) {
+				final List<City> expected = nearest(root, queries[2 * i],
+						queries[2 * i + 1], k);
+				final int found = search.search(root, queries[2 * i],
+						queries[2 * i + 1], k);
+				if (found != expected.size()) {
+					throw new IllegalStateException("found " + found
+							+ " cities, not " + expected.size());
+				}
+				for (int j = 0; j < found; j++) {
+					if (search.getCity(j) != expected.get(j)) {
+						throw new IllegalStateException(
+								"found another nearest city");
+					}
+				}
+			}
+
+			long queue = Long.MAX_VALUE, heap = Long.MAX_VALUE;
+			long queueBytes = 0, heapBytes = 0, count = 0;
+			for (int round = 0; round < rounds; round++) {
+				long allocated = allocatedBytes();
+				long start = System.nanoTime();
+				for (int i = 0; i < numQueries; i++) {
+					count += nearest(root, queries[2 * i], queries[2 * i + 1],
+							k).size();
+				}
+				queue = Math.min(queue, System.nanoTime() - start);
+				queueBytes += allocatedBytes() - allocated;
+
+				allocated = allocatedBytes();
+				start = System.nanoTime();
+				for (int i = 0; i < numQueries; i++) {
+					count += search.search(root, queries[2 * i],
+							queries[2 * i + 1], k);
+				}
+				heap = Math.min(heap, System.nanoTime() - start);
+				heapBytes += allocatedBytes() - allocated;
+			}
+			if (count < 0) {
+				throw new IllegalStateException();
+			}
+
+			final boolean measured = allocatedBytes() >= 0;
+			System.out.printf("%-6d %12.2f %12s %12.2f %12s%n", k, queue / 1e3
+					/ numQueries, measured ? String.format("%.1f",
+					(double) queueBytes / rounds / numQueries) : "-", heap
+					/ 1e3 / numQueries, measured ? String.format("%.1f",
+					(double) heapBytes / rounds / numQueries) : "-");
+		}
+	}
+
+	/**
+	 * A region or a city waiting to be visited by a nearest city search.
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		private final double distance;
+
+		private final Node node;
+
+		private final City city;
+
+		private Candidate(final double distance, final Node node,
+				final City city) {
+			this.distance = distance;
+			this.node = node;
+			this.city = city;
+		}
+
+		public int compareTo(final Candidate o) {
+			if (distance != o.distance) {
+				return distance < o.distance ? -1 : 1;
+			} else if (city == null || o.city == null) {
+				/* regions first, so every city as near is queued */
+				return (city == null ? 0 : 1) - (o.city == null ? 0 : 1);
+			}
+			return city.compareTo(o.city);
+		}
+	}
+
+	/**
+	 * Finds the k cities nearest to a point, nearest first, queueing regions
+	 * and cities best first.
+	 */
+	private static List<City> nearest(final Node root, final int x,
+			final int y, final int k) {
+		final List<City> nearest = new ArrayList<City>();
+		final PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+		candidates.add(new Candidate(0, root, null));
+		while (!candidates.isEmpty() && nearest.size() < k) {
+			final Candidate c = candidates.remove();
+			if (c.city != null) {
+				if (!nearest.contains(c.city)) {
+					nearest.add(c.city);
+				}
+			} else if (c.node.getType() == Node.BLACK) {
+				final GeometryList geometry = ((Black) c.node).getGeometry();
+				for (int i = 0; i < geometry.getNumPoints(); i++) {
+					final Geometry g = geometry.get(i);
+					if (g.isCity()) {
+						final City city = (City) g;
+						final double dx = city.getLocalX() - x;
+						final double dy = city.getLocalY() - y;
+						candidates.add(new Candidate(Math.sqrt(dx * dx + dy
+								* dy), null, city));
+					}
+				}
+			} else if (c.node.getType() == Node.GRAY) {
+				final Gray gray = (Gray) c.node;
+				for (int i = 0; i < 4; i++) {
+					final int childX = gray.getChildX(i), childY = gray.getChildY(i);
+					final double dx = Math.max(0, Math.max(childX - x, x
+							- (childX + gray.getHalfWidth())));
+					final double dy = Math.max(0, Math.max(childY - y, y
+							- (childY + gray.getHalfHeight())));
+					candidates.add(new Candidate(Math.sqrt(dx * dx + dy * dy),
+							gray.getChild(i), null));
+				}
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Gets the bytes allocated by this thread so far, or -1 if the JVM cannot
+	 * tell.
+	 */
+	private static long allocatedBytes() {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported()) {
+				return threads.getThreadAllocatedBytes(Thread.currentThread()
+						.getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Creates every edge of a square lattice of cities, in random order.
+	 */
+	private static List<Road> createLattice(final int n, final Random random) {
+		final City[][] cities = new City[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				cities[i][j] = new City("c" + i + "_" + j, i * SPACING, j
+						* SPACING, 0, 0, 1, "black");
+			}
+		}
+		final List<Road> roads = new ArrayList<Road>();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i + 1][j]));
+				}
+				if (j + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i][j + 1]));
+				}
+			}
+		}
+		Collections.shuffle(roads, random);
+		return roads;
+	}
+}
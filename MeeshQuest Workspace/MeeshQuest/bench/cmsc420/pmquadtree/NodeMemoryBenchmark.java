@@ -0,0 +1,189 @@
+package cmsc420.pmquadtree;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+
+import cmsc420.command.World;
+import cmsc420.geometry.City;
+import cmsc420.geometry.Road;
+import cmsc420.pmquadtree.PMQuadtree.Gray;
+import cmsc420.pmquadtree.PMQuadtree.Node;
+
+/**
+ * Measures the heap taken by the gray nodes of a PM Quadtree. A metropole is
+ * filled with the edges of a square lattice of cities, a million roads by
+ * default, and its gray nodes are counted. Then the bytes per gray node are
+ * measured by allocating a sample of gray nodes as they are now, holding
+ * their integer origin, half extents and children, and a sample laid out as
+ * gray nodes used to be, also holding the origins and regions of their four
+ * children as boxed points and rectangles.
+ * <p>
+ * Run with a heap large enough for the metropole, e.g. <code>-Xmx2g</code>.
+ * <p>
+ * Usage: <code>NodeMemoryBenchmark [roads] [samples]</code>.
+ */
+public class NodeMemoryBenchmark {
+	/** distance between neighbouring cities of the lattice */
+	private static final int SPACING = 2;
+
+	/**
+	 * Gray node laid out as before, with the fields of the node it is
+	 * compared against plus the boxes it no longer keeps. Gray nodes are
+	 * inner classes, so the reference to the PM Quadtree is kept too.
+	 */
+	private static final class LegacyGray {
+		final int type;
+		final Object pmQuadtree;
+		final Object[] children;
+		final Rectangle2D.Float[] regions;
+		final Point2D.Float origin;
+		final Point2D.Float[] origins;
+		final int halfWidth;
+		final int halfHeight;
+
+		LegacyGray(final Object pmQuadtree, final Object white,
+				final Point2D.Float origin, final int width, final int height) {
+			type = Node.GRAY;
+			this.pmQuadtree = pmQuadtree;
+			this.origin = origin;
+			children = new Object[4];
+			for (int i = 0; i < 4; i++) {
+				children[i] = white;
+			}
+			halfWidth = width >> 1;
+			halfHeight = height >> 1;
+			origins = new Point2D.Float[4];
+			origins[0] = new Point2D.Float(origin.x, origin.y + halfHeight);
+			origins[1] = new Point2D.Float(origin.x + halfWidth, origin.y
+					+ halfHeight);
+			origins[2] = new Point2D.Float(origin.x, origin.y);
+			origins[3] = new Point2D.Float(origin.x + halfWidth, origin.y);
+			regions = new Rectangle2D.Float[4];
+			for (int i = 0; i < 4; i++) {
+				regions[i] = new Rectangle2D.Float(origins[i].x, origins[i].y,
+						halfWidth, halfHeight);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Throwable {
+		final int numRoads = args.length > 0 ? Integer.parseInt(args[0])
+				: 1000000;
+		final int samples = args.length > 1 ? Integer.parseInt(args[1])
+				: 200000;
+
+		/* smallest lattice with enough edges, in the smallest square around it */
+		int n = 2;
+		while (2L * n * (n - 1) < numRoads) {
+			n++;
+		}
+		int size = 1;
+		while (size < n * SPACING) {
+			size <<= 1;
+		}
+
+		final long start = System.nanoTime();
+		PMQuadtree pmQuadtree = new PM3Quadtree(new World(size, size, 1, 1));
+		final long treeBefore = usedMemory();
+		final int loaded = load(pmQuadtree, n, numRoads);
+		final long treeBytes = usedMemory() - treeBefore;
+		final long[] counts = new long[3];
+		count(pmQuadtree.getRoot(), counts);
+		System.out.printf("%d roads in a %dx%d metropole, loaded in %.1f s%n",
+				loaded, size, size, (System.nanoTime() - start) / 1e9);
+		System.out.printf("%d gray nodes, %d black nodes, %.1f MB in all%n",
+				counts[Node.GRAY], counts[Node.BLACK], treeBytes / 1e6);
+		pmQuadtree = null;
+
+		final PMQuadtree empty = new PM3Quadtree(new World(size, size, 1, 1));
+		final Object[] nodes = new Object[samples];
+		long before = usedMemory();
+		for (int i = 0; i < samples; i++) {
+			nodes[i] = empty.new Gray(0, 0, size, size);
+		}
+		final double compact = (double) (usedMemory() - before) / samples;
+		check(nodes);
+
+		for (int i = 0; i < samples; i++) {
+			nodes[i] = null;
+		}
+		final Point2D.Float origin = new Point2D.Float(0, 0);
+		before = usedMemory();
+		for (int i = 0; i < samples; i++) {
+			nodes[i] = new LegacyGray(empty, empty.white, origin, size, size);
+		}
+		final double legacy = (double) (usedMemory() - before) / samples;
+		check(nodes);
+
+		System.out.printf("%-8s %14s %16s%n", "layout", "bytes/gray", "MB of gray nodes");
+		System.out.printf("%-8s %14.1f %16.1f%n", "before", legacy, legacy
+				* counts[Node.GRAY] / 1e6);
+		System.out.printf("%-8s %14.1f %16.1f%n", "after", compact, compact
+				* counts[Node.GRAY] / 1e6);
+	}
+
+	/**
+	 * Maps the edges of an n by n lattice of cities, up to the given number,
+	 * and returns how many were mapped.
+	 */
+	private static int load(final PMQuadtree pmQuadtree, final int n,
+			final int numRoads) throws Throwable {
+		final City[] previous = new City[n];
+		int loaded = 0;
+		for (int i = 0; i < n; i++) {
+			City left = null;
+			for (int j = 0; j < n; j++) {
+				final City city = new City("c" + i + "_" + j, i * SPACING, j
+						* SPACING, 0, 0, 1, "black");
+				if (left != null && loaded < numRoads) {
+					pmQuadtree.addRoad(new Road(left, city));
+					loaded++;
+				}
+				if (previous[j] != null && loaded < numRoads) {
+					pmQuadtree.addRoad(new Road(previous[j], city));
+					loaded++;
+				}
+				previous[j] = city;
+				left = city;
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Counts the nodes of each type below a node.
+	 */
+	private static void count(final Node node, final long[] counts) {
+		counts[node.getType()]++;
+		if (node.getType() == Node.GRAY) {
+			for (int i = 0; i < 4; i++) {
+				count(((Gray) node).getChild(i), counts);
+			}
+		}
+	}
+
+	/**
+	 * Keeps the sampled nodes reachable until they have been measured.
+	 */
+	private static void check(final Object[] nodes) {
+		for (Object node : nodes) {
+			if (node == null) {
+				throw new IllegalStateException();
+			}
+		}
+	}
+
+	/**
+	 * Gets the heap in use after collecting garbage.
+	 */
+	private static long usedMemory() throws InterruptedException {
+		final Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(20);
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+		return used;
+	}
+}
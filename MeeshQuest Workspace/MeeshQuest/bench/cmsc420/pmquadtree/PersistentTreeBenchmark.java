@@ -0,0 +1,186 @@
+package cmsc420.pmquadtree;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import cmsc420.command.World;
+import cmsc420.geometry.City;
+import cmsc420.geometry.Road;
+import cmsc420.pmquadtree.PMQuadtree.Black;
+import cmsc420.pmquadtree.PMQuadtree.Gray;
+import cmsc420.pmquadtree.PMQuadtree.Node;
+
+/**
+ * Measures what keeping earlier versions of a PM Quadtree costs. The edges
+ * of a square lattice of cities are mapped in random order, and half of them
+ * are then unmapped, once into a tree changed in place and once into a
+ * persistent tree, which copies the path of every change. The time and the
+ * bytes allocated per change are reported for each.
+ * <p>
+ * The persistent tree's root is kept halfway through the insertions and
+ * checked to be unchanged once every change has been made.
+ * <p>
+ * Usage: <code>PersistentTreeBenchmark [roads] [rounds]</code>.
+ */
+public class PersistentTreeBenchmark {
+	/** spatial width and height of the metropole */
+	private static final int SIZE = 1024;
+
+	/** distance between neighbouring cities of the lattice */
+	private static final int SPACING = 4;
+
+	public static void main(String[] args) throws Throwable {
+		final List<Road> lattice = createLattice(new Random(420));
+		final int numRoads = Math.min(lattice.size(),
+				args.length > 0 ? Integer.parseInt(args[0]) : 50000);
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		final List<Road> roads = lattice.subList(0, numRoads);
+
+		System.out.printf("%d roads, best of %d rounds%n", numRoads, rounds);
+		System.out.printf("%-11s %10s %12s %10s %12s%n", "tree",
+				"insert ms", "bytes/insert", "delete ms", "bytes/delete");
+		report("in place", roads, false, rounds);
+		report("persistent", roads, true, rounds);
+	}
+
+	/**
+	 * Loads and half empties a tree for some rounds, and prints the best
+	 * times and the allocation per change.
+	 */
+	private static void report(final String name, final List<Road> roads,
+			final boolean persistent, final int rounds) throws Throwable {
+		final long[] best = { Long.MAX_VALUE, 0, Long.MAX_VALUE, 0 };
+		for (int i = 0; i < rounds; i++) {
+			final long[] result = run(roads, persistent);
+			if (result[0] < best[0]) {
+				best[0] = result[0];
+				best[1] = result[1];
+			}
+			if (result[2] < best[2]) {
+				best[2] = result[2];
+				best[3] = result[3];
+			}
+		}
+		final int numDeleted = roads.size() / 2;
+		System.out.printf("%-11s %10.1f %12s %10.1f %12s%n", name,
+				best[0] / 1e6, perChange(best[1], roads.size()), best[2] / 1e6,
+				perChange(best[3], numDeleted));
+	}
+
+	/**
+	 * Maps the roads and unmaps half of them, and returns the nanoseconds
+	 * and bytes taken by each.
+	 */
+	private static long[] run(final List<Road> roads, final boolean persistent)
+			throws Throwable {
+		final PMQuadtree pmQuadtree = new PM3Quadtree(new World(SIZE, SIZE,
+				1, 1));
+		pmQuadtree.setPersistent(persistent);
+		Node snapshot = null;
+		String expected = null;
+
+		final long[] result = new long[4];
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < roads.size(); i++) {
+			pmQuadtree.addRoad(roads.get(i));
+			if (persistent && i == roads.size() / 2) {
+				snapshot = pmQuadtree.snapshot();
+				expected = describe(snapshot);
+			}
+		}
+		result[0] = System.nanoTime() - start;
+		result[1] = bytes < 0 ? -1 : allocatedBytes() - bytes;
+
+		bytes = allocatedBytes();
+		start = System.nanoTime();
+		for (int i = 0; i < roads.size() / 2; i++) {
+			pmQuadtree.deleteGeometry(roads.get(i));
+		}
+		result[2] = System.nanoTime() - start;
+		result[3] = bytes < 0 ? -1 : allocatedBytes() - bytes;
+
+		if (snapshot != null && !describe(snapshot).equals(expected)) {
+			throw new IllegalStateException("snapshot changed");
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the nodes and geometry below a node, to tell whether it changed.
+	 */
+	private static String describe(final Node node) {
+		final long[] counts = new long[4];
+		describe(node, counts);
+		return counts[Node.WHITE] + " white, " + counts[Node.BLACK]
+				+ " black, " + counts[Node.GRAY] + " gray, " + counts[3]
+				+ " geometry";
+	}
+
+	private static void describe(final Node node, final long[] counts) {
+		counts[node.getType()]++;
+		if (node.getType() == Node.BLACK) {
+			counts[3] += ((Black) node).getGeometry().size();
+		} else if (node.getType() == Node.GRAY) {
+			for (int i = 0; i < 4; i++) {
+				describe(((Gray) node).getChild(i), counts);
+			}
+		}
+	}
+
+	/**
+	 * Creates every edge of a square lattice of cities, in random order.
+	 */
+	private static List<Road> createLattice(final Random random) {
+		final int n = SIZE / SPACING;
+		final City[][] cities = new City[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				cities[i][j] = new City("c" + i + "_" + j, i * SPACING, j
+						* SPACING, 0, 0, 1, "black");
+			}
+		}
+		final List<Road> roads = new ArrayList<Road>();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i + 1][j]));
+				}
+				if (j + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i][j + 1]));
+				}
+			}
+		}
+		Collections.shuffle(roads, random);
+		return roads;
+	}
+
+	/**
+	 * Formats bytes allocated per change, or a dash if they could not be
+	 * measured.
+	 */
+	private static String perChange(final long bytes, final int changes) {
+		return bytes < 0 ? "-" : String.format("%.1f", (double) bytes
+				/ changes);
+	}
+
+	/**
+	 * Gets the bytes allocated by this thread so far, or -1 if the JVM cannot
+	 * tell.
+	 */
+	private static long allocatedBytes() {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported()) {
+				return threads.getThreadAllocatedBytes(Thread.currentThread()
+						.getId());
+			}
+		}
+		return -1;
+	}
+}
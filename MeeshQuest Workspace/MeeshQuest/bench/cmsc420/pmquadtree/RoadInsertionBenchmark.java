@@ -0,0 +1,130 @@
+package cmsc420.pmquadtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import cmsc420.command.World;
+import cmsc420.geom.Inclusive2DIntersectionVerifier;
+import cmsc420.geometry.City;
+import cmsc420.geometry.Road;
+
+/**
+ * Measures how the time to map roads into one metropole grows with the
+ * number of roads. The roads are the edges of a square lattice of cities,
+ * inserted in random order, so every road touches others only at shared
+ * endpoints and is mapped successfully.
+ * <p>
+ * For each size the PM Quadtree is loaded from empty and timed. Up to a
+ * limit, the same roads are also checked the way every road used to be
+ * checked, against each road already mapped, to show the quadratic curve the
+ * road index replaces.
+ * <p>
+ * Usage: <code>RoadInsertionBenchmark [largest size] [largest scanned size]</code>.
+ */
+public class RoadInsertionBenchmark {
+	/** spatial width and height of the metropole */
+	private static final int SIZE = 1024;
+
+	/** distance between neighbouring cities of the lattice */
+	private static final int SPACING = 4;
+
+	public static void main(String[] args) throws Throwable {
+		final int largest = args.length > 0 ? Integer.parseInt(args[0])
+				: 100000;
+		final int largestScanned = args.length > 1 ? Integer.parseInt(args[1])
+				: 20000;
+
+		final List<Road> roads = createLattice(new Random(420));
+		final int[] sizes = { 1000, 2000, 5000, 10000, 20000, 50000, 100000,
+				roads.size() };
+		System.out.printf("%8s %12s %10s %14s%n", "roads", "indexed ms",
+				"us/road", "linear scan ms");
+		for (int size : sizes) {
+			if (size > largest || size > roads.size()) {
+				break;
+			}
+			final List<Road> subset = roads.subList(0, size);
+			load(subset);
+			final long indexed = load(subset);
+			String scanned = "-";
+			if (size <= largestScanned) {
+				scanned = String.format("%.1f", scan(subset) / 1e6);
+			}
+			System.out.printf("%8d %12.1f %10.2f %14s%n", size, indexed / 1e6,
+					indexed / 1e3 / size, scanned);
+		}
+	}
+
+	/**
+	 * Creates every edge of a square lattice of cities, in random order.
+	 */
+	private static List<Road> createLattice(final Random random) {
+		final int n = SIZE / SPACING;
+		final City[][] cities = new City[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				cities[i][j] = new City("c" + i + "_" + j, i * SPACING, j
+						* SPACING, 0, 0, 1, "black");
+			}
+		}
+		final List<Road> roads = new ArrayList<Road>();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i + 1][j]));
+				}
+				if (j + 1 < n) {
+					roads.add(new Road(cities[i][j], cities[i][j + 1]));
+				}
+			}
+		}
+		Collections.shuffle(roads, random);
+		return roads;
+	}
+
+	/**
+	 * Maps the roads into an empty PM3 Quadtree and returns the time taken
+	 * in nanoseconds.
+	 */
+	private static long load(final List<Road> roads) throws Throwable {
+		final PMQuadtree pmQuadtree = new PM3Quadtree(new World(SIZE, SIZE,
+				1, 1));
+		final long start = System.nanoTime();
+		for (Road road : roads) {
+			pmQuadtree.addRoad(road);
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Checks each road against every road before it, as addRoad did without
+	 * an index, and returns the time taken in nanoseconds.
+	 */
+	private static long scan(final List<Road> roads) {
+		final long start = System.nanoTime();
+		int crossings = 0;
+		for (int i = 0; i < roads.size(); i++) {
+			final Road g = roads.get(i);
+			for (int j = 0; j < i; j++) {
+				final Road r = roads.get(j);
+				if (Inclusive2DIntersectionVerifier.intersects(g.toLine2D(),
+						r.toLine2D())) {
+					int numOfAllowedIntersections = 0;
+					if (r.getStart().equals(g.getStart())) numOfAllowedIntersections++;
+					if (r.getStart().equals(g.getEnd())) numOfAllowedIntersections++;
+					if (r.getEnd().equals(g.getStart())) numOfAllowedIntersections++;
+					if (r.getEnd().equals(g.getEnd())) numOfAllowedIntersections++;
+					if (numOfAllowedIntersections != 1) {
+						crossings++;
+					}
+				}
+			}
+		}
+		if (crossings != 0) {
+			throw new IllegalStateException(crossings + " roads cross");
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -3,15 +3,24 @@ package cmsc420.command;
 import java.awt.Color;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -19,7 +28,6 @@ import org.w3c.dom.Element;
 import cmsc420.drawing.CanvasPlus;
 import cmsc420.geom.Circle2D;
 import cmsc420.geom.Inclusive2DIntersectionVerifier;
-import cmsc420.geom.Shape2DDistanceCalculator;
 import cmsc420.geometry.Airport;
 import cmsc420.geometry.City;
 import cmsc420.geometry.CityLocationComparator;
@@ -28,15 +36,17 @@ import cmsc420.geometry.Metropole;
 import cmsc420.geometry.Road;
 import cmsc420.geometry.RoadAdjacencyList;
 import cmsc420.geometry.Terminal;
-import cmsc420.mxquadtree.MXQuadtree;
 import cmsc420.pmquadtree.AddOutOfBoundsThrowable;
 import cmsc420.pmquadtree.AirportDoesNotExistThrowable;
 import cmsc420.pmquadtree.AirportNotSameMetropoleThrowable;
+import cmsc420.pmquadtree.BucketPMQuadtree;
 import cmsc420.pmquadtree.CityDoesNotExistThrowable;
 import cmsc420.pmquadtree.CityNotMappedThrowable;
 import cmsc420.pmquadtree.DuplicateCoordinateThrowable;
 import cmsc420.pmquadtree.DuplicateNameThrowable;
 import cmsc420.pmquadtree.EndDoesNotExistThrowable;
+import cmsc420.pmquadtree.GeometryList;
+import cmsc420.pmquadtree.NearestCitySearch;
 import cmsc420.pmquadtree.NotSameMetropoleThrowable;
 import cmsc420.pmquadtree.OutOfBoundsThrowable;
 import cmsc420.pmquadtree.PM1Quadtree;
@@ -49,6 +59,8 @@ import cmsc420.pmquadtree.PMRuleViolationThrowable;
 import cmsc420.pmquadtree.RoadAlreadyExistsThrowable;
 import cmsc420.pmquadtree.RoadIntersectingThrowable;
 import cmsc420.pmquadtree.StartDoesNotExistThrowable;
+import cmsc420.snapshot.SnapshotReader;
+import cmsc420.snapshot.SnapshotWriter;
 import cmsc420.sortedmap.GuardedAvlGTree;
 
 /**
@@ -62,6 +74,33 @@ public class Command {
 	/** root node of results document */
 	protected Element resultsNode;
 
+	/** receives the result of each processed command */
+	protected ResultSink resultSink;
+
+	/**
+	 * whether the input has skipped schema validation, in which case each
+	 * attribute is checked as it is read
+	 */
+	protected boolean trustedInput = false;
+
+	/**
+	 * whether commands are being replayed to rebuild state, in which case no
+	 * results are built for them
+	 */
+	protected boolean replaying = false;
+
+	/** number of errors reported since this processor was created */
+	private int numErrors = 0;
+
+	/** colors a city may have */
+	private static final HashSet<String> COLORS = new HashSet<String>(
+			Arrays.asList("red", "green", "blue", "yellow", "purple",
+					"orange", "black"));
+
+	/** names of cities, airports, terminals and saved maps */
+	private static final Pattern NAME = Pattern
+			.compile("[_a-zA-Z][-._a-zA-Z0-9]*");
+
 	/**
 	 * stores created cities sorted by their names (used with listCities
 	 * command)
@@ -73,6 +112,12 @@ public class Command {
 	protected Map<String, Terminal> terminalsByName;
 	
 	protected Map<Metropole, PMQuadtree> remotetoLocalMap;
+
+	/**
+	 * most metropoles remotetoLocalMap has held, which sets the size of its
+	 * table and so the order it iterates them in; clearing the map keeps it
+	 */
+	private int maxMetropoles;
 	
 	/**
 	 * stores created cities sorted by their locations (used with listCities
@@ -83,23 +128,17 @@ public class Command {
 	
 	private final RoadAdjacencyList roads = new RoadAdjacencyList();
 
-	/** stores mapped cities in a spatial data structure */
-	public static MXQuadtree remoteSpatialMap;
+	/** spatial dimensions and remote spatial map of this world */
+	protected World world;
 
 	/** order of the PM Quadtree */
 	protected int pmOrder;
 
-	/** spatial width of the metropoles */
-	protected static int localSpatialWidth;
+	/** most vertices in a leaf of a PM Quadtree of order 3 */
+	protected int bucketSize;
 
-	/** spatial height of the metropoles */
-	protected static int localSpatialHeight;
-	
-	/** spatial width of the cities */
-	public static int remoteSpatialWidth;
-
-	/** spatial height of the PM Quadtree */
-	public static int remoteSpatialHeight;
+	/** nearest city search reused by every nearestCity and nearestCities */
+	private final NearestCitySearch nearestCitySearch = new NearestCitySearch();
 	
 	/**
 	 * Set the DOM Document tree to send the results of processed commands to.
@@ -112,6 +151,52 @@ public class Command {
 		this.results = results;
 		resultsNode = results.createElement("results");
 		results.appendChild(resultsNode);
+		resultSink = new ResultSink() {
+			public void add(Element result) {
+				resultsNode.appendChild(result);
+			}
+		};
+	}
+
+	/**
+	 * Set the sink to send the results of processed commands to as soon as
+	 * each command has been processed. The DOM Document tree is only used to
+	 * create the result elements; they are not appended to it.
+	 * 
+	 * @param results
+	 *            DOM Document tree used to create result elements
+	 * @param resultSink
+	 *            receives the result of each processed command
+	 */
+	public void setResults(Document results, ResultSink resultSink) {
+		this.results = results;
+		this.resultSink = resultSink;
+	}
+
+	/**
+	 * Sets whether the input is trusted, meaning it has not been validated
+	 * against the schema. Trusted input has each attribute checked as it is
+	 * read; an attribute that fails its check causes an
+	 * {@link InvalidAttributeException}.
+	 * 
+	 * @param trustedInput
+	 *            whether the input has skipped schema validation
+	 */
+	public void setTrustedInput(boolean trustedInput) {
+		this.trustedInput = trustedInput;
+	}
+
+	/**
+	 * Sets whether commands are being replayed to rebuild state. Replayed
+	 * commands change the dictionaries and spatial structures as usual but
+	 * report nothing: their parameters are not echoed and no success or error
+	 * is sent to the result sink.
+	 * 
+	 * @param replaying
+	 *            whether commands are being replayed
+	 */
+	public void setReplaying(boolean replaying) {
+		this.replaying = replaying;
 	}
 
 	/**
@@ -121,13 +206,16 @@ public class Command {
 	 *            the command node to be processed
 	 * @return the results node for the command
 	 */
-	private Element getCommandNode(final Element node) {
+	private Element getCommandNode(final CommandInput node) {
 		final Element commandNode = results.createElement("command");
-		commandNode.setAttribute("name", node.getNodeName());
+		commandNode.setAttribute("name", node.getName());
 		
 		if (node.hasAttribute("id")) {
 		    commandNode.setAttribute("id", node.getAttribute("id"));
 		}
+		if (trustedInput) {
+			checkIntegerAttribute(node, "id", 1);
+		}
 		return commandNode;
 	}
 
@@ -145,19 +233,21 @@ public class Command {
 	 *            node to append parameter information to
 	 * @return integer attribute value
 	 */
-	private int processIntegerAttribute(final Element commandNode,
+	private int processIntegerAttribute(final CommandInput commandNode,
 			final String attributeName, final Element parametersNode) {
-		final String value = commandNode.getAttribute(attributeName);
-
-		if (parametersNode != null) {
+		if (parametersNode != null && !replaying) {
 			/* add the parameters to results */
 			final Element attributeNode = results.createElement(attributeName);
-			attributeNode.setAttribute("value", value);
+			attributeNode.setAttribute("value", commandNode
+					.getAttribute(attributeName));
 			parametersNode.appendChild(attributeNode);
 		}
 
 		/* return the integer value */
-		return Integer.parseInt(value);
+		if (trustedInput) {
+			return checkIntegerAttribute(commandNode, attributeName, 0);
+		}
+		return commandNode.getIntegerAttribute(attributeName);
 	}
 
 	/**
@@ -172,21 +262,90 @@ public class Command {
 	 *            node to append parameter information to
 	 * @return string attribute value
 	 */
-	private String processStringAttribute(final Element commandNode,
+	private String processStringAttribute(final CommandInput commandNode,
 			final String attributeName, final Element parametersNode) {
 		final String value = commandNode.getAttribute(attributeName);
 
-		if (parametersNode != null) {
+		if (parametersNode != null && !replaying) {
 			/* add parameters to results */
 			final Element attributeNode = results.createElement(attributeName);
 			attributeNode.setAttribute("value", value);
 			parametersNode.appendChild(attributeNode);
 		}
 
+		if (trustedInput) {
+			checkStringAttribute(attributeName, value);
+		}
+
 		/* return the string value */
 		return value;
 	}
 
+	/**
+	 * Checks that an attribute of trusted input is an integer no less than
+	 * the given minimum.
+	 * 
+	 * @param commandNode
+	 *            command containing the attribute
+	 * @param attributeName
+	 *            attribute being checked
+	 * @param min
+	 *            least value the attribute may have
+	 * @return integer attribute value
+	 */
+	private int checkIntegerAttribute(final CommandInput commandNode,
+			final String attributeName, final int min) {
+		final int result;
+		try {
+			result = commandNode.getIntegerAttribute(attributeName);
+		} catch (NumberFormatException e) {
+			throw new InvalidAttributeException(attributeName + "="
+					+ commandNode.getAttribute(attributeName));
+		}
+		if (result < min) {
+			throw new InvalidAttributeException(attributeName + "=" + result);
+		}
+		return result;
+	}
+
+	/**
+	 * Checks that a string attribute of trusted input is a valid color or
+	 * name. The sortBy attribute is left to the listCities command.
+	 * 
+	 * @param attributeName
+	 *            attribute being checked
+	 * @param value
+	 *            value of the attribute
+	 */
+	private void checkStringAttribute(final String attributeName,
+			final String value) {
+		if (attributeName.equals("sortBy")) {
+			return;
+		}
+		if (attributeName.equals("color") ? !COLORS.contains(value) : !NAME
+				.matcher(value).matches()) {
+			throw new InvalidAttributeException(attributeName + "=" + value);
+		}
+	}
+
+	/**
+	 * Gets an integer attribute of the commands node. Checks it if the input
+	 * is trusted.
+	 * 
+	 * @param node
+	 *            commands node
+	 * @param attributeName
+	 *            integer attribute to be read
+	 * @return integer attribute value
+	 */
+	private int getCommandsAttribute(final CommandInput node,
+			final String attributeName) {
+		if (trustedInput) {
+			return checkIntegerAttribute(node, attributeName, 1);
+		}
+		return node.getIntegerAttribute(attributeName);
+	}
+
 	/**
 	 * Reports that the requested command could not be performed because of an
 	 * error. Appends information about the error to the results.
@@ -200,11 +359,15 @@ public class Command {
 	 */
 	private void addErrorNode(final String type, final Element command,
 			final Element parameters) {
+		numErrors++;
+		if (replaying) {
+			return;
+		}
 		final Element error = results.createElement("error");
 		error.setAttribute("type", type);
 		error.appendChild(command);
 		error.appendChild(parameters);
-		resultsNode.appendChild(error);
+		resultSink.add(error);
 	}
 
 	/**
@@ -220,14 +383,37 @@ public class Command {
 	 */
 	private Element addSuccessNode(final Element command,
 			final Element parameters, final Element output) {
+		if (replaying) {
+			return null;
+		}
 		final Element success = results.createElement("success");
 		success.appendChild(command);
 		success.appendChild(parameters);
 		success.appendChild(output);
-		resultsNode.appendChild(success);
+		resultSink.add(success);
 		return success;
 	}
 
+	/**
+	 * Gets the number of errors reported since this processor was created,
+	 * including errors of replayed commands.
+	 * 
+	 * @return number of errors reported
+	 */
+	public int getNumErrors() {
+		return numErrors;
+	}
+
+	/**
+	 * Gets whether a commands node has been processed, which creates the
+	 * dictionaries and spatial structures the other commands work on.
+	 * 
+	 * @return whether the commands node has been processed
+	 */
+	public boolean hasStarted() {
+		return citiesByName != null;
+	}
+
 	/**
 	 * Processes the commands node (root of all commands). Gets the spatial
 	 * width and height of the map and send the data to the appropriate data
@@ -236,16 +422,45 @@ public class Command {
 	 * @param node
 	 *            commands node to be processed
 	 */
-	public void processCommands(final Element node) {
-		localSpatialWidth = Integer.parseInt(node.getAttribute("localSpatialWidth"));
-		localSpatialHeight = Integer.parseInt(node.getAttribute("localSpatialHeight"));
-		remoteSpatialWidth = Integer.parseInt(node.getAttribute("remoteSpatialWidth"));
-		remoteSpatialHeight = Integer.parseInt(node.getAttribute("remoteSpatialHeight"));
-		
-		remoteSpatialMap = new MXQuadtree();
-		remoteSpatialMap.setRange(remoteSpatialWidth, remoteSpatialHeight);
+	public void processCommands(final CommandInput node) {
+		final World world = new World(getCommandsAttribute(node, "localSpatialWidth"),
+				getCommandsAttribute(node, "localSpatialHeight"),
+				getCommandsAttribute(node, "remoteSpatialWidth"),
+				getCommandsAttribute(node, "remoteSpatialHeight"));
 		
-		pmOrder = Integer.parseInt(node.getAttribute("pmOrder"));
+		/* the schema lets pmOrder be left out, so it is checked in every mode */
+		final int pmOrder = checkIntegerAttribute(node, "pmOrder", 1);
+		if (trustedInput && pmOrder != 1 && pmOrder != 3) {
+			throw new InvalidAttributeException("pmOrder=" + pmOrder);
+		}
+
+		/* the schema cannot tie bucketSize to pmOrder, so check it on any input */
+		final int bucketSize = node.hasAttribute("bucketSize") ? getCommandsAttribute(
+				node, "bucketSize") : 1;
+		if (bucketSize != 1 && pmOrder != 3) {
+			throw new InvalidAttributeException("bucketSize=" + bucketSize);
+		}
+
+		initialize(world, pmOrder, getCommandsAttribute(node, "g"), bucketSize);
+	}
+
+	/**
+	 * Creates empty dictionaries and spatial structures for a world.
+	 * 
+	 * @param world
+	 *            spatial dimensions and remote spatial map of the world
+	 * @param pmOrder
+	 *            order of the PM Quadtrees
+	 * @param g
+	 *            maximum imbalance of the AVL-g tree of cities
+	 * @param bucketSize
+	 *            most vertices in a leaf of the PM Quadtrees, if of order 3
+	 */
+	private void initialize(final World world, final int pmOrder, final int g,
+			final int bucketSize) {
+		this.world = world;
+		this.pmOrder = pmOrder;
+		this.bucketSize = bucketSize;
 
         citiesByName = new GuardedAvlGTree<String, City>(new Comparator<String>() {
         	
@@ -254,8 +469,7 @@ public class Command {
     			return o2.compareTo(o1);
     		}
     		
-    	},
-                Integer.parseInt(node.getAttribute("g")));
+    	}, g);
         
         airportsByName = new TreeMap<String, Airport>(new Comparator<String>() {
         	@Override
@@ -272,6 +486,180 @@ public class Command {
         });
         
         remotetoLocalMap = new HashMap<Metropole, PMQuadtree>();
+        maxMetropoles = 0;
+        citiesByLocation.clear();
+        roads.clear();
+	}
+
+	/**
+	 * Creates an empty PM Quadtree of the order given by the commands node,
+	 * bucketed if the commands node gives a bucket size above one.
+	 * 
+	 * @return new PM Quadtree, or <code>null</code> if the order is not
+	 *         supported
+	 */
+	private PMQuadtree createPMQuadtree() {
+		if (pmOrder == 3 && bucketSize > 1) {
+			return new BucketPMQuadtree(world, bucketSize);
+		} else if (pmOrder == 3) {
+			return new PM3Quadtree(world);
+		} else if (pmOrder == 1) {
+			return new PM1Quadtree(world);
+		}
+		return null;
+	}
+
+	/**
+	 * Saves the dictionaries and spatial structures to a snapshot file, from
+	 * which {@link #loadSnapshot(File)} can restore them without replaying
+	 * the commands that built them.
+	 * 
+	 * @param file
+	 *            snapshot file to be written
+	 * @throws IOException
+	 *             problem writing the file
+	 */
+	public void saveSnapshot(final File file) throws IOException {
+		final OutputStream output = new FileOutputStream(file);
+		try {
+			saveSnapshot(output);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the dictionaries and spatial structures to a
+	 * stream. Does not close the stream.
+	 * 
+	 * @param output
+	 *            stream the snapshot is written to
+	 * @throws IOException
+	 *             problem writing to the stream
+	 */
+	public void saveSnapshot(final OutputStream output) throws IOException {
+		final SnapshotWriter out = new SnapshotWriter(output);
+		out.writeBoolean(hasStarted());
+		if (hasStarted()) {
+			out.writeInt(world.getLocalSpatialWidth());
+			out.writeInt(world.getLocalSpatialHeight());
+			out.writeInt(world.getRemoteSpatialWidth());
+			out.writeInt(world.getRemoteSpatialHeight());
+			out.writeInt(pmOrder);
+			out.writeInt(citiesByName.g);
+			out.writeInt(bucketSize);
+			world.getRemoteSpatialMap().writeSnapshot(out);
+			citiesByName.writeSnapshot(out);
+
+			out.writeInt(citiesByLocation.size());
+			for (City city : citiesByLocation) {
+				out.writeObject(city);
+			}
+			out.writeInt(airportsByName.size());
+			for (Map.Entry<String, Airport> entry : airportsByName.entrySet()) {
+				out.writeObject(entry.getKey());
+				out.writeObject(entry.getValue());
+			}
+			out.writeInt(terminalsByName.size());
+			for (Map.Entry<String, Terminal> entry : terminalsByName.entrySet()) {
+				out.writeObject(entry.getKey());
+				out.writeObject(entry.getValue());
+			}
+			roads.writeSnapshot(out);
+
+			/* metropoles are looked up by scanning, so keep their order */
+			out.writeInt(maxMetropoles);
+			out.writeInt(remotetoLocalMap.size());
+			for (Map.Entry<Metropole, PMQuadtree> entry : remotetoLocalMap.entrySet()) {
+				out.writeObject(entry.getKey());
+				out.writeBoolean(entry.getValue() != null);
+				if (entry.getValue() != null) {
+					entry.getValue().writeSnapshot(out);
+				}
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Replaces the dictionaries and spatial structures with those saved in a
+	 * snapshot file by {@link #saveSnapshot(File)}. The file is mapped into
+	 * memory and its contents are trusted, so restoring costs about as much
+	 * as reading the file.
+	 * 
+	 * @param file
+	 *            snapshot file to be read
+	 * @throws IOException
+	 *             problem reading the file, or it is not a snapshot file
+	 */
+	public void loadSnapshot(final File file) throws IOException {
+		loadSnapshot(SnapshotReader.open(file));
+	}
+
+	/**
+	 * Replaces the dictionaries and spatial structures with those read from
+	 * a snapshot.
+	 * 
+	 * @param in
+	 *            reader positioned at the start of a snapshot
+	 * @throws IOException
+	 *             the snapshot is malformed
+	 */
+	public void loadSnapshot(final SnapshotReader in) throws IOException {
+		if (!in.readBoolean()) {
+			world = null;
+			citiesByName = null;
+			airportsByName = null;
+			terminalsByName = null;
+			remotetoLocalMap = null;
+			citiesByLocation.clear();
+			roads.clear();
+			return;
+		}
+
+		initialize(new World(in.readInt(), in.readInt(), in.readInt(),
+				in.readInt()), in.readInt(), in.readInt(), in.readInt());
+		world.getRemoteSpatialMap().readSnapshot(in);
+		citiesByName.readSnapshot(in);
+
+		final int numCitiesByLocation = in.readInt();
+		for (int i = 0; i < numCitiesByLocation; i++) {
+			citiesByLocation.add(in.readCity());
+		}
+		final int numAirports = in.readInt();
+		for (int i = 0; i < numAirports; i++) {
+			airportsByName.put(in.readString(), in.read(Airport.class));
+		}
+		final int numTerminals = in.readInt();
+		for (int i = 0; i < numTerminals; i++) {
+			terminalsByName.put(in.readString(), in.read(Terminal.class));
+		}
+		roads.readSnapshot(in);
+
+		/*
+		 * a map with the table the saved one grew to iterates the metropoles
+		 * in the order they were saved: a table of 16 buckets doubles once
+		 * the map holds more than three quarters as many entries
+		 */
+		maxMetropoles = in.readInt();
+		int capacity = 16;
+		while (maxMetropoles > capacity / 4 * 3 && capacity < 1 << 30) {
+			capacity <<= 1;
+		}
+		remotetoLocalMap = new HashMap<Metropole, PMQuadtree>(capacity);
+		final int numMetropoles = in.readInt();
+		for (int i = 0; i < numMetropoles; i++) {
+			final Metropole metropole = in.read(Metropole.class);
+			PMQuadtree pmQuadtree = null;
+			if (in.readBoolean()) {
+				pmQuadtree = createPMQuadtree();
+				if (pmQuadtree == null) {
+					throw new IOException("bad PM Quadtree order " + pmOrder);
+				}
+				pmQuadtree.readSnapshot(in);
+			}
+			remotetoLocalMap.put(metropole, pmQuadtree);
+		}
 	}
 
 	/**
@@ -282,7 +670,7 @@ public class Command {
 	 * @param node
 	 *            createCity node to be processed
 	 */
-	public void processCreateCity(final Element node) {
+	public void processCreateCity(final CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -299,17 +687,12 @@ public class Command {
 		
 		Metropole newRemoteCoordinate = new Metropole(name, remoteX, remoteY);
 		if (remotetoLocalMap.get(newRemoteCoordinate) == null) {
-			PMQuadtree pmQuadtree = null;
-			if (pmOrder == 3) {
-				pmQuadtree = new PM3Quadtree(localSpatialWidth, localSpatialHeight);
-			} else if (pmOrder == 1) {
-				pmQuadtree = new PM1Quadtree(localSpatialWidth, localSpatialHeight);
-			}
-			remotetoLocalMap.put(newRemoteCoordinate, pmQuadtree);
+			remotetoLocalMap.put(newRemoteCoordinate, createPMQuadtree());
+			maxMetropoles = Math.max(maxMetropoles, remotetoLocalMap.size());
 		} 
 	
 		
-		remoteSpatialMap.add(city);
+		world.getRemoteSpatialMap().add(city);
 
 		if (hasSameLocation(localX, localY, remoteX, remoteY)) {
 			addErrorNode("duplicateCityCoordinates", commandNode, parametersNode);
@@ -367,7 +750,7 @@ public class Command {
 	 * @param node
 	 *            deleteCity node to be processed
 	 */
-	public void processDeleteCity(final Element node) {
+	public void processDeleteCity(final CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -454,7 +837,7 @@ public class Command {
 	 * @param node
 	 *            clearAll node to be processed
 	 */
-	public void processClearAll(final Element node) {
+	public void processClearAll(final CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 		final Element outputNode = results.createElement("output");
@@ -462,7 +845,7 @@ public class Command {
 		/* clear data structures */
 		citiesByName.clear();
 		citiesByLocation.clear();
-		remoteSpatialMap.clear();
+		world.getRemoteSpatialMap().clear();
 		airportsByName.clear();
 		terminalsByName.clear();
 		roads.clear();
@@ -483,7 +866,7 @@ public class Command {
 	 * @param node
 	 *            listCities node to be processed
 	 */
-	public void processListCities(final Element node) {
+	public void processListCities(final CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 		final String sortBy = processStringAttribute(node, "sortBy",
@@ -543,7 +926,7 @@ public class Command {
 		addCityNode(node, "city", city);
 	}
 
-    public void processPrintAvlTree(Element node) {
+    public void processPrintAvlTree(CommandInput node) {
         final Element commandNode = getCommandNode(node);
         final Element parametersNode = results.createElement("parameters");
         final Element outputNode = results.createElement("output");
@@ -556,7 +939,7 @@ public class Command {
         }
     }
 
-	public void processMapRoad(Element node) {
+	public void processMapRoad(CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -600,11 +983,11 @@ public class Command {
 				localPMToUse.addRoad(road);
 				if (Inclusive2DIntersectionVerifier.intersects(citiesByName
 						.get(start).toPoint2D(), new Rectangle2D.Float(0, 0,
-								localSpatialWidth, localSpatialHeight))
+								world.getLocalSpatialWidth(), world.getLocalSpatialHeight()))
 						&& Inclusive2DIntersectionVerifier.intersects(
 								citiesByName.get(end).toPoint2D(),
-								new Rectangle2D.Float(0, 0, localSpatialWidth,
-										localSpatialHeight))) {
+								new Rectangle2D.Float(0, 0, world.getLocalSpatialWidth(),
+										world.getLocalSpatialHeight()))) {
 					// add to adjacency list
 					roads.addRoad((City) citiesByName.get(start),
 							(City) citiesByName.get(end));
@@ -636,7 +1019,7 @@ public class Command {
 		}
 	}
 	
-	public void processMapAirport(Element node) {
+	public void processMapAirport(CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -670,7 +1053,7 @@ public class Command {
 			}
 
 			if (a.remotePoint2D().getX() < 0 || a.remotePoint2D().getY() < 0
-					|| a.remotePoint2D().getX() >= remoteSpatialWidth || a.remotePoint2D().getY() >= remoteSpatialHeight) {
+					|| a.remotePoint2D().getX() >= world.getRemoteSpatialWidth() || a.remotePoint2D().getY() >= world.getRemoteSpatialHeight()) {
 				addErrorNode("airportOutOfBounds", commandNode, parametersNode);	
 				return;
 			}
@@ -733,7 +1116,7 @@ public class Command {
 		}
 	}
 
-	public void processMapTerminal(Element node) {
+	public void processMapTerminal(CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -760,7 +1143,7 @@ public class Command {
 		PMQuadtree localPMToUse = null;
 		
 		if (t.remotePoint2D().getX() < 0 || t.remotePoint2D().getY() < 0
-				|| t.remotePoint2D().getX() >= remoteSpatialWidth || t.remotePoint2D().getY() >= remoteSpatialHeight) {
+				|| t.remotePoint2D().getX() >= world.getRemoteSpatialWidth() || t.remotePoint2D().getY() >= world.getRemoteSpatialHeight()) {
 			addErrorNode("terminalOutOfBounds", commandNode, parametersNode);	
 			return;
 		}
@@ -811,7 +1194,7 @@ public class Command {
 
 	}
 	
-	public void processUnmapRoad(Element node) {
+	public void processUnmapRoad(CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -879,7 +1262,7 @@ public class Command {
 		}
 	}
 	
-	public void processUnmapAirport(Element node) {
+	public void processUnmapAirport(CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -936,7 +1319,7 @@ public class Command {
 		addSuccessNode(commandNode, parametersNode, outputNode);
 	}
 	
-	public void processUnmapTerminal(Element node) {
+	public void processUnmapTerminal(CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -996,7 +1379,7 @@ public class Command {
 	 * @throws IOException
 	 *             problem accessing the image file
 	 */
-	public void processSaveMap(final Element node) throws IOException {
+	public void processSaveMap(final CommandInput node) throws IOException {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 
@@ -1013,7 +1396,7 @@ public class Command {
 		}
 		
 		if (remoteX < 0 || remoteY < 0
-				|| remoteX >= Command.remoteSpatialWidth || remoteY >= Command.remoteSpatialHeight) {
+				|| remoteX >= world.getRemoteSpatialWidth() || remoteY >= world.getRemoteSpatialHeight()) {
 			addErrorNode("metropoleOutOfBounds", commandNode, parametersNode);
 			return;
 		} else if (localPMToUse == null || localPMToUse.isEmpty()) {
@@ -1039,10 +1422,10 @@ public class Command {
 		final CanvasPlus canvas = new CanvasPlus("MeeshQuest");
 
 		/* initialize canvas */
-		canvas.setFrameSize(localSpatialWidth, localSpatialHeight);
+		canvas.setFrameSize(world.getLocalSpatialWidth(), world.getLocalSpatialHeight());
 
 		/* add a rectangle to show where the bounds of the map are located */
-		canvas.addRectangle(0, 0, localSpatialWidth, localSpatialHeight, Color.BLACK,
+		canvas.addRectangle(0, 0, world.getLocalSpatialWidth(), world.getLocalSpatialHeight(), Color.BLACK,
 				false);
 
 		/* draw PM Quadtree */
@@ -1058,7 +1441,7 @@ public class Command {
 	 *            printPMQuadtree command to be processed
 	 */
 
-	public void processPrintPMQuadtree(final Element node) {
+	public void processPrintPMQuadtree(final CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 		
@@ -1076,7 +1459,7 @@ public class Command {
 		}
 		
 		if (remoteX < 0 || remoteY < 0
-				|| remoteX > Command.remoteSpatialWidth || remoteY > Command.remoteSpatialHeight) {
+				|| remoteX > world.getRemoteSpatialWidth() || remoteY > world.getRemoteSpatialHeight()) {
 			addErrorNode("metropoleOutOfBounds", commandNode, parametersNode);
 			return;
 		} else if (localPMToUse == null || localPMToUse.isEmpty()) {
@@ -1087,6 +1470,9 @@ public class Command {
 			/* print PR Quadtree */
 			final Element quadtreeNode = results.createElement("quadtree");
 			quadtreeNode.setAttribute("order", Integer.toString(pmOrder));
+			if (localPMToUse instanceof BucketPMQuadtree) {
+				quadtreeNode.setAttribute("bucketSize", Integer.toString(bucketSize));
+			}
 			printPMQuadtreeHelper(localPMToUse.getRoot(), quadtreeNode);
 
 			outputNode.appendChild(quadtreeNode);
@@ -1096,6 +1482,57 @@ public class Command {
 		}
 	}
 
+	/**
+	 * Creates a node describing a city, airport, terminal or road, as it is
+	 * printed in a PM Quadtree. Appends it to the passed in node.
+	 * 
+	 * @param node
+	 *            node which the geometry node will be appended to
+	 * @param g
+	 *            geometry which the node will describe
+	 */
+	private void addGeometryNode(final Element node, final Geometry g) {
+		if (g.isCity()) {
+			City c = (City) g;
+			Element city = results.createElement("city");
+			city.setAttribute("name", c.getName());
+			city.setAttribute("localX", Integer.toString((int) c.getLocalX()));
+			city.setAttribute("localY", Integer.toString((int) c.getLocalY()));
+			city.setAttribute("radius", Integer.toString((int) c.getRadius()));
+			city.setAttribute("color", c.getColor());
+			city.setAttribute("remoteX", Integer.toString((int) c.getRemoteX()));
+			city.setAttribute("remoteY", Integer.toString((int) c.getRemoteY()));
+			node.appendChild(city);
+		} else if (g.isAirport()) {
+			Airport a = (Airport) g;
+			Element airport = results.createElement("airport");
+			airport.setAttribute("localX", Integer.toString((int) a.getLocalX()));
+			airport.setAttribute("localY", Integer.toString((int) a.getLocalY()));
+			airport.setAttribute("name", a.getName());
+			airport.setAttribute("remoteX", Integer.toString((int) a.getRemoteX()));
+			airport.setAttribute("remoteY", Integer.toString((int) a.getRemoteY()));
+			node.appendChild(airport);
+		} else if (g.isTerminal()) {
+			Terminal t = (Terminal) g;
+			Element terminal = results.createElement("terminal");
+			terminal.setAttribute("airportName", t.getAirportName());
+			terminal.setAttribute("cityName", t.getEnd().getName());
+			terminal.setAttribute("localX", Integer.toString((int) t.getLocalX()));
+			terminal.setAttribute("localY", Integer.toString((int) t.getLocalY()));
+			terminal.setAttribute("name", t.getTerminalName());
+			terminal.setAttribute("remoteX", Integer.toString((int) t.getRemoteX()));
+			terminal.setAttribute("remoteY", Integer.toString((int) t.getRemoteY()));
+			node.appendChild(terminal);
+		} else if (g.isRoad()) {
+			City c1 = ((Road) g).getStart();
+			City c2 = ((Road) g).getEnd();
+			Element road = results.createElement("road");
+			road.setAttribute("start", c1 != null ? c1.getName() : ((Road) g).getStartTerminal().getTerminalName());
+			road.setAttribute("end", c2 != null ? c2.getName() : ((Road) g).getEndTerminal().getTerminalName());
+			node.appendChild(road);
+		}
+	}
+
 	/**
 	 * Traverses each node of the PR Quadtree.
 	 * 
@@ -1116,45 +1553,7 @@ public class Command {
 			blackNode.setAttribute("cardinality",
 					Integer.toString(currentLeaf.getGeometry().size()));
 			for (Geometry g : currentLeaf.getGeometry()) {
-				if (g.isCity()) {
-					City c = (City) g;
-					Element city = results.createElement("city");
-					city.setAttribute("name", c.getName());
-					city.setAttribute("localX", Integer.toString((int) c.getLocalX()));
-					city.setAttribute("localY", Integer.toString((int) c.getLocalY()));
-					city.setAttribute("radius", Integer.toString((int) c.getRadius()));
-					city.setAttribute("color", c.getColor());
-					city.setAttribute("remoteX", Integer.toString((int) c.getRemoteX()));
-					city.setAttribute("remoteY", Integer.toString((int) c.getRemoteY()));
-					blackNode.appendChild(city);
-				} else if (g.isAirport()) {
-					Airport a = (Airport) g;
-					Element airport = results.createElement("airport");
-					airport.setAttribute("localX", Integer.toString((int) a.getLocalX()));
-					airport.setAttribute("localY", Integer.toString((int) a.getLocalY()));
-					airport.setAttribute("name", a.getName());
-					airport.setAttribute("remoteX", Integer.toString((int) a.getRemoteX()));
-					airport.setAttribute("remoteY", Integer.toString((int) a.getRemoteY()));
-					blackNode.appendChild(airport);
-				} else if (g.isTerminal()) {
-					Terminal t = (Terminal) g;
-					Element terminal = results.createElement("terminal");
-					terminal.setAttribute("airportName", t.getAirportName());
-					terminal.setAttribute("cityName", t.getEnd().getName());
-					terminal.setAttribute("localX", Integer.toString((int) t.getLocalX()));
-					terminal.setAttribute("localY", Integer.toString((int) t.getLocalY()));
-					terminal.setAttribute("name", t.getTerminalName());
-					terminal.setAttribute("remoteX", Integer.toString((int) t.getRemoteX()));
-					terminal.setAttribute("remoteY", Integer.toString((int) t.getRemoteY()));
-					blackNode.appendChild(terminal);
-				} else if (g.isRoad()) {
-					City c1 = ((Road) g).getStart();
-					City c2 = ((Road) g).getEnd();
-					Element road = results.createElement("road");
-					road.setAttribute("start", c1 != null ? c1.getName() : ((Road) g).getStartTerminal().getTerminalName());
-					road.setAttribute("end", c2 != null ? c2.getName() : ((Road) g).getEndTerminal().getTerminalName());
-					blackNode.appendChild(road);
-				}
+				addGeometryNode(blackNode, g);
 			}
 			xmlNode.appendChild(blackNode);
 		} else {
@@ -1178,7 +1577,7 @@ public class Command {
 	 *            rangeCities command to be processed
 	 * @throws IOException
 	 */
-	public void processGlobalRangeCities(final Element node) throws IOException {
+	public void processGlobalRangeCities(final CommandInput node) throws IOException {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 		final Element outputNode = results.createElement("output");
@@ -1188,14 +1587,20 @@ public class Command {
 		final int radius = processIntegerAttribute(node, "radius",
 				parametersNode);
 		
-		final TreeSet<Geometry> citiesInRange = new TreeSet<Geometry>();
+		final Circle2D.Double range = new Circle2D.Double(remoteX, remoteY, radius);
+		final Set<Geometry> seen = createIdentitySet();
+		final List<Geometry> citiesInRange = new ArrayList<Geometry>();
 		
-		PMQuadtree localPMToUse = null;
-		for (Metropole metropole : remotetoLocalMap.keySet()) {
-			localPMToUse = remotetoLocalMap.get(metropole);
-			rangeHelper(new Circle2D.Double(remoteX, remoteY, radius), localPMToUse.getRoot(),
-					citiesInRange, false, true);
+		/* every city of a metropole has its remote coordinates, so a metropole is in range or out of it whole */
+		for (Map.Entry<Metropole, PMQuadtree> entry : remotetoLocalMap.entrySet()) {
+			final Metropole metropole = entry.getKey();
+			if (Inclusive2DIntersectionVerifier.intersects(new Point2D.Float(
+					metropole.getX(), metropole.getY()), range)) {
+				rangeHelper(null, entry.getValue().getRoot(), Geometry.POINT,
+						seen, citiesInRange);
+			}
 		}
+		Collections.sort(citiesInRange);
 
 		/* print out cities within range */
 		if (citiesInRange.isEmpty()) {
@@ -1213,37 +1618,198 @@ public class Command {
 		}
 	}
 	
+	/**
+	 * Finds the mapped roads of a metropole that pass within the range of a
+	 * given point.
+	 * 
+	 * @param node
+	 *            rangeRoads command to be processed
+	 * @throws IOException
+	 */
+	public void processRangeRoads(final CommandInput node) throws IOException {
+		processRange(node, Geometry.SEGMENT, "roadList", "noRoadsExistInRange");
+	}
+
+	/**
+	 * Finds the airports of a metropole within the range of a given point.
+	 * 
+	 * @param node
+	 *            rangeAirports command to be processed
+	 * @throws IOException
+	 */
+	public void processRangeAirports(final CommandInput node) throws IOException {
+		processRange(node, Geometry.CIRCLE, "airportList", "noAirportsExistInRange");
+	}
+
+	/**
+	 * Finds the terminals of a metropole within the range of a given point.
+	 * 
+	 * @param node
+	 *            rangeTerminals command to be processed
+	 * @throws IOException
+	 */
+	public void processRangeTerminals(final CommandInput node) throws IOException {
+		processRange(node, Geometry.RECTANGLE, "terminalList", "noTerminalsExistInRange");
+	}
+
+	/**
+	 * Finds the geometry of one type in a metropole within the range of a
+	 * given point, and lists it sorted as the PM Quadtree sorts it. If a
+	 * map name is given, the range is drawn and saved under it.
+	 * 
+	 * @param node
+	 *            range command to be processed
+	 * @param type
+	 *            type of the geometry to be found
+	 * @param listName
+	 *            name of the list node holding the geometry found
+	 * @param errorType
+	 *            type of the error reported if nothing is in range
+	 * @throws IOException
+	 */
+	private void processRange(final CommandInput node, final int type,
+			final String listName, final String errorType) throws IOException {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+		final Element outputNode = results.createElement("output");
+
+		final int localX = processIntegerAttribute(node, "localX", parametersNode);
+		final int localY = processIntegerAttribute(node, "localY", parametersNode);
+		final int remoteX = processIntegerAttribute(node, "remoteX", parametersNode);
+		final int remoteY = processIntegerAttribute(node, "remoteY", parametersNode);
+		final int radius = processIntegerAttribute(node, "radius", parametersNode);
+		final String saveMap = node.hasAttribute("saveMap") ? processStringAttribute(
+				node, "saveMap", parametersNode) : null;
+
+		PMQuadtree localPMToUse = null;
+		for (Metropole metropole : remotetoLocalMap.keySet()) {
+			if (metropole.getX() == remoteX &&
+					metropole.getY() == remoteY) {
+				localPMToUse = remotetoLocalMap.get(metropole);
+			}
+		}
+
+		final List<Geometry> gInRange = new ArrayList<Geometry>();
+		if (localPMToUse != null) {
+			rangeHelper(new Circle2D.Double(localX, localY, radius),
+					localPMToUse.getRoot(), type, createIdentitySet(), gInRange);
+			Collections.sort(gInRange);
+		}
+
+		if (saveMap != null) {
+			final CanvasPlus canvas = drawPMQuadtree();
+			canvas.addCircle(localX, localY, radius, Color.BLUE, false);
+			canvas.save(saveMap);
+			canvas.dispose();
+		}
+
+		if (gInRange.isEmpty()) {
+			addErrorNode(errorType, commandNode, parametersNode);
+		} else {
+			final Element listNode = results.createElement(listName);
+			for (Geometry g : gInRange) {
+				addGeometryNode(listNode, g);
+			}
+			outputNode.appendChild(listNode);
+
+			/* add success node to results */
+			addSuccessNode(commandNode, parametersNode, outputNode);
+		}
+	}
+
+	/**
+	 * Adds the geometry of one type below a node of a PM Quadtree that lies
+	 * within range of a point to a list, once each. Children whose region
+	 * lies out of range are not visited, and geometry held by several leaves
+	 * is only tested the first time it is found.
+	 * 
+	 * @param range
+	 *            circle in local coordinates, or <code>null</code> to take
+	 *            all geometry of the type below the node
+	 * @param node
+	 *            node whose geometry is searched
+	 * @param type
+	 *            type of the geometry searched for
+	 * @param seen
+	 *            geometry already found, compared by identity
+	 * @param gInRange
+	 *            list the geometry in range is added to, unsorted
+	 */
 	private void rangeHelper(final Circle2D.Double range, final Node node,
-			final TreeSet<Geometry> gInRange, final boolean includeRoads,
-			final boolean includeCities) {
+			final int type, final Set<Geometry> seen,
+			final List<Geometry> gInRange) {
 		if (node.getType() == Node.BLACK) {
-			final Black leaf = (Black) node;
-			for (Geometry g : leaf.getGeometry()) {
-				if (includeCities
-						&& g.isCity()
-						&& !gInRange.contains(g)
-						&& Inclusive2DIntersectionVerifier.intersects(
-								new Point2D.Float(((City) g).getRemoteX(), ((City) g).getRemoteY()), range)) {
-					gInRange.add(g);
-				}
-				if (includeRoads
-						&& g.isRoad()
-						&& !gInRange.contains(g)
-						&& (((Road) g).toLine2D().ptSegDist(range.getCenter()) <= range
-								.getRadius())) {
+			final GeometryList geometry = ((Black) node).getGeometry();
+			final int first = type == Geometry.SEGMENT ? geometry.getNumPoints() : 0;
+			final int last = type == Geometry.SEGMENT ? geometry.size() : geometry.getNumPoints();
+			for (int i = first; i < last; i++) {
+				final Geometry g = geometry.get(i);
+				if (g.getType() == type && seen.add(g)
+						&& (range == null || inRange(range, g))) {
 					gInRange.add(g);
 				}
 			}
 		} else if (node.getType() == Node.GRAY) {
 			final Gray internal = (Gray) node;
 			for (int i = 0; i < 4; i++) {
-				rangeHelper(range, internal.getChild(i), gInRange,
-							includeRoads, includeCities);
+				if (range == null || intersects(range, internal.getChildX(i),
+						internal.getChildY(i), internal.getHalfWidth(),
+						internal.getHalfHeight())) {
+					rangeHelper(range, internal.getChild(i), type, seen,
+							gInRange);
+				}
 			}
 		}
 	}
 
-	public void processNearestCity(Element node) {
+	/**
+	 * Returns if a road passes within a circle, or a city, airport or
+	 * terminal lies within it, in local coordinates.
+	 */
+	private static boolean inRange(final Circle2D.Double range, final Geometry g) {
+		if (g.isRoad()) {
+			return ((Road) g).toLine2D().ptSegDist(range.getCenterX(),
+					range.getCenterY()) <= range.getRadius();
+		}
+		final double x, y;
+		if (g.isCity()) {
+			x = ((City) g).getLocalX();
+			y = ((City) g).getLocalY();
+		} else if (g.isAirport()) {
+			x = ((Airport) g).getLocalX();
+			y = ((Airport) g).getLocalY();
+		} else {
+			x = ((Terminal) g).getLocalX();
+			y = ((Terminal) g).getLocalY();
+		}
+		return Point2D.distanceSq(x, y, range.getCenterX(), range.getCenterY()) <= range
+				.getRadius() * range.getRadius();
+	}
+
+	/**
+	 * Returns if a circle overlaps a closed rectangular region, so that
+	 * geometry on the region's boundary is never pruned. Unlike
+	 * {@link cmsc420.mxquadtree.MXQuadtree#intersects}, the edges of the
+	 * region are part of it.
+	 */
+	private static boolean intersects(final Circle2D.Double range,
+			final int x, final int y, final int width, final int height) {
+		final double dx = Math.max(0, Math.max(x - range.getCenterX(),
+				range.getCenterX() - (x + width)));
+		final double dy = Math.max(0, Math.max(y - range.getCenterY(),
+				range.getCenterY() - (y + height)));
+		return dx * dx + dy * dy <= range.getRadius() * range.getRadius();
+	}
+
+	/**
+	 * Creates an empty set comparing geometry by identity. The geometry in a
+	 * PM Quadtree is shared by every leaf holding it.
+	 */
+	private static Set<Geometry> createIdentitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<Geometry, Boolean>());
+	}
+
+	public void processNearestCity(CommandInput node) {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 		final Element outputNode = results.createElement("output");
@@ -1253,102 +1819,70 @@ public class Command {
 		final int localY = processIntegerAttribute(node, "localY", parametersNode);
 		final int remoteX = processIntegerAttribute(node, "remoteX", parametersNode);
 		final int remoteY = processIntegerAttribute(node, "remoteY", parametersNode);
-		
-		final Point2D.Float point = new Point2D.Float(localX, localY);
 
-		PMQuadtree localPMToUse = null;
-		for (Metropole metropole : remotetoLocalMap.keySet()) {
-			if (metropole.getX() == remoteX &&
-					metropole.getY() == remoteY) {
-				localPMToUse = remotetoLocalMap.get(metropole);
-			}
-		}
-		
-		if (localPMToUse == null || (localPMToUse.getNumCities() - localPMToUse.getNumIsolatedCities() == 0)) {
+		final PMQuadtree localPMToUse = getLocalPMQuadtree(remoteX, remoteY);
+		if (localPMToUse == null || (localPMToUse.getNumCities() - localPMToUse.getNumIsolatedCities() == 0)
+				|| nearestCitySearch.search(localPMToUse.getRoot(), localX, localY, 1) == 0) {
 			addErrorNode("cityNotFound", commandNode, parametersNode);
 		} else {
-			addCityNode(outputNode, nearestCityHelper(point, false, localPMToUse));
+			addCityNode(outputNode, nearestCitySearch.getCity(0));
 			addSuccessNode(commandNode, parametersNode, outputNode);
 		}
 	}
 
-	private City nearestCityHelper(Point2D.Float point,
-			boolean isNearestIsolatedCity, PMQuadtree pmQuadtree) {
-		Node n = pmQuadtree.getRoot();
-		PriorityQueue<NearestSearchRegion> nearCities = new PriorityQueue<NearestSearchRegion>();
+	/**
+	 * Lists the k cities of a metropole nearest to a point, nearest first,
+	 * or every city of the metropole if it has fewer. Cities as near as each
+	 * other are listed in the order nearestCity would choose between them.
+	 */
+	public void processNearestCities(CommandInput node) {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+		final Element outputNode = results.createElement("output");
 
-		if (n.getType() == Node.BLACK) {
-			Black b = (Black) n;
-			
-			if (b.getCity() != null) {
-				return b.getCity();
-			}
+		/* extract attribute values from command */
+		final int localX = processIntegerAttribute(node, "localX", parametersNode);
+		final int localY = processIntegerAttribute(node, "localY", parametersNode);
+		final int remoteX = processIntegerAttribute(node, "remoteX", parametersNode);
+		final int remoteY = processIntegerAttribute(node, "remoteY", parametersNode);
+		final int k = processIntegerAttribute(node, "k", parametersNode);
+		if (trustedInput) {
+			/* the schema keeps k positive in validated input */
+			checkIntegerAttribute(node, "k", 1);
 		}
 
-		while (n.getType() == Node.GRAY) {
-			Gray g = (Gray) n;
-			Node kid;
-			
-			for (int i = 0; i < 4; i++) {
-				kid = g.getChild(i);
-				
-				if (kid.getType() == Node.BLACK) {
-					Black b = (Black) kid;
-					City c = b.getCity();
-					
-					if (c != null) {
-						double dist = point.distance(c.toPoint2D());
-						nearCities.add(new NearestSearchRegion(kid, dist, c));
-					}
-				} else if (kid.getType() == Node.GRAY) {
-					double dist = Shape2DDistanceCalculator.distance(point,
-							g.getChildRegion(i));
-					nearCities.add(new NearestSearchRegion(kid, dist, null));
-				}
-			}
-			
-			try {
-				n = nearCities.remove().node;
-			} catch (Exception ex) {
-				throw new IllegalStateException();
+		final PMQuadtree localPMToUse = getLocalPMQuadtree(remoteX, remoteY);
+		final int found;
+		if (localPMToUse == null || (localPMToUse.getNumCities() - localPMToUse.getNumIsolatedCities() == 0)) {
+			found = 0;
+		} else {
+			found = nearestCitySearch.search(localPMToUse.getRoot(), localX, localY, k);
+		}
+		if (found == 0) {
+			addErrorNode("cityNotFound", commandNode, parametersNode);
+		} else {
+			final Element cityListNode = results.createElement("cityList");
+			for (int i = 0; i < found; i++) {
+				addCityNode(cityListNode, nearestCitySearch.getCity(i));
 			}
+			outputNode.appendChild(cityListNode);
+			addSuccessNode(commandNode, parametersNode, outputNode);
 		}
-		return ((Black) n).getCity();
 	}
 
 	/**
-	 * Helper class for nearest everything (city/road/etc)
+	 * Gets the PM Quadtree of the metropole at a remote location, or null if
+	 * there is none.
 	 */
-	private class NearestSearchRegion implements
-			Comparable<NearestSearchRegion> {
-		private Node node;
-		private double distance;
-		private Geometry g;
-
-		public NearestSearchRegion(Node node, double distance, Geometry g) {
-			this.node = node;
-			this.distance = distance;
-			this.g = g;
-		}
-
-		public int compareTo(NearestSearchRegion o) {
-			if (distance == o.distance) {
-				if (node.getType() == Node.BLACK
-						&& o.node.getType() == Node.BLACK) {
-					return g.compareTo(o.g);
-				} else if (node.getType() == Node.BLACK
-						&& o.node.getType() == Node.GRAY) {
-					return 1;
-				} else if (node.getType() == Node.GRAY
-						&& o.node.getType() == Node.BLACK) {
-					return -1;
-				} else {
-					return ((Gray) node).hashCode()
-							- ((Gray) o.node).hashCode();
-				}
+	private PMQuadtree getLocalPMQuadtree(final int remoteX, final int remoteY) {
+		PMQuadtree localPMToUse = null;
+		for (Metropole metropole : remotetoLocalMap.keySet()) {
+			if (metropole.getX() == remoteX &&
+					metropole.getY() == remoteY) {
+				localPMToUse = remotetoLocalMap.get(metropole);
 			}
-			return (distance < o.distance) ? -1 : 1;
 		}
+		return localPMToUse;
 	}
 
 }
@@ -0,0 +1,22 @@
+package cmsc420.command;
+
+import java.io.IOException;
+
+/**
+ * Processes one kind of command against a command processor. Handlers are
+ * looked up by command name in a {@link CommandRegistry}.
+ */
+public interface CommandHandler {
+
+	/**
+	 * Processes a command.
+	 *
+	 * @param command
+	 *            command processor holding the state to work on
+	 * @param node
+	 *            command to be processed
+	 * @throws IOException
+	 *             problem writing a file the command produces
+	 */
+	public void process(Command command, CommandInput node) throws IOException;
+}
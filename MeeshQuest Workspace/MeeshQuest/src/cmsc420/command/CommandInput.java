@@ -0,0 +1,45 @@
+package cmsc420.command;
+
+/**
+ * A command read from one of the input formats, such as an XML command
+ * element or a binary command record. Gives {@link Command} the command's
+ * name and attributes without tying it to the format they were read from.
+ */
+public interface CommandInput {
+
+	/**
+	 * Gets the name of the command, such as <code>createCity</code>.
+	 * 
+	 * @return name of the command
+	 */
+	public String getName();
+
+	/**
+	 * Gets whether the command has the given attribute.
+	 * 
+	 * @param attributeName
+	 *            name of the attribute
+	 * @return whether the attribute is present
+	 */
+	public boolean hasAttribute(String attributeName);
+
+	/**
+	 * Gets the text of an attribute, as it would appear in an XML command.
+	 * 
+	 * @param attributeName
+	 *            name of the attribute
+	 * @return text of the attribute, or the empty string if it is absent
+	 */
+	public String getAttribute(String attributeName);
+
+	/**
+	 * Gets the value of an integer attribute.
+	 * 
+	 * @param attributeName
+	 *            name of the attribute
+	 * @return integer value of the attribute
+	 * @throws NumberFormatException
+	 *             the attribute is absent or is not an integer
+	 */
+	public int getIntegerAttribute(String attributeName);
+}
@@ -0,0 +1,193 @@
+package cmsc420.command;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps command names to the handlers that process them. The default registry
+ * holds every command {@link Command} knows how to process; more can be
+ * registered, or existing ones replaced, without touching the code that
+ * dispatches them.
+ */
+public class CommandRegistry {
+	/** handler of each command, by name, in the order registered */
+	private final Map<String, CommandHandler> handlers = new LinkedHashMap<String, CommandHandler>();
+
+	/**
+	 * Constructs an empty registry.
+	 */
+	public CommandRegistry() {
+	}
+
+	/**
+	 * Creates a registry holding every command {@link Command} processes. The
+	 * commands node is only processed if no commands node has been processed
+	 * before it.
+	 *
+	 * @return registry of the standard commands
+	 */
+	public static CommandRegistry createDefault() {
+		final CommandRegistry registry = new CommandRegistry();
+		registry.register("commands", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				if (!command.hasStarted()) {
+					command.processCommands(node);
+				}
+			}
+		});
+		registry.register("createCity", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processCreateCity(node);
+			}
+		});
+		registry.register("deleteCity", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processDeleteCity(node);
+			}
+		});
+		registry.register("clearAll", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processClearAll(node);
+			}
+		});
+		registry.register("listCities", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processListCities(node);
+			}
+		});
+		registry.register("printAvlTree", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processPrintAvlTree(node);
+			}
+		});
+		registry.register("mapRoad", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processMapRoad(node);
+			}
+		});
+		registry.register("mapAirport", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processMapAirport(node);
+			}
+		});
+		registry.register("mapTerminal", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processMapTerminal(node);
+			}
+		});
+		registry.register("unmapRoad", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processUnmapRoad(node);
+			}
+		});
+		registry.register("unmapTerminal", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processUnmapTerminal(node);
+			}
+		});
+		registry.register("unmapAirport", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processUnmapAirport(node);
+			}
+		});
+		registry.register("printPMQuadtree", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processPrintPMQuadtree(node);
+			}
+		});
+		registry.register("saveMap", new CommandHandler() {
+			public void process(Command command, CommandInput node)
+					throws IOException {
+				command.processSaveMap(node);
+			}
+		});
+		registry.register("globalRangeCities", new CommandHandler() {
+			public void process(Command command, CommandInput node)
+					throws IOException {
+				command.processGlobalRangeCities(node);
+			}
+		});
+		registry.register("rangeRoads", new CommandHandler() {
+			public void process(Command command, CommandInput node)
+					throws IOException {
+				command.processRangeRoads(node);
+			}
+		});
+		registry.register("rangeAirports", new CommandHandler() {
+			public void process(Command command, CommandInput node)
+					throws IOException {
+				command.processRangeAirports(node);
+			}
+		});
+		registry.register("rangeTerminals", new CommandHandler() {
+			public void process(Command command, CommandInput node)
+					throws IOException {
+				command.processRangeTerminals(node);
+			}
+		});
+		registry.register("nearestCity", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processNearestCity(node);
+			}
+		});
+		registry.register("nearestCities", new CommandHandler() {
+			public void process(Command command, CommandInput node) {
+				command.processNearestCities(node);
+			}
+		});
+		return registry;
+	}
+
+	/**
+	 * Registers the handler of a command, replacing any handler it had.
+	 *
+	 * @param name
+	 *            name of the command
+	 * @param handler
+	 *            processes the command
+	 */
+	public void register(final String name, final CommandHandler handler) {
+		handlers.put(name, handler);
+	}
+
+	/**
+	 * Gets the handler of a command.
+	 *
+	 * @param name
+	 *            name of the command
+	 * @return handler of the command, or <code>null</code> if it is unknown
+	 */
+	public CommandHandler getHandler(final String name) {
+		return handlers.get(name);
+	}
+
+	/**
+	 * Gets the names of the registered commands, in the order they were
+	 * first registered.
+	 *
+	 * @return names of the registered commands
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(handlers.keySet());
+	}
+
+	/**
+	 * Creates a copy of this registry whose handlers record each command they
+	 * process in the given statistics.
+	 *
+	 * @param statistics
+	 *            receives the count, errors and latency of each command
+	 * @return instrumented copy of this registry
+	 */
+	public CommandRegistry instrument(final CommandStatistics statistics) {
+		final CommandRegistry instrumented = new CommandRegistry();
+		for (Map.Entry<String, CommandHandler> entry : handlers.entrySet()) {
+			instrumented.register(entry.getKey(), statistics.instrument(
+					entry.getKey(), entry.getValue()));
+		}
+		return instrumented;
+	}
+}
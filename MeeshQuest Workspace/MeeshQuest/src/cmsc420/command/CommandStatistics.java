@@ -0,0 +1,254 @@
+package cmsc420.command;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Collects how often each kind of command is processed, how often it reports
+ * an error, and a {@link LatencyHistogram} of how long it takes in
+ * nanoseconds. Handlers are instrumented to record into it with
+ * {@link CommandRegistry#instrument}. The statistics are not synchronized;
+ * commands must be processed on one thread at a time.
+ * <p>
+ * The statistics can be written out as XML, with every non-empty bucket of
+ * each histogram, or as CSV: a table of one summary row per command,
+ * followed after a blank line by a table of the non-empty buckets.
+ */
+public class CommandStatistics {
+	/** percentiles reported for each command */
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	/** names of the reported percentiles, as used in the output */
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99",
+			"p999" };
+
+	/** line separator used in the output */
+	private static final String NEWLINE = System.getProperty("line.separator");
+
+	/** statistics of one kind of command */
+	private static class Entry {
+		/** number of commands that reported an error or threw */
+		long errors = 0;
+
+		/** time each command took */
+		final LatencyHistogram latency = new LatencyHistogram();
+	}
+
+	/** statistics of each kind of command, in the order first processed */
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	/**
+	 * Wraps a handler so that each command it processes is recorded under
+	 * the given name. A command counts as an error if it reports one or
+	 * throws.
+	 *
+	 * @param name
+	 *            name the commands are recorded under
+	 * @param handler
+	 *            handler to be wrapped
+	 * @return instrumented handler
+	 */
+	public CommandHandler instrument(final String name,
+			final CommandHandler handler) {
+		return new CommandHandler() {
+			/** statistics of the command, created when first processed */
+			private Entry entry;
+
+			public void process(Command command, CommandInput node)
+					throws IOException {
+				final int errors = command.getNumErrors();
+				boolean failed = true;
+				final long start = System.nanoTime();
+				try {
+					handler.process(command, node);
+					failed = false;
+				} finally {
+					final long elapsed = System.nanoTime() - start;
+					if (entry == null) {
+						entry = getEntry(name);
+					}
+					entry.latency.record(elapsed);
+					if (failed || command.getNumErrors() != errors) {
+						entry.errors++;
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Gets the number of commands recorded under a name.
+	 *
+	 * @param name
+	 *            name of the command
+	 * @return number of commands recorded
+	 */
+	public long getCount(final String name) {
+		final Entry entry = entries.get(name);
+		return entry == null ? 0 : entry.latency.getCount();
+	}
+
+	/**
+	 * Gets the number of commands recorded under a name that reported an
+	 * error or threw.
+	 *
+	 * @param name
+	 *            name of the command
+	 * @return number of errors recorded
+	 */
+	public long getErrors(final String name) {
+		final Entry entry = entries.get(name);
+		return entry == null ? 0 : entry.errors;
+	}
+
+	/**
+	 * Gets the latency histogram of the commands recorded under a name.
+	 *
+	 * @param name
+	 *            name of the command
+	 * @return histogram of latencies in nanoseconds, or <code>null</code> if
+	 *         no such command has been recorded
+	 */
+	public LatencyHistogram getLatency(final String name) {
+		final Entry entry = entries.get(name);
+		return entry == null ? null : entry.latency;
+	}
+
+	/**
+	 * Writes the statistics as an XML document: a <code>statistics</code>
+	 * element holding a <code>command</code> element for each kind of
+	 * command, which holds a <code>bucket</code> element for each non-empty
+	 * bucket of its histogram. Times are in nanoseconds. Does not close the
+	 * stream.
+	 *
+	 * @param output
+	 *            stream to write the document to
+	 * @throws IOException
+	 *             problem writing to the stream
+	 */
+	public void writeXml(final OutputStream output) throws IOException {
+		final Writer out = new OutputStreamWriter(output, "UTF-8");
+		try {
+			final XMLStreamWriter writer = XMLOutputFactory.newInstance()
+					.createXMLStreamWriter(out);
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeCharacters(NEWLINE);
+			writer.writeStartElement("statistics");
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				final LatencyHistogram latency = e.getValue().latency;
+				writer.writeCharacters(NEWLINE + "  ");
+				writer.writeStartElement("command");
+				writer.writeAttribute("name", e.getKey());
+				writer.writeAttribute("count", Long.toString(latency.getCount()));
+				writer.writeAttribute("errors", Long.toString(e.getValue().errors));
+				writer.writeAttribute("total", Long.toString(latency.getTotal()));
+				writer.writeAttribute("mean", format(latency.getMean()));
+				writer.writeAttribute("min", Long.toString(latency.getMin()));
+				for (int i = 0; i < PERCENTILES.length; i++) {
+					writer.writeAttribute(PERCENTILE_NAMES[i], Long
+							.toString(latency.getValueAtPercentile(PERCENTILES[i])));
+				}
+				writer.writeAttribute("max", Long.toString(latency.getMax()));
+				for (int bucket = 0; bucket < latency.getNumBuckets(); bucket++) {
+					if (latency.getCount(bucket) == 0) {
+						continue;
+					}
+					writer.writeCharacters(NEWLINE + "    ");
+					writer.writeEmptyElement("bucket");
+					writer.writeAttribute("low", Long.toString(latency
+							.getLowValue(bucket)));
+					writer.writeAttribute("high", Long.toString(latency
+							.getHighValue(bucket)));
+					writer.writeAttribute("count", Long.toString(latency
+							.getCount(bucket)));
+				}
+				writer.writeCharacters(NEWLINE + "  ");
+				writer.writeEndElement();
+			}
+			writer.writeCharacters(NEWLINE);
+			writer.writeEndElement();
+			writer.writeCharacters(NEWLINE);
+			writer.writeEndDocument();
+			writer.flush();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the statistics as CSV: a header and one summary row per kind of
+	 * command, then a blank line, a header and one row per non-empty bucket
+	 * of each histogram. Times are in nanoseconds. Does not close the stream.
+	 *
+	 * @param output
+	 *            stream to write the tables to
+	 * @throws IOException
+	 *             problem writing to the stream
+	 */
+	public void writeCsv(final OutputStream output) throws IOException {
+		final PrintWriter out = new PrintWriter(new OutputStreamWriter(output,
+				"UTF-8"));
+		out.print("command,count,errors,total,mean,min");
+		for (String percentile : PERCENTILE_NAMES) {
+			out.print("," + percentile);
+		}
+		out.print(",max" + NEWLINE);
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			final LatencyHistogram latency = e.getValue().latency;
+			out.print(e.getKey() + "," + latency.getCount() + ","
+					+ e.getValue().errors + "," + latency.getTotal() + ","
+					+ format(latency.getMean()) + "," + latency.getMin());
+			for (double percentile : PERCENTILES) {
+				out.print("," + latency.getValueAtPercentile(percentile));
+			}
+			out.print("," + latency.getMax() + NEWLINE);
+		}
+
+		out.print(NEWLINE + "command,low,high,count" + NEWLINE);
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			final LatencyHistogram latency = e.getValue().latency;
+			for (int bucket = 0; bucket < latency.getNumBuckets(); bucket++) {
+				if (latency.getCount(bucket) != 0) {
+					out.print(e.getKey() + "," + latency.getLowValue(bucket)
+							+ "," + latency.getHighValue(bucket) + ","
+							+ latency.getCount(bucket) + NEWLINE);
+				}
+			}
+		}
+		out.flush();
+		if (out.checkError()) {
+			throw new IOException("problem writing statistics");
+		}
+	}
+
+	/**
+	 * Gets the statistics of a kind of command, creating them if it has not
+	 * been recorded yet.
+	 */
+	private Entry getEntry(final String name) {
+		Entry entry = entries.get(name);
+		if (entry == null) {
+			entry = new Entry();
+			entries.put(name, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Formats a mean to one decimal place regardless of locale.
+	 */
+	private static String format(final double value) {
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+}
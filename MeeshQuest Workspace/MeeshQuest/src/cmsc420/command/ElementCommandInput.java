@@ -0,0 +1,37 @@
+package cmsc420.command;
+
+import org.w3c.dom.Element;
+
+/**
+ * A command read from an XML command element.
+ */
+public class ElementCommandInput implements CommandInput {
+	/** XML command element */
+	private final Element element;
+
+	/**
+	 * Constructs a command input over an XML command element.
+	 * 
+	 * @param element
+	 *            XML command element
+	 */
+	public ElementCommandInput(final Element element) {
+		this.element = element;
+	}
+
+	public String getName() {
+		return element.getNodeName();
+	}
+
+	public boolean hasAttribute(final String attributeName) {
+		return element.hasAttribute(attributeName);
+	}
+
+	public String getAttribute(final String attributeName) {
+		return element.getAttribute(attributeName);
+	}
+
+	public int getIntegerAttribute(final String attributeName) {
+		return Integer.parseInt(element.getAttribute(attributeName));
+	}
+}
@@ -0,0 +1,17 @@
+package cmsc420.command;
+
+/**
+ * Thrown when a command attribute fails the checks made on trusted input,
+ * that is, input which has not been validated against the schema, or a check
+ * the schema cannot express, such as a bucketSize above 1 without pmOrder 3.
+ */
+public class InvalidAttributeException extends IllegalArgumentException {
+	private static final long serialVersionUID = 1L;
+
+	public InvalidAttributeException() {
+	}
+
+	public InvalidAttributeException(String msg) {
+		super(msg);
+	}
+}
@@ -0,0 +1,191 @@
+package cmsc420.command;
+
+/**
+ * Counts recorded latencies in buckets of bounded relative width, in the
+ * manner of an HDR histogram. Values below 128 each get their own bucket.
+ * Above that, every power of two is split into 64 buckets of equal width, so
+ * a value is known to within 1/64 of itself whatever its magnitude, from
+ * nanoseconds to hours, in a fixed array of a few thousand counts.
+ * <p>
+ * Recording a value is a few shifts and an array increment; nothing is
+ * allocated.
+ */
+public class LatencyHistogram {
+	/** bits of each value kept exactly */
+	private static final int PRECISION_BITS = 7;
+
+	/** buckets each power of two above the exact range is split into */
+	private static final int SUB_BUCKETS = 1 << (PRECISION_BITS - 1);
+
+	/** number of buckets, enough for any non-negative long */
+	private static final int NUM_BUCKETS = (64 - PRECISION_BITS + 1)
+			* SUB_BUCKETS + SUB_BUCKETS;
+
+	/** number of values recorded in each bucket */
+	private final long[] counts = new long[NUM_BUCKETS];
+
+	/** number of values recorded */
+	private long count = 0;
+
+	/** sum of the values recorded */
+	private long total = 0;
+
+	/** smallest value recorded */
+	private long min = Long.MAX_VALUE;
+
+	/** largest value recorded */
+	private long max = 0;
+
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 *
+	 * @param value
+	 *            value to be recorded
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[bucketOf(value)]++;
+		count++;
+		total += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	/**
+	 * Gets the number of values recorded.
+	 *
+	 * @return number of values recorded
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the sum of the values recorded.
+	 *
+	 * @return sum of the values recorded
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Gets the smallest value recorded.
+	 *
+	 * @return smallest value recorded, or 0 if there are none
+	 */
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	/**
+	 * Gets the largest value recorded.
+	 *
+	 * @return largest value recorded, or 0 if there are none
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Gets the mean of the values recorded.
+	 *
+	 * @return mean of the values recorded, or 0 if there are none
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	/**
+	 * Gets the value at a percentile: the highest value in the bucket that
+	 * holds it, but never more than the largest value recorded.
+	 *
+	 * @param percentile
+	 *            percentile from 0 to 100
+	 * @return value at the percentile, or 0 if there are none
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1,
+				(long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long seen = 0;
+		for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+			seen += counts[bucket];
+			if (seen >= rank) {
+				return Math.min(getHighValue(bucket), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Gets the number of buckets.
+	 *
+	 * @return number of buckets
+	 */
+	public int getNumBuckets() {
+		return NUM_BUCKETS;
+	}
+
+	/**
+	 * Gets the number of values recorded in a bucket.
+	 *
+	 * @param bucket
+	 *            index of the bucket
+	 * @return number of values in the bucket
+	 */
+	public long getCount(final int bucket) {
+		return counts[bucket];
+	}
+
+	/**
+	 * Gets the lowest value a bucket holds.
+	 *
+	 * @param bucket
+	 *            index of the bucket
+	 * @return lowest value of the bucket
+	 */
+	public long getLowValue(final int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		final int shift = bucket / SUB_BUCKETS - 1;
+		return (long) (bucket - shift * SUB_BUCKETS) << shift;
+	}
+
+	/**
+	 * Gets the highest value a bucket holds.
+	 *
+	 * @param bucket
+	 *            index of the bucket
+	 * @return highest value of the bucket
+	 */
+	public long getHighValue(final int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		final int shift = bucket / SUB_BUCKETS - 1;
+		final long high = ((long) (bucket - shift * SUB_BUCKETS + 1) << shift) - 1;
+		/* the top bucket reaches past the largest long */
+		return high < 0 ? Long.MAX_VALUE : high;
+	}
+
+	/**
+	 * Gets the bucket a value is counted in.
+	 */
+	private static int bucketOf(final long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int shift = 64 - Long.numberOfLeadingZeros(value) - PRECISION_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+}
@@ -0,0 +1,19 @@
+package cmsc420.command;
+
+import org.w3c.dom.Element;
+
+/**
+ * Receives the result of each processed command. A result is a complete
+ * <code>success</code> or <code>error</code> element; it is handed to the
+ * sink as soon as the command that produced it has finished.
+ */
+public interface ResultSink {
+
+	/**
+	 * Accepts the result of a processed command.
+	 *
+	 * @param result
+	 *            <code>success</code> or <code>error</code> element
+	 */
+	public void add(Element result);
+}
@@ -0,0 +1,344 @@
+package cmsc420.command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Writes command results to an output stream as they are produced. Each
+ * result element is serialized with an <code>XMLStreamWriter</code> and
+ * flushed immediately, so nothing accumulates in memory and consumers see
+ * each result as soon as its command has finished.
+ * <p>
+ * The output is laid out exactly as <code>XmlUtility.print</code> lays out
+ * the equivalent results document: an XML declaration, then the
+ * <code>results</code> element with each child indented by two spaces per
+ * level and childless elements written as empty-element tags.
+ * <p>
+ * Results can be held back in memory with {@link #hold()}, for input that
+ * must print either nothing or a lone <code>fatalError</code> element if it
+ * fails, as the DOM printer did. A fatal error after held results discards
+ * them; one after results have been written can only be appended to them.
+ * <p>
+ * Write errors do not interrupt command processing. The first one is kept
+ * and rethrown by {@link #close()}.
+ */
+public class StreamingResultWriter implements ResultSink {
+	/** number of spaces to indent each level by */
+	private static final int INDENT = 2;
+
+	/** line separator used by the DOM printer */
+	private static final String NEWLINE = System.getProperty("line.separator");
+
+	/** XML declaration written by the DOM printer */
+	private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+
+	/** stream the results document is written to */
+	private final OutputStream output;
+
+	/** results held back from the output stream, if they are being held */
+	private ByteArrayOutputStream held;
+
+	/** character stream the results are written to */
+	private final Writer out;
+
+	/** XML writer over the character stream */
+	private final XMLStreamWriter writer;
+
+	/** whether the declaration and opening results tag have been written */
+	private boolean started = false;
+
+	/** whether the document has been finished */
+	private boolean closed = false;
+
+	/** first problem encountered while writing */
+	private XMLStreamException error;
+
+	/**
+	 * Constructs a result writer over the given output stream.
+	 *
+	 * @param output
+	 *            stream to write the results document to
+	 * @throws XMLStreamException
+	 *             a serious configuration error
+	 */
+	public StreamingResultWriter(final OutputStream output)
+			throws XMLStreamException {
+		this.output = output;
+		try {
+			out = new OutputStreamWriter(new OutputStream() {
+				public void write(final int b) throws IOException {
+					target().write(b);
+				}
+
+				public void write(final byte[] b, final int off,
+						final int len) throws IOException {
+					target().write(b, off, len);
+				}
+
+				public void flush() throws IOException {
+					target().flush();
+				}
+			}, "UTF-8");
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+		writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+	}
+
+	/**
+	 * Holds the results written from now on in memory instead of writing them
+	 * to the output stream. They are written when the document is finished,
+	 * unless a fatal error discards them first.
+	 */
+	public void hold() {
+		if (held == null) {
+			held = new ByteArrayOutputStream();
+		}
+	}
+
+	/**
+	 * Writes a command result and flushes it to the output stream. Writes the
+	 * declaration and opening <code>results</code> tag first if this is the
+	 * first result.
+	 *
+	 * @param result
+	 *            <code>success</code> or <code>error</code> element
+	 */
+	public void add(final Element result) {
+		if (closed || error != null) {
+			return;
+		}
+		try {
+			if (!started) {
+				writeDeclaration();
+				writer.writeStartElement("results");
+				started = true;
+			}
+			writeElement(result, 1);
+			writer.flush();
+		} catch (XMLStreamException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Reports that the input could not be processed. If nothing has been
+	 * written yet, or the results are held, the output becomes a lone
+	 * <code>fatalError</code> element, just as the DOM printer would produce.
+	 * Otherwise a <code>fatalError</code> element is appended after the
+	 * results already written. Either way the document is finished.
+	 */
+	public void fatalError() {
+		if (closed || error != null) {
+			return;
+		}
+		try {
+			if (held != null) {
+				discard();
+			}
+			if (!started) {
+				writeDeclaration();
+				writer.writeEmptyElement("fatalError");
+				writer.writeCharacters(NEWLINE);
+				writer.flush();
+				closed = true;
+			} else {
+				writer.writeCharacters(NEWLINE + indent(1));
+				writer.writeEmptyElement("fatalError");
+			}
+		} catch (XMLStreamException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Finishes the results document and flushes it. Does not close the
+	 * underlying output stream.
+	 *
+	 * @throws XMLStreamException
+	 *             the first problem encountered while writing results
+	 */
+	public void close() throws XMLStreamException {
+		if (!closed && error == null) {
+			closed = true;
+			try {
+				if (!started) {
+					writeDeclaration();
+					writer.writeEmptyElement("results");
+				} else {
+					writer.writeCharacters(NEWLINE);
+					writer.writeEndElement();
+				}
+				writer.writeCharacters(NEWLINE);
+				writer.flush();
+				release();
+			} catch (XMLStreamException e) {
+				error = e;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Writes the results held so far to the output stream.
+	 *
+	 * @throws XMLStreamException
+	 *             problem writing to the output stream
+	 */
+	private void release() throws XMLStreamException {
+		if (held != null) {
+			try {
+				out.flush();
+				held.writeTo(output);
+				output.flush();
+			} catch (IOException e) {
+				throw new XMLStreamException(e);
+			}
+			held = null;
+		}
+	}
+
+	/**
+	 * Throws away the results held so far, so the output stream is still
+	 * empty.
+	 *
+	 * @throws XMLStreamException
+	 *             problem flushing the held results
+	 */
+	private void discard() throws XMLStreamException {
+		writer.flush();
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+		held = null;
+		started = false;
+	}
+
+	/**
+	 * Gets the stream characters are encoded to: the buffer of held results,
+	 * or the output stream.
+	 */
+	private OutputStream target() {
+		return held != null ? held : output;
+	}
+
+	/**
+	 * Writes a document holding only a <code>fatalError</code> element, as
+	 * {@link #fatalError()} does when nothing has been written, straight to an
+	 * output stream. For input no result writer could be made for.
+	 *
+	 * @param output
+	 *            stream to write the document to
+	 * @throws IOException
+	 *             problem writing to the output stream
+	 */
+	public static void writeFatalError(final OutputStream output)
+			throws IOException {
+		output.write((DECLARATION + NEWLINE + "<fatalError/>" + NEWLINE)
+				.getBytes("UTF-8"));
+		output.flush();
+	}
+
+	/**
+	 * Writes the XML declaration as the DOM printer does.
+	 *
+	 * @throws XMLStreamException
+	 *             problem writing to the output stream
+	 */
+	private void writeDeclaration() throws XMLStreamException {
+		try {
+			out.write(DECLARATION);
+			out.write(NEWLINE);
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	/**
+	 * Writes an element and its subtree, starting on a new line indented to
+	 * the given depth.
+	 *
+	 * @param element
+	 *            element to be written
+	 * @param depth
+	 *            nesting depth of the element below the results element
+	 * @throws XMLStreamException
+	 *             problem writing to the output stream
+	 */
+	private void writeElement(final Element element, final int depth)
+			throws XMLStreamException {
+		writer.writeCharacters(NEWLINE + indent(depth));
+
+		Node child = element.getFirstChild();
+		if (child == null) {
+			writer.writeEmptyElement(element.getTagName());
+			writeAttributes(element);
+			return;
+		}
+
+		writer.writeStartElement(element.getTagName());
+		writeAttributes(element);
+		boolean hasChildElements = false;
+		for (; child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				writeElement((Element) child, depth + 1);
+				hasChildElements = true;
+			} else if (child.getNodeType() == Node.TEXT_NODE) {
+				writer.writeCharacters(child.getNodeValue());
+			}
+		}
+		if (hasChildElements) {
+			writer.writeCharacters(NEWLINE + indent(depth));
+		}
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Writes the attributes of an element in the order the DOM keeps them,
+	 * which is the order the DOM printer writes them in.
+	 *
+	 * @param element
+	 *            element whose attributes are written
+	 * @throws XMLStreamException
+	 *             problem writing to the output stream
+	 */
+	private void writeAttributes(final Element element)
+			throws XMLStreamException {
+		final NamedNodeMap attributes = element.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			final Attr attribute = (Attr) attributes.item(i);
+			writer.writeAttribute(attribute.getName(), attribute.getValue());
+		}
+	}
+
+	/**
+	 * Gets the indentation for the given depth.
+	 *
+	 * @param depth
+	 *            nesting depth below the results element
+	 * @return whitespace to indent by
+	 */
+	private static String indent(final int depth) {
+		final StringBuilder indent = new StringBuilder();
+		for (int i = 0; i < depth * INDENT; i++) {
+			indent.append(' ');
+		}
+		return indent.toString();
+	}
+}
@@ -0,0 +1,93 @@
+package cmsc420.command;
+
+import cmsc420.mxquadtree.MXQuadtree;
+
+/**
+ * Holds the state shared by everything in one MeeshQuest world: the
+ * dimensions of the remote and local spatial maps and the remote spatial map
+ * of mapped cities. Created from the commands node and handed explicitly to
+ * each structure that needs it, so several worlds can exist in one JVM.
+ */
+public class World {
+	/** spatial width of the metropoles */
+	private final int localSpatialWidth;
+
+	/** spatial height of the metropoles */
+	private final int localSpatialHeight;
+
+	/** spatial width of the cities */
+	private final int remoteSpatialWidth;
+
+	/** spatial height of the cities */
+	private final int remoteSpatialHeight;
+
+	/** stores mapped cities in a spatial data structure */
+	private final MXQuadtree remoteSpatialMap;
+
+	/**
+	 * Constructs a world with an empty remote spatial map.
+	 *
+	 * @param localSpatialWidth
+	 *            spatial width of the metropoles
+	 * @param localSpatialHeight
+	 *            spatial height of the metropoles
+	 * @param remoteSpatialWidth
+	 *            spatial width of the cities
+	 * @param remoteSpatialHeight
+	 *            spatial height of the cities
+	 */
+	public World(final int localSpatialWidth, final int localSpatialHeight,
+			final int remoteSpatialWidth, final int remoteSpatialHeight) {
+		this.localSpatialWidth = localSpatialWidth;
+		this.localSpatialHeight = localSpatialHeight;
+		this.remoteSpatialWidth = remoteSpatialWidth;
+		this.remoteSpatialHeight = remoteSpatialHeight;
+		remoteSpatialMap = new MXQuadtree();
+		remoteSpatialMap.setRange(remoteSpatialWidth, remoteSpatialHeight);
+	}
+
+	/**
+	 * Gets the spatial width of the metropoles.
+	 *
+	 * @return spatial width of the metropoles
+	 */
+	public int getLocalSpatialWidth() {
+		return localSpatialWidth;
+	}
+
+	/**
+	 * Gets the spatial height of the metropoles.
+	 *
+	 * @return spatial height of the metropoles
+	 */
+	public int getLocalSpatialHeight() {
+		return localSpatialHeight;
+	}
+
+	/**
+	 * Gets the spatial width of the cities.
+	 *
+	 * @return spatial width of the cities
+	 */
+	public int getRemoteSpatialWidth() {
+		return remoteSpatialWidth;
+	}
+
+	/**
+	 * Gets the spatial height of the cities.
+	 *
+	 * @return spatial height of the cities
+	 */
+	public int getRemoteSpatialHeight() {
+		return remoteSpatialHeight;
+	}
+
+	/**
+	 * Gets the spatial map of mapped cities.
+	 *
+	 * @return remote spatial map
+	 */
+	public MXQuadtree getRemoteSpatialMap() {
+		return remoteSpatialMap;
+	}
+}
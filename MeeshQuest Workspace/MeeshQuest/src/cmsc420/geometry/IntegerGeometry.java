@@ -0,0 +1,236 @@
+package cmsc420.geometry;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+
+import cmsc420.geom.Inclusive2DIntersectionVerifier;
+
+/**
+ * Intersection tests on integer coordinates that decide exactly what
+ * {@link Inclusive2DIntersectionVerifier} decides for the same shapes, without
+ * allocating. Rectangles are closed and given by their origin, width and
+ * height.
+ * <p>
+ * Orientations are computed in <code>long</code> arithmetic. For coordinates
+ * up to {@link #EXACT_LIMIT} in magnitude they are exact, and so is the
+ * <code>double</code> arithmetic of <code>Line2D</code> the verifier relies
+ * on, so both give the same answers; larger coordinates are handed to the
+ * verifier's own computation.
+ * <p>
+ * Whether a point lies on a segment is not decided in integer arithmetic: the
+ * verifier finds that the squared distance between them rounds to zero,
+ * which also accepts segments passing very close to the point. That distance
+ * is computed here the same way, from the same coordinates.
+ */
+public final class IntegerGeometry {
+	/** largest coordinate magnitude decided in integer arithmetic */
+	public static final int EXACT_LIMIT = 1 << 25;
+
+	private IntegerGeometry() {
+	}
+
+	/**
+	 * Gets the position of a point relative to a segment the way
+	 * <code>Line2D.relativeCCW</code> does: 1 or -1 for either side of its
+	 * line, and for points on its line, 0 between the endpoints and 1 or -1
+	 * beyond either end.
+	 *
+	 * @return 1, 0 or -1
+	 */
+	public static int relativeCCW(final long x1, final long y1, long x2,
+			long y2, long px, long py) {
+		x2 -= x1;
+		y2 -= y1;
+		px -= x1;
+		py -= y1;
+		long ccw = px * y2 - py * x2;
+		if (ccw == 0) {
+			ccw = px * x2 + py * y2;
+			if (ccw > 0) {
+				px -= x2;
+				py -= y2;
+				ccw = px * x2 + py * y2;
+				if (ccw < 0) {
+					ccw = 0;
+				}
+			}
+		}
+		return ccw < 0 ? -1 : (ccw > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Returns if the segment from (x1,y1) to (x2,y2) intersects the segment
+	 * from (x3,y3) to (x4,y4), as <code>Line2D.linesIntersect</code> does.
+	 * Like it, two segments of zero length are found to intersect wherever
+	 * they are.
+	 */
+	public static boolean segmentsIntersect(final int x1, final int y1,
+			final int x2, final int y2, final int x3, final int y3,
+			final int x4, final int y4) {
+		if (!isExact(x1, y1, x2, y2) || !isExact(x3, y3, x4, y4)) {
+			return Line2D.linesIntersect(x1, y1, x2, y2, x3, y3, x4, y4);
+		}
+		return relativeCCW(x1, y1, x2, y2, x3, y3)
+				* relativeCCW(x1, y1, x2, y2, x4, y4) <= 0
+				&& relativeCCW(x3, y3, x4, y4, x1, y1)
+						* relativeCCW(x3, y3, x4, y4, x2, y2) <= 0;
+	}
+
+	/**
+	 * Returns if the segment from (x1,y1) to (x2,y2) intersects a closed
+	 * rectangle: its bounding box overlaps the rectangle, and the corners of
+	 * the rectangle do not all lie strictly on one side of its line. A
+	 * rectangle of zero width or height is tested edge by edge, as the
+	 * verifier does, so a segment of zero length intersects it wherever it
+	 * is.
+	 */
+	public static boolean segmentIntersectsBox(final int x1, final int y1,
+			final int x2, final int y2, final int rx, final int ry,
+			final int rw, final int rh) {
+		final long maxX = (long) rx + rw, maxY = (long) ry + rh;
+		if (rw < 0 || rh < 0 || !isExact(x1, y1, x2, y2)
+				|| !isExact(rx, ry, maxX, maxY)) {
+			return Inclusive2DIntersectionVerifier.intersects(
+					new Line2D.Float(x1, y1, x2, y2), new Rectangle2D.Float(rx,
+							ry, rw, rh));
+		}
+		final int mx = (int) maxX, my = (int) maxY;
+		if (rw == 0 || rh == 0) {
+			return segmentsIntersect(x1, y1, x2, y2, rx, ry, rx, my)
+					|| segmentsIntersect(x1, y1, x2, y2, rx, my, mx, my)
+					|| segmentsIntersect(x1, y1, x2, y2, mx, my, mx, ry)
+					|| segmentsIntersect(x1, y1, x2, y2, mx, ry, rx, ry);
+		}
+		if (Math.max(x1, x2) < rx || Math.min(x1, x2) > mx
+				|| Math.max(y1, y2) < ry || Math.min(y1, y2) > my) {
+			return false;
+		}
+		final long dx = (long) x2 - x1, dy = (long) y2 - y1;
+		final long a = dx * (ry - y1) - dy * (rx - x1);
+		final long b = dx * (ry - y1) - dy * (mx - x1);
+		final long c = dx * (my - y1) - dy * (rx - x1);
+		final long d = dx * (my - y1) - dy * (mx - x1);
+		return !(a > 0 && b > 0 && c > 0 && d > 0)
+				&& !(a < 0 && b < 0 && c < 0 && d < 0);
+	}
+
+	/**
+	 * Returns if a point lies within a closed rectangle.
+	 */
+	public static boolean pointInBox(final int px, final int py,
+			final int rx, final int ry, final int rw, final int rh) {
+		return px >= rx && px <= (long) rx + rw && py >= ry
+				&& py <= (long) ry + rh;
+	}
+
+	/**
+	 * Returns if a point lies within a rectangle that is closed on its lower
+	 * sides and open on its upper sides, as regions of an MX Quadtree are.
+	 */
+	public static boolean pointInHalfOpenBox(final int px, final int py,
+			final int rx, final int ry, final int rw, final int rh) {
+		return px >= rx && px < (long) rx + rw && py >= ry
+				&& py < (long) ry + rh;
+	}
+
+	/**
+	 * Returns if the segments of two roads intersect.
+	 *
+	 * @param r1
+	 *            first road
+	 * @param r2
+	 *            second road
+	 * @return <code>true</code> if the segments intersect
+	 */
+	public static boolean intersects(final Road r1, final Road r2) {
+		if (!r1.exact || !r2.exact) {
+			return Inclusive2DIntersectionVerifier.intersects(r1.toLine2D(),
+					r2.toLine2D());
+		}
+		return segmentsIntersect(r1.startX, r1.startY, r1.endX, r1.endY,
+				r2.startX, r2.startY, r2.endX, r2.endY);
+	}
+
+	/**
+	 * Returns if a road, city, airport or terminal intersects a closed
+	 * rectangle. Cities, airports and terminals are their local points.
+	 *
+	 * @param g
+	 *            geometry to be checked
+	 * @param rx
+	 *            x coordinate of the rectangle's origin
+	 * @param ry
+	 *            y coordinate of the rectangle's origin
+	 * @param rw
+	 *            width of the rectangle
+	 * @param rh
+	 *            height of the rectangle
+	 * @return <code>true</code> if the geometry intersects the rectangle
+	 */
+	public static boolean intersects(final Geometry g, final int rx,
+			final int ry, final int rw, final int rh) {
+		if (g.isRoad()) {
+			final Road road = (Road) g;
+			if (!road.exact) {
+				return Inclusive2DIntersectionVerifier.intersects(road
+						.toLine2D(), new Rectangle2D.Float(rx, ry, rw, rh));
+			}
+			return segmentIntersectsBox(road.startX, road.startY, road.endX,
+					road.endY, rx, ry, rw, rh);
+		}
+		final Point2D.Float pt = localPoint(g);
+		if (pt == null) {
+			return false;
+		}
+		/* compared as the verifier does, so large coordinates are exact too */
+		return pt.x >= rx && pt.x <= (double) rx + rw && pt.y >= ry
+				&& pt.y <= (double) ry + rh;
+	}
+
+	/**
+	 * Returns if a city, airport or terminal lies on the segment of a road, as
+	 * the verifier decides it: the squared distance between them rounds to
+	 * zero.
+	 *
+	 * @param point
+	 *            city, airport or terminal to be checked
+	 * @param road
+	 *            road to be checked
+	 * @return <code>true</code> if the point lies on the road
+	 */
+	public static boolean liesOn(final Geometry point, final Road road) {
+		final Point2D.Float pt = localPoint(point);
+		if (pt == null) {
+			return false;
+		}
+		/* the segment's ends as the floats of toLine2D */
+		return Line2D.ptSegDistSq((float) road.startX, (float) road.startY,
+				(float) road.endX, (float) road.endY, pt.x, pt.y) == 0;
+	}
+
+	/**
+	 * Gets the local point of a city, airport or terminal, or
+	 * <code>null</code> for other geometry.
+	 */
+	private static Point2D.Float localPoint(final Geometry g) {
+		if (g.isCity()) {
+			return ((City) g).localPt;
+		} else if (g.isAirport()) {
+			return ((Airport) g).localPt;
+		} else if (g.isTerminal()) {
+			return ((Terminal) g).localPt;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns if coordinates are small enough to be decided in integer
+	 * arithmetic.
+	 */
+	static boolean isExact(final long x1, final long y1, final long x2,
+			final long y2) {
+		return Math.abs(x1) <= EXACT_LIMIT && Math.abs(y1) <= EXACT_LIMIT
+				&& Math.abs(x2) <= EXACT_LIMIT && Math.abs(y2) <= EXACT_LIMIT;
+	}
+}
@@ -1,6 +1,7 @@
 package cmsc420.geometry;
 
 import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
 
 
 /**
@@ -22,6 +23,15 @@ public class Road extends Geometry {
 
 	/** distance from start city to end city */
 	protected double distance;
+
+	/** local coordinates of the ends of the road's segment, as in toLine2D */
+	protected int startX, startY, endX, endY;
+
+	/**
+	 * whether the segment's coordinates are small enough for
+	 * {@link IntegerGeometry} to decide intersections with it exactly
+	 */
+	protected boolean exact;
 	
 	/**
 	 * Constructs a new road based on start city and end city. Calculates and
@@ -41,6 +51,7 @@ public class Road extends Geometry {
 			this.end = end;
 		}
 		distance = start.toPoint2D().distance(end.toPoint2D());
+		setSegment(this.start.localPt, this.end.localPt);
 	}
 	
 	public Road(final Terminal t) {
@@ -57,6 +68,20 @@ public class Road extends Geometry {
 		} else {
 			distance = endTerminal.localPt.distance(start.toPoint2D());
 		}
+		setSegment(startTerminal != null ? startTerminal.localPt
+				: start.localPt, endTerminal != null ? endTerminal.localPt
+				: end.localPt);
+	}
+
+	/**
+	 * Keeps the integer coordinates of the road's segment.
+	 */
+	private void setSegment(final Point2D.Float from, final Point2D.Float to) {
+		startX = (int) from.x;
+		startY = (int) from.y;
+		endX = (int) to.x;
+		endY = (int) to.y;
+		exact = IntegerGeometry.isExact(startX, startY, endX, endY);
 	}
 
 	/**
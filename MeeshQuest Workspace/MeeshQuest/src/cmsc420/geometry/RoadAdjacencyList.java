@@ -9,10 +9,15 @@
 
 package cmsc420.geometry;
 
+import java.io.IOException;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import cmsc420.snapshot.SnapshotReader;
+import cmsc420.snapshot.SnapshotWriter;
+
 
 /**
  * Road adjacency list contains a map of cities to connected roads. While the
@@ -247,6 +252,49 @@ public class RoadAdjacencyList {
 		adjacencyList.clear();
 	}
 
+	/**
+	 * Writes each city and its connected roads to a snapshot.
+	 * 
+	 * @param out
+	 *            snapshot being written
+	 * @throws IOException
+	 *             problem writing the snapshot
+	 */
+	public void writeSnapshot(final SnapshotWriter out) throws IOException {
+		out.writeInt(adjacencyList.size());
+		for (Map.Entry<City, TreeSet<Road>> entry : adjacencyList.entrySet()) {
+			out.writeObject(entry.getKey());
+			out.writeInt(entry.getValue().size());
+			for (Road road : entry.getValue()) {
+				out.writeObject(road);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the contents of the road adjacency list with those read from a
+	 * snapshot.
+	 * 
+	 * @param in
+	 *            snapshot being read
+	 * @throws IOException
+	 *             the snapshot is malformed
+	 */
+	public void readSnapshot(final SnapshotReader in) throws IOException {
+		adjacencyList.clear();
+		final int numCities = in.readInt();
+		for (int i = 0; i < numCities; i++) {
+			final City city = in.readCity();
+			final TreeSet<Road> roadsForCity = new TreeSet<Road>(
+					new RoadNameComparator());
+			final int numRoads = in.readInt();
+			for (int j = 0; j < numRoads; j++) {
+				roadsForCity.add(in.read(Road.class));
+			}
+			adjacencyList.put(city, roadsForCity);
+		}
+	}
+
 	/**
 	 * Gets all the connected roads for each city. Useful for debugging
 	 * purposes.
@@ -65,18 +65,29 @@ public class RoadNameComparator implements Comparator<Road> {
 	 * @return result of road comparison based on city names
 	 */
 	public int compare(Road one, Road two) {
+		String oneStartName = one.getStart() != null ? one.getStart().getName() : one.getStartTerminal().getTerminalName();
+		String oneEndName = one.getEnd() != null ? one.getEnd().getName() : one.getEndTerminal().getTerminalName();
+		String twoStartName = two.getStart() != null ? two.getStart().getName() : two.getStartTerminal().getTerminalName();
+		String twoEndName = two.getEnd() != null ? two.getEnd().getName() : two.getEndTerminal().getTerminalName();
+
 		if (!orderMatters) {
 			/*
-			 * reorder each road so the start city name is less than the end
-			 * city name
+			 * take the names of each road in the order orderRoad would put
+			 * them in, so the start city name is less than the end city name,
+			 * without reordering the road itself
 			 */
-			one = orderRoad(one);
-			two = orderRoad(two);
+			if (oneStartName.compareTo(oneEndName) > 0) {
+				final String name = oneStartName;
+				oneStartName = oneEndName;
+				oneEndName = name;
+			}
+			if (twoStartName.compareTo(twoEndName) > 0) {
+				final String name = twoStartName;
+				twoStartName = twoEndName;
+				twoEndName = name;
+			}
 		}
 
-		final String twoStartName = two.getStart() != null ? two.getStart().getName() : two.getStartTerminal().getTerminalName();
-		final String oneStartName = one.getStart() != null ? one.getStart().getName() : one.getStartTerminal().getTerminalName();
-
 		final int startCityNameCompare = twoStartName.compareTo(
 				oneStartName);
 
@@ -84,9 +95,6 @@ public class RoadNameComparator implements Comparator<Road> {
 			/* return result of comparison of start city names */
 			return startCityNameCompare;
 		} else {
-			final String twoEndName = two.getEnd() != null ? two.getEnd().getName() : two.getEndTerminal().getTerminalName();
-			final String oneEndName = one.getEnd() != null ? one.getEnd().getName() : one.getEndTerminal().getTerminalName();
-
 			/* return result of comparison of end city names */
 			return twoEndName.compareTo(oneEndName);
 		}
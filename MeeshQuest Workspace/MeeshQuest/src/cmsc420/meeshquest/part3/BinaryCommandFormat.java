@@ -0,0 +1,148 @@
+package cmsc420.meeshquest.part3;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Layout of the binary command format, a compact peer of the XML command
+ * format that covers the same commands as <code>part3in.xsd</code>.
+ * <p>
+ * A binary command file starts with the four bytes <code>MQB1</code>,
+ * followed by one record for the <code>commands</code> root and then one
+ * record for each command, in order. A record is laid out as:
+ * <ul>
+ * <li>the length of the rest of the record, as a 4-byte integer</li>
+ * <li>the opcode of the command, as 1 byte</li>
+ * <li>a 4-byte mask with bit <i>i</i> set if the command's <i>i</i>th
+ * attribute is present</li>
+ * <li>each present attribute, in the order given by the command's layout.
+ * Integers take 4 bytes; names and other strings take a 2-byte length
+ * followed by that many bytes of UTF-8.</li>
+ * </ul>
+ * All integers are big-endian.
+ */
+final class BinaryCommandFormat {
+	/** first four bytes of every binary command file: "MQB1" */
+	static final int MAGIC = 0x4D514231;
+
+	/** layout of each command, indexed by opcode */
+	private static final Layout[] LAYOUTS = {
+			new Layout("commands", "#localSpatialWidth",
+					"#localSpatialHeight", "#remoteSpatialWidth",
+					"#remoteSpatialHeight", "#pmOrder", "#g", "#bucketSize"),
+			new Layout("clearAll", "#id"),
+			new Layout("createCity", "#id", "name", "#localX", "#localY",
+					"#remoteX", "#remoteY", "#radius", "color"),
+			new Layout("deleteCity", "#id", "name"),
+			new Layout("listCities", "#id", "sortBy"),
+			new Layout("mapAirport", "#id", "name", "#localX", "#localY",
+					"#remoteX", "#remoteY", "terminalName", "#terminalX",
+					"#terminalY", "terminalCity"),
+			new Layout("mapTerminal", "#id", "name", "#localX", "#localY",
+					"#remoteX", "#remoteY", "cityName", "airportName"),
+			new Layout("mapRoad", "#id", "start", "end"),
+			new Layout("unmapAirport", "#id", "name"),
+			new Layout("unmapRoad", "#id", "start", "end"),
+			new Layout("unmapTerminal", "#id", "name"),
+			new Layout("printAvlTree", "#id"),
+			new Layout("printPMQuadtree", "#id", "#remoteX", "#remoteY"),
+			new Layout("nearestCity", "#id", "#localX", "#localY",
+					"#remoteX", "#remoteY"),
+			new Layout("nearestAirport", "#id", "#localX", "#localY",
+					"#remoteX", "#remoteY"),
+			new Layout("globalRangeCities", "#id", "#remoteX", "#remoteY",
+					"#radius"),
+			new Layout("saveMap", "#id", "name", "#remoteX", "#remoteY"),
+			new Layout("mst", "#id", "start"),
+			new Layout("rangeRoads", "#id", "#localX", "#localY", "#remoteX",
+					"#remoteY", "#radius", "saveMap"),
+			new Layout("rangeAirports", "#id", "#localX", "#localY",
+					"#remoteX", "#remoteY", "#radius", "saveMap"),
+			new Layout("rangeTerminals", "#id", "#localX", "#localY",
+					"#remoteX", "#remoteY", "#radius", "saveMap"),
+			new Layout("nearestCities", "#id", "#localX", "#localY",
+					"#remoteX", "#remoteY", "#k") };
+
+	/** opcode of each command, keyed by command name */
+	private static final Map<String, Integer> OPCODES = new HashMap<String, Integer>();
+
+	static {
+		for (int opcode = 0; opcode < LAYOUTS.length; opcode++) {
+			OPCODES.put(LAYOUTS[opcode].name, opcode);
+		}
+	}
+
+	private BinaryCommandFormat() {
+	}
+
+	/**
+	 * Gets the opcode of a command.
+	 *
+	 * @param name
+	 *            name of the command
+	 * @return opcode of the command, or -1 if there is no such command
+	 */
+	static int getOpcode(final String name) {
+		final Integer opcode = OPCODES.get(name);
+		return opcode == null ? -1 : opcode;
+	}
+
+	/**
+	 * Gets the layout of a command.
+	 *
+	 * @param opcode
+	 *            opcode of the command
+	 * @return layout of the command, or <code>null</code> if there is no such
+	 *         command
+	 */
+	static Layout getLayout(final int opcode) {
+		return opcode >= 0 && opcode < LAYOUTS.length ? LAYOUTS[opcode] : null;
+	}
+
+	/**
+	 * Names and types of the attributes of one command, in the order they
+	 * are stored.
+	 */
+	static final class Layout {
+		/** name of the command */
+		final String name;
+
+		/** names of the attributes */
+		final String[] attributes;
+
+		/** whether each attribute is an integer rather than a string */
+		final boolean[] integer;
+
+		/**
+		 * Constructs a layout. Integer attributes have their names prefixed
+		 * with <code>#</code>.
+		 */
+		private Layout(final String name, final String... attributes) {
+			this.name = name;
+			this.attributes = new String[attributes.length];
+			this.integer = new boolean[attributes.length];
+			for (int i = 0; i < attributes.length; i++) {
+				integer[i] = attributes[i].startsWith("#");
+				this.attributes[i] = integer[i] ? attributes[i].substring(1)
+						: attributes[i];
+			}
+		}
+
+		/**
+		 * Gets the position of an attribute in this layout.
+		 *
+		 * @param attributeName
+		 *            name of the attribute
+		 * @return position of the attribute, or -1 if the command has no such
+		 *         attribute
+		 */
+		int indexOf(final String attributeName) {
+			for (int i = 0; i < attributes.length; i++) {
+				if (attributes[i].equals(attributeName)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package cmsc420.meeshquest.part3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import cmsc420.command.CommandInput;
+
+/**
+ * Reads commands in the binary command format described by
+ * {@link BinaryCommandFormat}. Files are memory-mapped; other streams are
+ * read into a buffer first. Integer attributes are decoded straight off the
+ * buffer, so the only strings created are names.
+ * <p>
+ * The first command returned is the <code>commands</code> root, followed by
+ * each command in order. The command returned by <code>next</code> is reused
+ * for the next record, so it is only valid until <code>next</code> is called
+ * again; <code>nextCopy</code> returns a command of its own instead, for
+ * commands that are kept or handed to another thread.
+ */
+public class BinaryCommandReader {
+	/** buffer holding the records */
+	private final ByteBuffer buffer;
+
+	/** command the current record is decoded into */
+	private final Record record = new Record();
+
+	/** holds the bytes of a name while it is decoded */
+	private byte[] scratch = new byte[64];
+
+	/**
+	 * Constructs a reader over a buffer holding a binary command file.
+	 *
+	 * @param buffer
+	 *            buffer positioned at the start of the file
+	 * @throws IOException
+	 *             the buffer does not hold a binary command file
+	 */
+	public BinaryCommandReader(final ByteBuffer buffer) throws IOException {
+		this(buffer, true);
+	}
+
+	/**
+	 * Constructs a reader over a buffer, with or without a file header in
+	 * front of the records. The reader works on the buffer itself, so the
+	 * buffer's position always follows the last record read.
+	 *
+	 * @param buffer
+	 *            buffer positioned at the header, or at the first record if
+	 *            there is no header
+	 * @param header
+	 *            whether the records follow a file header
+	 * @throws IOException
+	 *             the header is missing
+	 */
+	BinaryCommandReader(final ByteBuffer buffer, final boolean header)
+			throws IOException {
+		this.buffer = buffer;
+		if (header
+				&& (buffer.remaining() < 4 || buffer.getInt() != BinaryCommandFormat.MAGIC)) {
+			throw new IOException("not a binary command file");
+		}
+	}
+
+	/**
+	 * Opens a reader over a stream. Maps the rest of the file into memory if
+	 * the stream reads a regular file; otherwise reads the rest of the stream
+	 * into a buffer.
+	 *
+	 * @param input
+	 *            stream holding a binary command file
+	 * @return reader over the stream
+	 * @throws IOException
+	 *             problem reading the stream, or it does not hold a binary
+	 *             command file
+	 */
+	public static BinaryCommandReader open(final InputStream input)
+			throws IOException {
+		if (input instanceof FileInputStream) {
+			final FileChannel channel = ((FileInputStream) input).getChannel();
+			long position = -1;
+			long size = 0;
+			try {
+				position = channel.position();
+				size = channel.size();
+			} catch (IOException e) {
+				/* not a regular file, such as a pipe */
+			}
+			if (position >= 0 && size > position) {
+				return new BinaryCommandReader(channel.map(
+						FileChannel.MapMode.READ_ONLY, position, size - position));
+			}
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final byte[] block = new byte[8192];
+		int read;
+		while ((read = input.read(block)) >= 0) {
+			bytes.write(block, 0, read);
+		}
+		return new BinaryCommandReader(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+
+	/**
+	 * Reads the next command record.
+	 *
+	 * @return the next command, valid until this method is called again, or
+	 *         <code>null</code> if there are no more records
+	 * @throws IOException
+	 *             the record is malformed
+	 */
+	public CommandInput next() throws IOException {
+		if (!buffer.hasRemaining()) {
+			return null;
+		}
+		try {
+			final int length = buffer.getInt();
+			final int end = buffer.position() + length;
+			if (length < 5 || end > buffer.limit()) {
+				throw new IOException("bad record length " + length);
+			}
+			final BinaryCommandFormat.Layout layout = BinaryCommandFormat
+					.getLayout(buffer.get());
+			if (layout == null) {
+				throw new IOException("unknown opcode");
+			}
+			record.layout = layout;
+			record.present = buffer.getInt();
+			for (int i = 0; i < layout.attributes.length; i++) {
+				if ((record.present & (1 << i)) == 0) {
+					record.strings[i] = null;
+				} else if (layout.integer[i]) {
+					record.integers[i] = buffer.getInt();
+				} else {
+					record.strings[i] = readString();
+				}
+			}
+			if (buffer.position() != end) {
+				throw new IOException("bad record length " + length);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("record cut off");
+		}
+		return record;
+	}
+
+	/**
+	 * Reads the next command record into a command of its own, which later
+	 * records leave as it is.
+	 *
+	 * @return the next command, or <code>null</code> if there are no more
+	 *         records
+	 * @throws IOException
+	 *             the record is malformed
+	 */
+	public CommandInput nextCopy() throws IOException {
+		return next() == null ? null : new Record(record);
+	}
+
+	/**
+	 * Decodes a length-prefixed UTF-8 string off the buffer.
+	 */
+	private String readString() {
+		final int length = buffer.getShort() & 0xFFFF;
+		if (length > scratch.length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		buffer.get(scratch, 0, length);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A decoded command record. Integer attributes are only turned into text
+	 * when their text is asked for, as when they are echoed into the results.
+	 */
+	private static final class Record implements CommandInput {
+		/** most attributes any command has */
+		private static final int MAX_ATTRIBUTES = 16;
+
+		/** layout of the command */
+		BinaryCommandFormat.Layout layout;
+
+		/** bit i is set if attribute i is present */
+		int present;
+
+		/** values of the integer attributes */
+		final int[] integers;
+
+		/** values of the string attributes */
+		final String[] strings;
+
+		/**
+		 * Constructs a record for the reader to decode into.
+		 */
+		Record() {
+			integers = new int[MAX_ATTRIBUTES];
+			strings = new String[MAX_ATTRIBUTES];
+		}
+
+		/**
+		 * Constructs a copy of a decoded record, which is never decoded into.
+		 *
+		 * @param record
+		 *            record to be copied
+		 */
+		Record(final Record record) {
+			layout = record.layout;
+			present = record.present;
+			integers = record.integers.clone();
+			strings = record.strings.clone();
+		}
+
+		public String getName() {
+			return layout.name;
+		}
+
+		public boolean hasAttribute(final String attributeName) {
+			return indexOf(attributeName) >= 0;
+		}
+
+		public String getAttribute(final String attributeName) {
+			final int i = indexOf(attributeName);
+			if (i < 0) {
+				return "";
+			}
+			return layout.integer[i] ? Integer.toString(integers[i])
+					: strings[i];
+		}
+
+		public int getIntegerAttribute(final String attributeName) {
+			final int i = indexOf(attributeName);
+			if (i < 0) {
+				throw new NumberFormatException("missing " + attributeName);
+			}
+			return layout.integer[i] ? integers[i] : Integer
+					.parseInt(strings[i]);
+		}
+
+		/**
+		 * Gets the position of a present attribute, or -1 if it is absent.
+		 */
+		private int indexOf(final String attributeName) {
+			final int i = layout.indexOf(attributeName);
+			return i >= 0 && (present & (1 << i)) != 0 ? i : -1;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package cmsc420.meeshquest.part3;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import cmsc420.command.CommandInput;
+import cmsc420.command.ElementCommandInput;
+
+/**
+ * Writes commands in the binary command format described by
+ * {@link BinaryCommandFormat}.
+ * <p>
+ * Run as a program, converts an XML command document into a binary command
+ * file: <code>BinaryCommandWriter input.xml output.mqb</code>. The XML is
+ * validated against its schema first, since the binary format is read
+ * without validation.
+ */
+public class BinaryCommandWriter {
+	/** stream the file is written to */
+	private final DataOutputStream out;
+
+	/** holds a record while it is encoded, so its length is known */
+	private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+
+	/** writes into the record being encoded */
+	private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+	/**
+	 * Constructs a writer and writes the start of a binary command file.
+	 *
+	 * @param output
+	 *            stream to write the file to
+	 * @throws IOException
+	 *             problem writing to the stream
+	 */
+	public BinaryCommandWriter(final OutputStream output) throws IOException {
+		this(output, true);
+	}
+
+	/**
+	 * Constructs a writer that writes records with or without the file header
+	 * in front of them.
+	 *
+	 * @param output
+	 *            stream to write the records to
+	 * @param header
+	 *            whether to write the file header first
+	 * @throws IOException
+	 *             problem writing to the stream
+	 */
+	BinaryCommandWriter(final OutputStream output, final boolean header)
+			throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(output));
+		if (header) {
+			out.writeInt(BinaryCommandFormat.MAGIC);
+		}
+	}
+
+	/**
+	 * Writes a command as a record. Attributes the command does not define
+	 * are dropped.
+	 *
+	 * @param command
+	 *            command to be written
+	 * @throws IOException
+	 *             problem writing to the stream
+	 * @throws IllegalArgumentException
+	 *             the command is unknown, an integer attribute is not an int,
+	 *             or a string attribute is too long
+	 */
+	public void write(final CommandInput command) throws IOException {
+		final int opcode = BinaryCommandFormat.getOpcode(command.getName());
+		if (opcode < 0) {
+			throw new IllegalArgumentException("unknown command "
+					+ command.getName());
+		}
+		final BinaryCommandFormat.Layout layout = BinaryCommandFormat
+				.getLayout(opcode);
+
+		int present = 0;
+		for (int i = 0; i < layout.attributes.length; i++) {
+			if (command.hasAttribute(layout.attributes[i])) {
+				present |= 1 << i;
+			}
+		}
+
+		recordBytes.reset();
+		record.writeByte(opcode);
+		record.writeInt(present);
+		for (int i = 0; i < layout.attributes.length; i++) {
+			if ((present & (1 << i)) == 0) {
+				continue;
+			}
+			if (layout.integer[i]) {
+				try {
+					record.writeInt(command
+							.getIntegerAttribute(layout.attributes[i]));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(command.getName() + " "
+							+ layout.attributes[i] + "="
+							+ command.getAttribute(layout.attributes[i])
+							+ " is not an int");
+				}
+			} else {
+				final byte[] value = command.getAttribute(layout.attributes[i])
+						.getBytes(StandardCharsets.UTF_8);
+				if (value.length > 0xFFFF) {
+					throw new IllegalArgumentException(command.getName() + " "
+							+ layout.attributes[i] + " is too long");
+				}
+				record.writeShort(value.length);
+				record.write(value);
+			}
+		}
+		record.flush();
+
+		out.writeInt(recordBytes.size());
+		recordBytes.writeTo(out);
+	}
+
+	/**
+	 * Flushes the file to the underlying stream. Does not close the stream.
+	 *
+	 * @throws IOException
+	 *             problem writing to the stream
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Converts an XML command document to a binary command file.
+	 *
+	 * @param input
+	 *            XML command document
+	 * @param output
+	 *            stream the binary command file is written to
+	 * @throws SAXException
+	 *             the document is not valid
+	 * @throws IOException
+	 *             problem reading or writing
+	 * @throws ParserConfigurationException
+	 *             a serious configuration error
+	 */
+	public static void convert(final InputStream input,
+			final OutputStream output) throws SAXException, IOException,
+			ParserConfigurationException {
+		final Document document = ValidationService.getInstance()
+				.validateNoNamespace(input);
+		final BinaryCommandWriter writer = new BinaryCommandWriter(output);
+		final Element root = document.getDocumentElement();
+		writer.write(new ElementCommandInput(root));
+		for (Node node = root.getFirstChild(); node != null; node = node
+				.getNextSibling()) {
+			if (node.getNodeType() == Node.ELEMENT_NODE) {
+				writer.write(new ElementCommandInput((Element) node));
+			}
+		}
+		writer.flush();
+	}
+
+	public static void main(String[] args) throws SAXException, IOException,
+			ParserConfigurationException {
+		if (args.length != 2) {
+			System.err.println("usage: BinaryCommandWriter input.xml output.mqb");
+			System.exit(-1);
+		}
+		final InputStream input = new FileInputStream(args[0]);
+		try {
+			final OutputStream output = new FileOutputStream(args[1]);
+			try {
+				convert(input, output);
+			} finally {
+				output.close();
+			}
+		} finally {
+			input.close();
+		}
+	}
+}
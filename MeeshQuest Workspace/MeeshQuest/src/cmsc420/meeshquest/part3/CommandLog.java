@@ -0,0 +1,403 @@
+package cmsc420.meeshquest.part3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+
+import cmsc420.command.Command;
+import cmsc420.command.CommandHandler;
+import cmsc420.command.CommandInput;
+import cmsc420.command.CommandRegistry;
+import cmsc420.command.ResultSink;
+import cmsc420.snapshot.SnapshotReader;
+
+/**
+ * Append-only log of the commands that changed a {@link Command}'s state, so
+ * the state survives a restart without reprocessing the original input.
+ * Every command that can change the state is logged once it has been
+ * processed, even if it reported an error, since some errors leave changes
+ * behind (a city whose name is taken is still placed in the remote spatial
+ * map).
+ * <p>
+ * A log file starts with the four bytes <code>MQL1</code>, a 4-byte version
+ * number and a 1-byte flag. If the flag is set, a checkpoint follows: a
+ * snapshot of the state, as written by {@link Command#saveSnapshot}. After
+ * that comes one entry for each logged command: a 4-byte CRC-32 of the
+ * record that follows, then the command as a record of the binary command
+ * format described by {@link BinaryCommandFormat}.
+ * <p>
+ * Entries are collected in memory and group-committed: written and forced to
+ * disk together once enough of them are pending, or when
+ * {@link #commit()} is called. A crash loses at most the entries since the
+ * last commit. An entry cut off or damaged by a crash fails its checksum and
+ * is dropped, with anything after it, when the log is next opened.
+ * <p>
+ * Compaction folds the whole log into a new checkpoint. Deletions here do
+ * not simply cancel their insertions (a deleted city still shapes the AVL-g
+ * tree, and an unmapped road still blocks later roads), so commands cannot
+ * be folded pairwise; the checkpoint holds their combined effect exactly.
+ * The new log is written beside the old one and renamed over it, so a crash
+ * leaves one or the other.
+ */
+public class CommandLog {
+	/** first four bytes of every log file: "MQL1" */
+	static final int MAGIC = 0x4D514C31;
+
+	/** version of the layout written by this code */
+	static final int VERSION = 1;
+
+	/** entries pending before they are committed together, by default */
+	public static final int DEFAULT_GROUP_SIZE = 256;
+
+	/** bytes of entries after which a commit compacts the log, by default */
+	public static final long DEFAULT_COMPACTION_SIZE = 16 << 20;
+
+	/** commands that can change the state */
+	private static final Set<String> MUTATING = new HashSet<String>(
+			Arrays.asList("createCity", "deleteCity", "clearAll", "mapRoad",
+					"mapAirport", "mapTerminal", "unmapRoad", "unmapAirport",
+					"unmapTerminal"));
+
+	/** processes replayed commands */
+	private static final CommandRegistry HANDLERS = CommandRegistry
+			.createDefault();
+
+	/** log file */
+	private final File file;
+
+	/** command processor whose state is logged */
+	private final Command command;
+
+	/** channel entries are appended through */
+	private FileChannel channel;
+
+	/** position in the file where the entries start */
+	private long entriesStart;
+
+	/** holds the record of the entry being encoded */
+	private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+
+	/** encodes records into recordBytes */
+	private final BinaryCommandWriter encoder;
+
+	/** holds the entries not yet committed */
+	private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+
+	/** writes into pendingBytes */
+	private final DataOutputStream pending = new DataOutputStream(pendingBytes);
+
+	/** number of entries not yet committed */
+	private int numPending = 0;
+
+	/** checksums records */
+	private final CRC32 crc = new CRC32();
+
+	/** entries pending before they are committed together */
+	private int groupSize = DEFAULT_GROUP_SIZE;
+
+	/** bytes of entries after which a commit compacts the log */
+	private long compactionSize = DEFAULT_COMPACTION_SIZE;
+
+	/** number of entries replayed when the log was opened */
+	private int numReplayed = 0;
+
+	private CommandLog(final File file, final Command command)
+			throws IOException {
+		this.file = file;
+		this.command = command;
+		encoder = new BinaryCommandWriter(recordBytes, false);
+	}
+
+	/**
+	 * Opens a log file, creating it if it does not exist. An existing log is
+	 * replayed into the command processor first: its checkpoint is restored
+	 * and then each of its commands is processed again, without building any
+	 * results.
+	 *
+	 * @param file
+	 *            log file
+	 * @param command
+	 *            command processor whose state is logged; it should not have
+	 *            started if the log exists
+	 * @return the open log
+	 * @throws IOException
+	 *             problem reading or writing the file, or it is not a log
+	 *             file
+	 */
+	public static CommandLog open(final File file, final Command command)
+			throws IOException {
+		final CommandLog log = new CommandLog(file, command);
+		if (!file.exists()) {
+			log.writeHeader(file, false);
+		}
+		log.replay();
+		return log;
+	}
+
+	/**
+	 * Returns if a command can change the state and is therefore logged.
+	 * The commands node is logged only when it starts the state.
+	 *
+	 * @param name
+	 *            name of the command
+	 * @return if the command can change the state
+	 */
+	public static boolean isMutating(final String name) {
+		return MUTATING.contains(name);
+	}
+
+	/**
+	 * Sets how many entries are collected before they are committed together.
+	 *
+	 * @param groupSize
+	 *            entries per commit, at least 1
+	 */
+	public void setGroupSize(final int groupSize) {
+		this.groupSize = Math.max(1, groupSize);
+	}
+
+	/**
+	 * Sets how large the entries may grow before a commit compacts the log.
+	 *
+	 * @param compactionSize
+	 *            size of the entries in bytes
+	 */
+	public void setCompactionSize(final long compactionSize) {
+		this.compactionSize = compactionSize;
+	}
+
+	/**
+	 * Gets the number of entries replayed when the log was opened.
+	 *
+	 * @return number of entries replayed
+	 */
+	public int getNumReplayed() {
+		return numReplayed;
+	}
+
+	/**
+	 * Appends a command that has been processed. Commits the pending entries
+	 * if there are enough of them.
+	 *
+	 * @param commandNode
+	 *            command that has been processed
+	 * @throws IOException
+	 *             problem writing the log
+	 */
+	public void append(final CommandInput commandNode) throws IOException {
+		recordBytes.reset();
+		encoder.write(commandNode);
+		encoder.flush();
+		crc.reset();
+		final byte[] record = recordBytes.toByteArray();
+		crc.update(record, 0, record.length);
+		pending.writeInt((int) crc.getValue());
+		pending.write(record);
+		if (++numPending >= groupSize) {
+			commit();
+		}
+	}
+
+	/**
+	 * Writes the pending entries to the file and forces them to disk. Then
+	 * compacts the log if its entries have grown too large.
+	 *
+	 * @throws IOException
+	 *             problem writing the log
+	 */
+	public void commit() throws IOException {
+		if (numPending > 0) {
+			final ByteBuffer entries = ByteBuffer.wrap(pendingBytes
+					.toByteArray());
+			while (entries.hasRemaining()) {
+				channel.write(entries);
+			}
+			channel.force(false);
+			pendingBytes.reset();
+			numPending = 0;
+		}
+		if (channel.size() - entriesStart > compactionSize) {
+			compact();
+		}
+	}
+
+	/**
+	 * Replaces the log with one holding a checkpoint of the current state and
+	 * no entries.
+	 *
+	 * @throws IOException
+	 *             problem writing the log
+	 */
+	public void compact() throws IOException {
+		if (numPending > 0) {
+			/* keep the entries if the checkpoint cannot be written */
+			final long size = compactionSize;
+			compactionSize = Long.MAX_VALUE;
+			commit();
+			compactionSize = size;
+		}
+		final File compacted = new File(file.getPath() + ".compact");
+		writeHeader(compacted, true);
+		channel.close();
+		Files.move(compacted.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+		entriesStart = channel.size();
+		channel.position(entriesStart);
+	}
+
+	/**
+	 * Commits the pending entries and closes the log.
+	 *
+	 * @throws IOException
+	 *             problem writing the log
+	 */
+	public void close() throws IOException {
+		try {
+			commit();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes a log file holding no entries, with a checkpoint of the current
+	 * state if asked for, and forces it to disk.
+	 */
+	private void writeHeader(final File target, final boolean checkpoint)
+			throws IOException {
+		final FileOutputStream output = new FileOutputStream(target);
+		try {
+			final DataOutputStream out = new DataOutputStream(output);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(checkpoint);
+			if (checkpoint) {
+				command.saveSnapshot(out);
+			}
+			out.flush();
+			output.getChannel().force(true);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Restores the checkpoint and replays the entries of the log file, then
+	 * opens the file for appending after the last intact entry. The file is
+	 * read into memory rather than mapped, since a mapping would stay live
+	 * while the file is truncated here or replaced by a compaction.
+	 */
+	private void replay() throws IOException {
+		final FileChannel readChannel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		final ByteBuffer buffer;
+		try {
+			final long size = readChannel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("command log too large");
+			}
+			buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining()) {
+				if (readChannel.read(buffer) < 0) {
+					break;
+				}
+			}
+			buffer.flip();
+		} finally {
+			readChannel.close();
+		}
+		if (buffer.remaining() < 9 || buffer.getInt() != MAGIC) {
+			throw new IOException("not a command log");
+		}
+		final int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported command log version "
+					+ version);
+		}
+
+		try {
+			command.setResults(ValidationService.getInstance().newDocument(),
+					new ResultSink() {
+						public void add(Element result) {
+						}
+					});
+		} catch (ParserConfigurationException e) {
+			throw new IOException(e);
+		}
+		command.setReplaying(true);
+		long intactEnd;
+		try {
+			if (buffer.get() != 0) {
+				command.loadSnapshot(new SnapshotReader(buffer));
+			}
+			entriesStart = buffer.position();
+			intactEnd = entriesStart;
+
+			final BinaryCommandReader reader = new BinaryCommandReader(buffer,
+					false);
+			final ByteBuffer records = buffer.duplicate();
+			while (buffer.remaining() >= 4) {
+				final int checksum = buffer.getInt();
+				final int recordStart = buffer.position();
+				final CommandInput record;
+				try {
+					record = reader.next();
+				} catch (IOException e) {
+					/* cut off by a crash */
+					break;
+				}
+				if (record == null) {
+					break;
+				}
+				records.limit(buffer.position()).position(recordStart);
+				crc.reset();
+				crc.update(records);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				replay(record);
+				numReplayed++;
+				intactEnd = buffer.position();
+			}
+		} finally {
+			command.setReplaying(false);
+		}
+
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+		if (channel.size() > intactEnd) {
+			channel.truncate(intactEnd);
+			channel.force(false);
+		}
+		channel.position(intactEnd);
+	}
+
+	/**
+	 * Processes a logged command again.
+	 */
+	private void replay(final CommandInput record) throws IOException {
+		final String name = record.getName();
+		final CommandHandler handler = name.equals("commands")
+				|| isMutating(name) ? HANDLERS.getHandler(name) : null;
+		if (handler == null) {
+			throw new IOException("cannot replay " + name);
+		}
+		handler.process(command, record);
+	}
+}
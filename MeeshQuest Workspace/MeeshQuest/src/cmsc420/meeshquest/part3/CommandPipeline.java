@@ -0,0 +1,274 @@
+package cmsc420.meeshquest.part3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import cmsc420.command.CommandInput;
+import cmsc420.command.ElementCommandInput;
+import cmsc420.command.ResultSink;
+
+/**
+ * Connects the three stages of processing a command document, each on its
+ * own thread: a reader that parses commands off the input, the executor that
+ * processes them, and a serializer that writes their results. The stages are
+ * joined by bounded queues, so parsing and serialization overlap with
+ * command processing while no stage runs more than a queue's length ahead of
+ * the next.
+ * <p>
+ * The executor is the thread that takes the commands; it is the only thread
+ * to touch the {@link cmsc420.command.Command}, so commands are processed in
+ * order exactly as they would be on one thread. A problem reading the input
+ * is handed to the executor in place of the next command, after every
+ * command read before it.
+ * <p>
+ * Each result is handed to the serializer once its command has finished and
+ * is never touched by the executor again. A DOM document is not safe to use
+ * from two threads, even when one of them only reads it, so the executor
+ * must build each result in a document of its own rather than create new
+ * elements in the document the serializer is reading.
+ */
+class CommandPipeline implements ResultSink {
+	/** commands or results a queue holds, by default */
+	static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Reads the commands of a document and puts each one into the pipeline
+	 * with {@link CommandPipeline#put}.
+	 */
+	interface Reader {
+		void read() throws SAXException, XMLStreamException, IOException,
+				ParserConfigurationException;
+	}
+
+	/** marks the end of the commands */
+	private static final CommandInput END_OF_COMMANDS = new ElementCommandInput(
+			null);
+
+	/** commands read but not yet taken by the executor */
+	private final BlockingQueue<CommandInput> commands;
+
+	/** results produced but not yet serialized */
+	private final BlockingQueue<Element> results;
+
+	/** marks the end of the results */
+	private final Element endOfResults;
+
+	/** writes each result */
+	private final ResultSink output;
+
+	/** thread reading the commands */
+	private Thread readerThread;
+
+	/** thread writing the results */
+	private Thread serializerThread;
+
+	/** problem that stopped the reader, or null */
+	private volatile Throwable readFailure;
+
+	/** whether the executor has stopped taking commands */
+	private volatile boolean stopped = false;
+
+	/** whether the commands have all been taken */
+	private boolean commandsEnded = false;
+
+	/** whether the results have all been written */
+	private boolean finished = false;
+
+	/**
+	 * Constructs a pipeline whose results are written to the given sink.
+	 *
+	 * @param output
+	 *            sink each result is written to, on the serializer thread
+	 * @param endOfResults
+	 *            element never produced as a result, used to mark the end of
+	 *            the results
+	 * @param capacity
+	 *            commands or results each queue can hold
+	 */
+	CommandPipeline(final ResultSink output, final Element endOfResults,
+			final int capacity) {
+		this.output = output;
+		this.endOfResults = endOfResults;
+		commands = new ArrayBlockingQueue<CommandInput>(capacity);
+		results = new ArrayBlockingQueue<Element>(capacity);
+	}
+
+	/**
+	 * Starts the reader and serializer threads.
+	 *
+	 * @param reader
+	 *            reads the commands of the document
+	 */
+	void start(final Reader reader) {
+		serializerThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					Element result;
+					while ((result = results.take()) != endOfResults) {
+						output.add(result);
+					}
+				} catch (InterruptedException e) {
+					/* finished without the end of the results */
+				}
+			}
+		}, "MeeshQuest serializer");
+		readerThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					reader.read();
+				} catch (Throwable e) {
+					readFailure = e;
+				} finally {
+					offer(END_OF_COMMANDS);
+				}
+			}
+		}, "MeeshQuest reader");
+		/* the reader may still be blocked reading input nobody waits for */
+		readerThread.setDaemon(true);
+		serializerThread.start();
+		readerThread.start();
+	}
+
+	/**
+	 * Puts a command into the pipeline. Called by the reader, which blocks
+	 * while the executor is a full queue behind.
+	 *
+	 * @param command
+	 *            command read off the input
+	 * @throws InterruptedIOException
+	 *             the executor has stopped taking commands
+	 */
+	void put(final CommandInput command) throws InterruptedIOException {
+		if (!offer(command)) {
+			throw new InterruptedIOException("pipeline finished");
+		}
+	}
+
+	/**
+	 * Puts a command into the queue, waiting while it is full unless the
+	 * executor stops taking commands.
+	 *
+	 * @return whether the command was put into the queue
+	 */
+	private boolean offer(final CommandInput command) {
+		try {
+			while (!stopped) {
+				if (commands.offer(command, 100, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+		} catch (InterruptedException e) {
+			/* not expected; give up like a stopped pipeline */
+		}
+		return false;
+	}
+
+	/**
+	 * Takes the next command to be processed. Called by the executor. If the
+	 * reader failed, its problem is thrown once every command read before it
+	 * has been taken.
+	 *
+	 * @return the next command, or <code>null</code> at the end of the input
+	 * @throws SAXException
+	 *             the reader found the document invalid
+	 * @throws XMLStreamException
+	 *             the reader found the document malformed
+	 * @throws IOException
+	 *             the reader could not read the input
+	 * @throws ParserConfigurationException
+	 *             a serious configuration error
+	 */
+	CommandInput take() throws SAXException, XMLStreamException,
+			IOException, ParserConfigurationException {
+		if (commandsEnded) {
+			return null;
+		}
+		final CommandInput command;
+		try {
+			command = commands.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("interrupted taking a command");
+		}
+		if (command != END_OF_COMMANDS) {
+			return command;
+		}
+
+		commandsEnded = true;
+		final Throwable failure = readFailure;
+		if (failure == null) {
+			return null;
+		} else if (failure instanceof SAXException) {
+			throw (SAXException) failure;
+		} else if (failure instanceof XMLStreamException) {
+			throw (XMLStreamException) failure;
+		} else if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure instanceof ParserConfigurationException) {
+			throw (ParserConfigurationException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		throw new IOException(failure);
+	}
+
+	/**
+	 * Hands a result to the serializer. Called by the executor, which blocks
+	 * while the serializer is a full queue behind.
+	 *
+	 * @param result
+	 *            <code>success</code> or <code>error</code> element
+	 */
+	public void add(final Element result) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				results.put(result);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the reader and waits until every result handed to the serializer
+	 * has been written. Called by the executor once it stops taking commands,
+	 * whether or not it reached the end of the input; results may be written
+	 * straight to the sink afterwards.
+	 */
+	void finish() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		stopped = true;
+		commands.clear();
+		add(endOfResults);
+		boolean interrupted = false;
+		while (true) {
+			try {
+				serializerThread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package cmsc420.meeshquest.part3;
+
+import java.io.InputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Reads a MeeshQuest command document one command at a time. Each command
+ * element is pulled off a StAX cursor and copied into a small detached DOM
+ * element, so it can be handed to {@link cmsc420.command.Command} as soon as
+ * it has been parsed. Only the command currently being read is held in
+ * memory.
+ * <p>
+ * The first element returned is the <code>commands</code> root, followed by
+ * each of its child command elements in document order. Anything nested
+ * below a command element is skipped.
+ * <p>
+ * The input is checked for well-formedness only; it is not validated against
+ * the schema.
+ */
+public class CommandStreamReader {
+	/** StAX cursor over the input document */
+	private final XMLStreamReader reader;
+
+	/** document that owns the detached command elements */
+	private final Document scratch;
+
+	/** depth of the element the cursor is currently inside of */
+	private int depth;
+
+	/**
+	 * Constructs a reader over the given command document.
+	 *
+	 * @param input
+	 *            XML command document
+	 * @throws XMLStreamException
+	 *             the document could not be opened for reading
+	 * @throws ParserConfigurationException
+	 *             a serious configuration error
+	 */
+	public CommandStreamReader(final InputStream input)
+			throws XMLStreamException, ParserConfigurationException {
+		final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		reader = inputFactory.createXMLStreamReader(input);
+		scratch = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.newDocument();
+		depth = 0;
+	}
+
+	/**
+	 * Reads the next command element from the document.
+	 *
+	 * @return the next command element, or <code>null</code> if the end of
+	 *         the document has been reached
+	 * @throws XMLStreamException
+	 *             the document is not well-formed
+	 */
+	public Element next() throws XMLStreamException {
+		while (reader.hasNext()) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				if (depth <= 2) {
+					/* commands root or one of its commands */
+					return copyElement();
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Closes the underlying StAX cursor. Does not close the input stream.
+	 *
+	 * @throws XMLStreamException
+	 *             problem closing the cursor
+	 */
+	public void close() throws XMLStreamException {
+		reader.close();
+	}
+
+	/**
+	 * Copies the element under the cursor, along with its attributes, into a
+	 * detached DOM element.
+	 *
+	 * @return detached copy of the current element
+	 */
+	private Element copyElement() {
+		final Element element = scratch.createElement(reader.getLocalName());
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			final String prefix = reader.getAttributePrefix(i);
+			final String name = (prefix == null || prefix.isEmpty()) ? reader
+					.getAttributeLocalName(i) : prefix + ":"
+					+ reader.getAttributeLocalName(i);
+			element.setAttribute(name, reader.getAttributeValue(i));
+		}
+		return element;
+	}
+}
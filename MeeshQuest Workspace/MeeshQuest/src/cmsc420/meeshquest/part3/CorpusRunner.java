@@ -0,0 +1,354 @@
+package cmsc420.meeshquest.part3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Runs every command document in a corpus concurrently and compares each
+ * results document with its golden output. Each document gets its own
+ * MeeshQuest and Command, so documents share no state and the whole corpus
+ * takes about as long as its slowest document on enough threads.
+ * <p>
+ * An input <code>name.input.xml</code> is checked against the golden file
+ * whose name starts with <code>name.output</code>, ignoring any leading
+ * <code>part3.</code> on either. Line endings are ignored when comparing.
+ * Inputs without a golden file are still run and reported as unchecked.
+ * <p>
+ * The options <code>-stream</code>, <code>-trusted</code>,
+ * <code>-binary</code> and <code>-pipeline</code> process the inputs in that
+ * mode, as the same options of MeeshQuest do; <code>-binary</code> converts
+ * each input to the binary command format in memory first. In any of these
+ * modes each input is also processed in the default mode and the two results
+ * documents must be byte for byte the same. Only valid inputs are compared,
+ * since an invalid document has no binary form and is not checked in trusted
+ * mode; the others are reported as skipped.
+ * <p>
+ * Usage:
+ * <code>CorpusRunner [options] [input directory] [golden directory] [threads]</code>.
+ * Run from the project directory so the schema can be found. Exits with a
+ * nonzero status if any output differs from its golden file or from the
+ * default mode.
+ */
+public class CorpusRunner {
+	/** discards everything written to it */
+	private static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	/**
+	 * stack size of the threads inputs are processed on, so deeply nested
+	 * structures recurse as far as they would on a main thread run with a
+	 * large stack
+	 */
+	private static final long STACK_SIZE = 64L << 20;
+
+	/** how an input is read and processed */
+	private static class Mode {
+		/** whether commands are read one at a time off a stream */
+		boolean stream;
+
+		/** whether schema validation is skipped */
+		boolean trusted;
+
+		/** whether the input is converted to the binary command format */
+		boolean binary;
+
+		/** whether reading, processing and writing run on separate threads */
+		boolean pipelined;
+
+		/**
+		 * Returns if this is the default mode: a validated DOM document
+		 * processed on one thread.
+		 */
+		boolean isDefault() {
+			return !stream && !trusted && !binary && !pipelined;
+		}
+	}
+
+	/** outcome of running one input */
+	private static class Outcome {
+		/** input that was run */
+		final File input;
+
+		/** results document written for the input, or null if skipped */
+		final byte[] output;
+
+		/**
+		 * results document written for the input in the default mode, or
+		 * null if not compared
+		 */
+		byte[] reference;
+
+		/** time taken to process the input, in nanoseconds */
+		final long nanos;
+
+		/** problem that aborted the input, or null */
+		final Throwable aborted;
+
+		Outcome(final File input, final byte[] output, final long nanos,
+				final Throwable aborted) {
+			this.input = input;
+			this.output = output;
+			this.nanos = nanos;
+			this.aborted = aborted;
+		}
+	}
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException, ExecutionException {
+		final Mode mode = new Mode();
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if (args[i].equals("-stream")) {
+				mode.stream = true;
+			} else if (args[i].equals("-trusted")) {
+				mode.trusted = true;
+			} else if (args[i].equals("-binary")) {
+				mode.binary = true;
+			} else if (args[i].equals("-pipeline")) {
+				mode.pipelined = true;
+			} else {
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+		final File inputDirectory = new File(args.length > i ? args[i]
+				: "src/Inputs/part3");
+		final File goldenDirectory = new File(args.length > i + 1 ? args[i + 1]
+				: "src/Outputs/part3");
+		final int threads = args.length > i + 2 ? Integer.parseInt(args[i + 2])
+				: Runtime.getRuntime().availableProcessors();
+		final Mode reference = mode.isDefault() ? null : new Mode();
+
+		final List<File> inputs = new ArrayList<File>();
+		findInputs(inputDirectory, inputs);
+		Collections.sort(inputs);
+		final Map<String, File> goldens = findGoldens(goldenDirectory);
+
+		/* processing problems are reported per input instead */
+		final PrintStream err = System.err;
+		System.setErr(new PrintStream(NULL_OUTPUT));
+
+		final long start = System.nanoTime();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						return new Thread(null, runnable, "corpus", STACK_SIZE);
+					}
+				});
+		final List<Future<Outcome>> futures = new ArrayList<Future<Outcome>>();
+		for (final File input : inputs) {
+			futures.add(executor.submit(new Callable<Outcome>() {
+				public Outcome call() throws IOException {
+					final Outcome outcome = run(input, mode);
+					if (reference != null && outcome.output != null) {
+						outcome.reference = run(input, reference).output;
+					}
+					return outcome;
+				}
+			}));
+		}
+
+		int passed = 0;
+		int failed = 0;
+		int unchecked = 0;
+		int differed = 0;
+		int skipped = 0;
+		Outcome slowest = null;
+		for (Future<Outcome> future : futures) {
+			final Outcome outcome = future.get();
+			if (outcome.output == null) {
+				skipped++;
+				System.out.println("SKIP " + outcome.input.getPath()
+						+ " (not valid)");
+				continue;
+			}
+			if (outcome.reference != null
+					&& !Arrays.equals(outcome.reference, outcome.output)) {
+				differed++;
+				System.out.println("DIFFER " + outcome.input.getPath()
+						+ " (from the default mode)"
+						+ (outcome.aborted == null ? "" : " aborted by "
+								+ outcome.aborted.getClass().getName()));
+			}
+			if (slowest == null || outcome.nanos > slowest.nanos) {
+				slowest = outcome;
+			}
+			final File golden = goldens.get(key(outcome.input.getName(),
+					".input"));
+			final String status;
+			if (golden == null) {
+				unchecked++;
+				status = null;
+			} else if (normalize(Files.readAllBytes(golden.toPath())).equals(
+					normalize(outcome.output))) {
+				passed++;
+				status = "PASS";
+			} else {
+				failed++;
+				status = "FAIL";
+			}
+			if (status != null) {
+				System.out.println(status + " " + outcome.input.getPath()
+						+ " (" + golden.getName() + ")"
+						+ (outcome.aborted == null ? "" : " aborted by "
+								+ outcome.aborted.getClass().getName()));
+			}
+		}
+		executor.shutdown();
+		final long elapsed = System.nanoTime() - start;
+		System.setErr(err);
+
+		System.out.println(inputs.size() + " inputs on " + threads
+				+ " threads: " + passed + " passed, " + failed + " failed, "
+				+ unchecked + " unchecked"
+				+ (reference == null ? "" : ", " + differed
+						+ " differ from the default mode, " + skipped
+						+ " skipped"));
+		System.out.printf("%.2f s total", elapsed / 1e9);
+		if (slowest != null) {
+			System.out.printf(", slowest %.2f s (%s)", slowest.nanos / 1e9,
+					slowest.input.getPath());
+		}
+		System.out.println();
+		if (failed > 0 || differed > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Processes one input document with its own MeeshQuest and Command.
+	 *
+	 * @param input
+	 *            command document
+	 * @param mode
+	 *            how to read and process the input
+	 * @return outcome of the run, with no output if the mode is not the
+	 *         default and the input is not valid
+	 * @throws IOException
+	 *             problem reading the input
+	 */
+	private static Outcome run(final File input, final Mode mode)
+			throws IOException {
+		final byte[] document = Files.readAllBytes(input.toPath());
+		byte[] converted = document;
+		if (!mode.isDefault()) {
+			try {
+				if (mode.binary) {
+					final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+					BinaryCommandWriter.convert(new ByteArrayInputStream(
+							document), binary);
+					converted = binary.toByteArray();
+				} else {
+					ValidationService.getInstance().validateNoNamespace(
+							new ByteArrayInputStream(document));
+				}
+			} catch (SAXException e) {
+				return new Outcome(input, null, 0, e);
+			} catch (ParserConfigurationException e) {
+				return new Outcome(input, null, 0, e);
+			}
+		}
+
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final MeeshQuest meeshQuest = new MeeshQuest(mode.stream, mode.trusted);
+		meeshQuest.setBinaryInput(mode.binary);
+		meeshQuest.setPipelined(mode.pipelined);
+		meeshQuest.setExitOnUnknownCommand(false);
+		Throwable aborted = null;
+		final long start = System.nanoTime();
+		final InputStream in = new ByteArrayInputStream(converted);
+		try {
+			meeshQuest.process(in, output);
+		} catch (RuntimeException e) {
+			aborted = e;
+		} catch (StackOverflowError e) {
+			aborted = e;
+		} finally {
+			in.close();
+		}
+		return new Outcome(input, output.toByteArray(), System.nanoTime()
+				- start, aborted);
+	}
+
+	/**
+	 * Finds every input document under a directory.
+	 */
+	private static void findInputs(final File file, final List<File> inputs) {
+		if (file.isDirectory()) {
+			final File[] files = file.listFiles();
+			if (files != null) {
+				for (File child : files) {
+					findInputs(child, inputs);
+				}
+			}
+		} else if (file.getName().endsWith(".input.xml")) {
+			inputs.add(file);
+		}
+	}
+
+	/**
+	 * Finds the golden files in a directory, keyed by the name of the input
+	 * they belong to.
+	 */
+	private static Map<String, File> findGoldens(final File directory) {
+		final Map<String, File> goldens = new HashMap<String, File>();
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().contains(".output")) {
+					goldens.put(key(file.getName(), ".output"), file);
+				}
+			}
+		}
+		return goldens;
+	}
+
+	/**
+	 * Gets the name an input and its golden file share: the file name up to
+	 * the given suffix, without any leading <code>part3.</code>.
+	 */
+	private static String key(final String fileName, final String suffix) {
+		String key = fileName.substring(0, fileName.indexOf(suffix));
+		if (key.startsWith("part3.")) {
+			key = key.substring("part3.".length());
+		}
+		return key;
+	}
+
+	/**
+	 * Decodes a document and drops carriage returns, so documents written
+	 * with different line endings compare equal.
+	 */
+	private static String normalize(final byte[] document) {
+		return new String(document, StandardCharsets.UTF_8).replace("\r", "");
+	}
+}
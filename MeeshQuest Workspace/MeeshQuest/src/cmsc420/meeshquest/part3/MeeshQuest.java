@@ -1,14 +1,19 @@
 package cmsc420.meeshquest.part3;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 
 import org.w3c.dom.Document;
@@ -17,7 +22,13 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import cmsc420.command.Command;
-import cmsc420.xml.XmlUtility;
+import cmsc420.command.CommandHandler;
+import cmsc420.command.CommandInput;
+import cmsc420.command.CommandRegistry;
+import cmsc420.command.CommandStatistics;
+import cmsc420.command.ElementCommandInput;
+import cmsc420.command.InvalidAttributeException;
+import cmsc420.command.StreamingResultWriter;
 
 /**
  * The Main MeeshQuest for input and output
@@ -45,17 +56,145 @@ public class MeeshQuest {
 	private File xmlInput;
 
 	/**
-	 * output DOM Document tree 
+	 * whether to read commands one at a time off a stream instead of parsing
+	 * and validating the whole input document up front
+	 */
+	private boolean streamInput = false;
+
+	/**
+	 * whether to skip schema validation and instead check each attribute as
+	 * the commands read it
+	 */
+	private boolean trustedInput = false;
+
+	/**
+	 * whether the input is in the binary command format instead of XML
+	 */
+	private boolean binaryInput = false;
+
+	/**
+	 * whether an unknown command exits the program; otherwise it aborts the
+	 * document with an UnsupportedOperationException
+	 */
+	private boolean exitOnUnknownCommand = true;
+
+	/**
+	 * snapshot file to restore the state from before processing the input,
+	 * or null to start from nothing
+	 */
+	private File loadSnapshot;
+
+	/**
+	 * snapshot file to save the state to after processing the input, or null
+	 */
+	private File saveSnapshot;
+
+	/**
+	 * log file the state is replayed from and each change is appended to, or
+	 * null
+	 */
+	private File logFile;
+
+	/**
+	 * whether to compact the log after processing the input
+	 */
+	private boolean compactLog = false;
+
+	/**
+	 * log each change to the state is appended to, or null
+	 */
+	private CommandLog log;
+
+	/**
+	 * handler of each command this MeeshQuest knows
+	 */
+	private final CommandRegistry registry = CommandRegistry.createDefault();
+
+	/**
+	 * handlers commands are dispatched to while a document is processed:
+	 * the registry, instrumented if statistics are collected
+	 */
+	private CommandRegistry handlers;
+
+	/**
+	 * count, errors and latency of each command processed, or null if they
+	 * are not collected
+	 */
+	private CommandStatistics statistics;
+
+	/**
+	 * file the statistics are written to after processing the input, as CSV
+	 * if its name ends in .csv and as XML otherwise, or null
+	 */
+	private File statisticsFile;
+
+	/**
+	 * whether to read, process and write on separate threads
+	 */
+	private boolean pipelined = false;
+
+	/**
+	 * connects the reader, executor and serializer threads while a document
+	 * is processed pipelined, or null
+	 */
+	private CommandPipeline pipeline;
+
+	/**
+	 * DOM Document used to create result elements
 	 */
 	private Document results;
 
+	/**
+	 * writes each result to standard output as soon as it is produced
+	 */
+	private StreamingResultWriter resultWriter;
+
 	/**
 	 * processes each command
 	 */
 	private Command command;
 
+	public MeeshQuest() {
+	}
+
+	/**
+	 * Constructs a MeeshQuest that reads its input in the given mode.
+	 * 
+	 * @param streamInput
+	 *            whether to read commands one at a time off a stream
+	 * @param trustedInput
+	 *            whether to skip schema validation
+	 */
+	MeeshQuest(final boolean streamInput, final boolean trustedInput) {
+		this.streamInput = streamInput;
+		this.trustedInput = trustedInput;
+	}
+
     public static void main(String[] args) {
 		final MeeshQuest m = new MeeshQuest();
+		
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-stream")) {
+				m.streamInput = true;
+			} else if (args[i].equals("-trusted")) {
+				m.trustedInput = true;
+			} else if (args[i].equals("-binary")) {
+				m.binaryInput = true;
+			} else if (args[i].equals("-load") && i + 1 < args.length) {
+				m.loadSnapshot = new File(args[++i]);
+			} else if (args[i].equals("-save") && i + 1 < args.length) {
+				m.saveSnapshot = new File(args[++i]);
+			} else if (args[i].equals("-log") && i + 1 < args.length) {
+				m.logFile = new File(args[++i]);
+			} else if (args[i].equals("-compact")) {
+				m.compactLog = true;
+			} else if (args[i].equals("-pipeline")) {
+				m.pipelined = true;
+			} else if (args[i].equals("-stats") && i + 1 < args.length) {
+				m.statisticsFile = new File(args[++i]);
+				m.statistics = new CommandStatistics();
+			}
+		}
 	    
 		if (LOCAL_TEST) {
 			File[] files = new File(pathName).listFiles();
@@ -96,102 +235,417 @@ public class MeeshQuest {
 	}
 
 	public void processInput() {
-	    try {
-			
-			if (LOCAL_TEST) {
-				System.out.println("Open " + testName);
-				xmlInput = new File(pathName + testName + ".input.xml");
+		if (LOCAL_TEST) {
+			System.out.println("Open " + testName);
+			xmlInput = new File(pathName + testName + ".input.xml");
+			try {
+				process(new FileInputStream(xmlInput), System.out);
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
 			}
-			Document doc = LOCAL_TEST ? XmlUtility.validateNoNamespace(xmlInput) : XmlUtility.validateNoNamespace(systemInput); 
-	
+		} else {
+			final Command command = new Command();
+			try {
+				if (loadSnapshot != null) {
+					command.loadSnapshot(loadSnapshot);
+				}
+				if (logFile != null) {
+					log = CommandLog.open(logFile, command);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+
+			if (binaryInput) {
+				/* read standard input directly, so a redirected file can be mapped */
+				process(new FileInputStream(FileDescriptor.in), System.out, command);
+			} else {
+				process(systemInput, System.out, command);
+			}
+
+			try {
+				if (log != null) {
+					if (compactLog) {
+						log.compact();
+					}
+					log.close();
+				}
+				if (saveSnapshot != null) {
+					command.saveSnapshot(saveSnapshot);
+				}
+				if (statisticsFile != null) {
+					writeStatistics();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+	}
+
+	/**
+	 * Sets whether an unknown command exits the program. If not, it aborts the
+	 * document being processed with an UnsupportedOperationException instead.
+	 * 
+	 * @param exitOnUnknownCommand
+	 *            whether an unknown command exits the program
+	 */
+	void setExitOnUnknownCommand(final boolean exitOnUnknownCommand) {
+		this.exitOnUnknownCommand = exitOnUnknownCommand;
+	}
+
+	/**
+	 * Gets the registry of command handlers, so commands can be added or
+	 * replaced before the input is processed.
+	 * 
+	 * @return registry of command handlers
+	 */
+	public CommandRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Sets the statistics each processed command is recorded in.
+	 * 
+	 * @param statistics
+	 *            receives the count, errors and latency of each command, or
+	 *            null to collect none
+	 */
+	public void setStatistics(final CommandStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Writes the statistics to the statistics file, as CSV if its name ends
+	 * in .csv and as XML otherwise.
+	 */
+	private void writeStatistics() throws IOException {
+		final OutputStream output = new FileOutputStream(statisticsFile);
+		try {
+			if (statisticsFile.getName().endsWith(".csv")) {
+				statistics.writeCsv(output);
+			} else {
+				statistics.writeXml(output);
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Sets whether documents are read, processed and written on separate
+	 * threads.
+	 * 
+	 * @param pipelined
+	 *            whether to process documents pipelined
+	 */
+	void setPipelined(final boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+
+	/**
+	 * Sets whether the input is in the binary command format instead of XML.
+	 *
+	 * @param binaryInput
+	 *            whether the input is binary
+	 */
+	void setBinaryInput(final boolean binaryInput) {
+		this.binaryInput = binaryInput;
+	}
+
+	/**
+	 * Processes a command document, writing the results document to the
+	 * given output stream.
+	 * 
+	 * @param input
+	 *            XML command document
+	 * @param output
+	 *            stream the results are written to
+	 */
+	void process(final InputStream input, final OutputStream output) {
+		process(input, output, new Command());
+	}
+
+	/**
+	 * Processes a command document against the state held by the given
+	 * command processor, writing the results document to the given output
+	 * stream. If the processor has already started, the state it holds is
+	 * kept and the attributes of the document's commands node are ignored.
+	 * 
+	 * @param input
+	 *            XML command document
+	 * @param output
+	 *            stream the results are written to
+	 * @param command
+	 *            command processor holding the state to work on
+	 */
+	void process(final InputStream input, final OutputStream output,
+			final Command command) {
+	    resultWriter = null;
+	    pipeline = null;
+	    this.command = command;
+	    handlers = statistics != null ? registry.instrument(statistics) : registry;
+	    try {
 	        /* create output */
-	        results = XmlUtility.getDocumentBuilder().newDocument();
-	        command = new Command();
-	        command.setResults(results);
-	
-	        /* process commands element */
-	        Element commandNode = doc.getDocumentElement();
-	        processCommand(commandNode);
-	
-	        /* process each command */
-	        final NodeList nl = commandNode.getChildNodes();
-	        for (int i = 0; i < nl.getLength(); i++) {
-	            if (nl.item(i).getNodeType() == Document.ELEMENT_NODE) {
-	                /* need to check if Element (ignore comments) */
-	                commandNode = (Element) nl.item(i);
-	                processCommand(commandNode);
-	            }
+	        resultWriter = new StreamingResultWriter(output);
+	        results = ValidationService.getInstance().newDocument();
+	        command.setTrustedInput(trustedInput);
+
+	        if (pipelined) {
+	        	processPipelined(input);
+	        } else {
+	        	command.setResults(results, resultWriter);
+	        	readInput(input);
 	        }
 	    } catch (SAXException e) {
 	        e.printStackTrace();
-	        addFatalError();
+	        addFatalError(output);
+	    } catch (XMLStreamException e) {
+	        e.printStackTrace();
+	        addFatalError(output);
 	    } catch (ParserConfigurationException e) {
 	        e.printStackTrace();
-	        addFatalError();
+	        addFatalError(output);
 	    } catch (IOException e) {
 	        e.printStackTrace();
-	        addFatalError();
+	        addFatalError(output);
+	    } catch (InvalidAttributeException e) {
+	        e.printStackTrace();
+	        addFatalError(output);
 	    } catch (TransformerException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		} finally {
 			try {
-				XmlUtility.print(results);
-			} catch (TransformerException e) {
+				finishPipeline();
+				if (resultWriter != null) {
+					resultWriter.close();
+				}
+			} catch (XMLStreamException e) {
 				e.printStackTrace();
 				System.exit(-1);
 			}
 	    }
 	}
 
-	private void addFatalError() {
-	    try {
-	        results = XmlUtility.getDocumentBuilder().newDocument();
-	        final Element fatalError = results.createElement("fatalError");
-	        results.appendChild(fatalError);
-	    } catch (ParserConfigurationException e) {
-	        System.exit(-1);
+	/**
+	 * Reads the commands of the input in the chosen format and dispatches
+	 * each of them in order.
+	 * 
+	 * @param input
+	 *            command document
+	 */
+	private void readInput(final InputStream input) throws SAXException,
+			XMLStreamException, IOException, ParserConfigurationException,
+			TransformerException {
+		if (binaryInput) {
+			processBinary(input);
+		} else if (streamInput) {
+			processStream(input);
+		} else {
+			processDocument(input);
+		}
+	}
+
+	/**
+	 * Processes the input on three threads: a reader thread reads the
+	 * commands, this thread processes them and a serializer thread writes
+	 * their results. Commands are processed in order on this thread alone, so
+	 * the results are the same as if one thread did everything. Each command
+	 * builds its result in a document of its own, as the serializer may still
+	 * be reading the result of an earlier command.
+	 * 
+	 * @param input
+	 *            command document
+	 */
+	private void processPipelined(final InputStream input) throws SAXException,
+			XMLStreamException, IOException, ParserConfigurationException,
+			TransformerException {
+		pipeline = new CommandPipeline(resultWriter,
+				results.createElement("results"),
+				CommandPipeline.DEFAULT_CAPACITY);
+		pipeline.start(new CommandPipeline.Reader() {
+			public void read() throws SAXException, XMLStreamException,
+					IOException, ParserConfigurationException {
+				try {
+					readInput(input);
+				} catch (TransformerException e) {
+					/* only processing a command can throw this */
+					throw new IOException(e);
+				}
+			}
+		});
+
+		final ValidationService validationService = ValidationService
+				.getInstance();
+		CommandInput commandNode;
+		while ((commandNode = pipeline.take()) != null) {
+			command.setResults(validationService.newDocument(), pipeline);
+			processCommand(commandNode);
+		}
+	}
+
+	/**
+	 * Hands a command that has been read to the pipeline, or processes it
+	 * straight away if the input is not pipelined.
+	 * 
+	 * @param commandNode
+	 *            command read off the input
+	 */
+	private void dispatch(final CommandInput commandNode) throws IOException,
+			ParserConfigurationException, TransformerException {
+		if (pipeline != null) {
+			pipeline.put(commandNode);
+		} else {
+			processCommand(commandNode);
+		}
+	}
+
+	/**
+	 * Waits for the serializer to write every result of a pipelined document,
+	 * so results can be written straight to the result writer again.
+	 */
+	private void finishPipeline() {
+		if (pipeline != null) {
+			pipeline.finish();
+		}
+	}
+
+	/**
+	 * Parses the whole input document and, unless the input is trusted,
+	 * validates it against its schema. Then processes each of its commands in
+	 * order.
+	 * 
+	 * @param input
+	 *            XML command document
+	 */
+	private void processDocument(final InputStream input) throws SAXException, IOException,
+			ParserConfigurationException, TransformerException {
+		final ValidationService validationService = ValidationService.getInstance();
+		Document doc = trustedInput ? validationService.parse(input)
+				: validationService.validateNoNamespace(input);
+
+        /* process commands element */
+        Element commandNode = doc.getDocumentElement();
+        if (exitOnUnknownCommand && hasUnknownCommand(commandNode)) {
+        	/* the run exits at that command and prints nothing, as it always has */
+        	resultWriter.hold();
+        }
+        dispatch(new ElementCommandInput(commandNode));
+
+        /* process each command */
+        final NodeList nl = commandNode.getChildNodes();
+        for (int i = 0; i < nl.getLength(); i++) {
+            if (nl.item(i).getNodeType() == Document.ELEMENT_NODE) {
+                /* need to check if Element (ignore comments) */
+                commandNode = (Element) nl.item(i);
+                dispatch(new ElementCommandInput(commandNode));
+            }
+        }
+	}
+
+	/**
+	 * Returns if a command document has a command no handler processes.
+	 * 
+	 * @param commandsNode
+	 *            commands element of the document
+	 * @return <code>true</code> if a command is unknown
+	 */
+	private boolean hasUnknownCommand(final Element commandsNode) {
+		final NodeList nl = commandsNode.getChildNodes();
+		for (int i = 0; i < nl.getLength(); i++) {
+			if (nl.item(i).getNodeType() == Document.ELEMENT_NODE
+					&& handlers.getHandler(nl.item(i).getNodeName()) == null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Processes each command as soon as it has been read off the input, so
+	 * only one command is held in memory at a time. The input is checked for
+	 * well-formedness but is not validated against the schema.
+	 * 
+	 * @param input
+	 *            XML command document
+	 */
+	private void processStream(final InputStream input) throws XMLStreamException, IOException,
+			ParserConfigurationException, TransformerException {
+		final CommandStreamReader reader = new CommandStreamReader(input);
+		try {
+			Element commandNode;
+			while ((commandNode = reader.next()) != null) {
+				dispatch(new ElementCommandInput(commandNode));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Processes each command of a binary command file as it is decoded. The
+	 * binary format is not validated; convert it from schema-valid XML with
+	 * {@link BinaryCommandWriter}, or use trusted input to check attributes.
+	 * 
+	 * @param input
+	 *            binary command file
+	 */
+	private void processBinary(final InputStream input) throws IOException,
+			ParserConfigurationException, TransformerException {
+		final BinaryCommandReader reader = BinaryCommandReader.open(input);
+		CommandInput commandNode;
+		/* a pipelined command is still queued when the next one is read */
+		while ((commandNode = pipeline != null ? reader.nextCopy() : reader
+				.next()) != null) {
+			dispatch(commandNode);
+		}
+	}
+
+	/**
+	 * Reports that the input could not be processed, in place of its results.
+	 * 
+	 * @param output
+	 *            stream the results are written to
+	 */
+	private void addFatalError(final OutputStream output) {
+	    if (resultWriter == null) {
+	        /* no result writer could be made; report the error all the same */
+	        try {
+	            StreamingResultWriter.writeFatalError(output);
+	        } catch (IOException e) {
+	            e.printStackTrace();
+	        }
+	        return;
 	    }
+	    finishPipeline();
+	    resultWriter.fatalError();
 	}
 
-    private void processCommand(final Element commandNode) throws IOException, ParserConfigurationException,
+    private void processCommand(final CommandInput commandNode) throws IOException, ParserConfigurationException,
             TransformerException {
-        final String name = commandNode.getNodeName();
+        final String name = commandNode.getName();
+        final boolean logged = log != null
+                && (name.equals("commands") ? !command.hasStarted() : CommandLog
+                        .isMutating(name));
         
-        if (name.equals("commands")) {
-            command.processCommands(commandNode);
-        } else if (name.equals("createCity")) {
-            command.processCreateCity(commandNode);
-        } else if (name.equals("deleteCity")) {
-            command.processDeleteCity(commandNode);
-        }else if (name.equals("clearAll")) {
-            command.processClearAll(commandNode);
-        } else if (name.equals("listCities")) {
-            command.processListCities(commandNode);
-        } else if (name.equals("printAvlTree")) {
-            command.processPrintAvlTree(commandNode);
-        } else if (name.equals("mapRoad")) {
-            command.processMapRoad(commandNode);
-        } else if (name.equals("mapAirport")) {
-            command.processMapAirport(commandNode);
-        } else if (name.equals("mapTerminal")) {
-            command.processMapTerminal(commandNode);
-        } else if (name.equals("unmapRoad")) {
-            command.processUnmapRoad(commandNode);
-        } else if (name.equals("unmapTerminal")) {
-            command.processUnmapTerminal(commandNode);
-        } else if (name.equals("unmapAirport")) {
-            command.processUnmapAirport(commandNode);
-        } else if (name.equals("printPMQuadtree")) {
-            command.processPrintPMQuadtree(commandNode);
-        } else if (name.equals("saveMap")) {
-            command.processSaveMap(commandNode);
-        } else if (name.equals("globalRangeCities")) {
-            command.processGlobalRangeCities(commandNode);
-        } else if (name.equals("nearestCity")) {
-            command.processNearestCity(commandNode);
-        } else {
+        final CommandHandler handler = handlers.getHandler(name);
+        
+        if (handler != null) {
+            handler.process(command, commandNode);
+        } else if (exitOnUnknownCommand) {
+            if (log != null) {
+                log.commit();
+            }
+            finishPipeline();
             System.exit(-1);
+        } else {
+            throw new UnsupportedOperationException(name);
+        }
+
+        if (logged) {
+            log.append(commandNode);
         }
     }
 }
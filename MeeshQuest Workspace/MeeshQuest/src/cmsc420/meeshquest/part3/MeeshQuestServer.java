@@ -0,0 +1,342 @@
+package cmsc420.meeshquest.part3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import cmsc420.command.Command;
+import cmsc420.command.StreamingResultWriter;
+
+/**
+ * Processes many command documents in one JVM, so each document is spared
+ * JVM startup and runs on already compiled code.
+ * <p>
+ * Documents arrive in frames, either on standard input or over TCP
+ * connections to a port on the loopback interface. A frame is a header line
+ * of the form <code>session length</code>, in ASCII and ended by a newline,
+ * followed by exactly <code>length</code> bytes holding the command
+ * document. The results document is written back on the same channel in a
+ * frame of the same form, under the same session name.
+ * <p>
+ * A document longer than {@link #MAX_LENGTH} bytes is skipped without being
+ * read into memory and is answered by a <code>fatalError</code> document. So
+ * is a malformed header, after which the end of the frame is unknown and the
+ * channel is closed. A header line longer than 1024 characters closes the
+ * channel straight away.
+ * <p>
+ * Each session name has its own {@link Command} state, created by the first
+ * document sent to it. Later documents in the session work on that state and
+ * the attributes of their commands node are ignored. A frame with a length of
+ * zero ends the session, discarding its state, and is answered by an empty
+ * frame.
+ * <p>
+ * Usage: <code>MeeshQuestServer [-port port] [-stream] [-trusted]</code>.
+ * Without a port the server reads frames from standard input until it is
+ * closed. <code>-stream</code> and <code>-trusted</code> set the input mode
+ * as they do for {@link MeeshQuest}.
+ * <p>
+ * Documents for different sessions are processed concurrently when they
+ * arrive on different connections. Documents for the same session are
+ * processed one at a time.
+ */
+public class MeeshQuestServer {
+	/** longest command document a frame may hold, in bytes */
+	public static final int MAX_LENGTH = 1 << 26;
+
+	/** longest frame header line, in characters */
+	private static final int MAX_HEADER_LENGTH = 1024;
+
+	/** whether to read commands one at a time off the document */
+	private final boolean streamInput;
+
+	/** whether to skip schema validation */
+	private final boolean trustedInput;
+
+	/** command state of each open session */
+	private final ConcurrentMap<String, Command> sessions = new ConcurrentHashMap<String, Command>();
+
+	/**
+	 * Constructs a server that reads documents in the given mode.
+	 *
+	 * @param streamInput
+	 *            whether to read commands one at a time off the document
+	 * @param trustedInput
+	 *            whether to skip schema validation
+	 */
+	public MeeshQuestServer(final boolean streamInput,
+			final boolean trustedInput) {
+		this.streamInput = streamInput;
+		this.trustedInput = trustedInput;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = -1;
+		boolean streamInput = false;
+		boolean trustedInput = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port") && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-stream")) {
+				streamInput = true;
+			} else if (args[i].equals("-trusted")) {
+				trustedInput = true;
+			}
+		}
+
+		final MeeshQuestServer server = new MeeshQuestServer(streamInput,
+				trustedInput);
+		if (port < 0) {
+			server.serve(System.in, System.out);
+		} else {
+			server.listen(port);
+		}
+	}
+
+	/**
+	 * Accepts connections on the loopback interface and serves each of them
+	 * on its own thread. Never returns normally.
+	 *
+	 * @param port
+	 *            port to listen on
+	 * @throws IOException
+	 *             problem accepting connections
+	 */
+	public void listen(final int port) throws IOException {
+		final ServerSocket serverSocket = new ServerSocket(port, 50,
+				InetAddress.getLoopbackAddress());
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				final Thread connection = new Thread(new Runnable() {
+					public void run() {
+						try {
+							serve(socket.getInputStream(),
+									socket.getOutputStream());
+						} catch (IOException e) {
+							e.printStackTrace();
+						} finally {
+							try {
+								socket.close();
+							} catch (IOException e) {
+								e.printStackTrace();
+							}
+						}
+					}
+				}, "MeeshQuest connection " + socket.getPort());
+				connection.setDaemon(true);
+				connection.start();
+			}
+		} finally {
+			serverSocket.close();
+		}
+	}
+
+	/**
+	 * Reads frames off an input stream and writes each response to the
+	 * output stream, until the input stream ends.
+	 *
+	 * @param input
+	 *            stream of request frames
+	 * @param output
+	 *            stream the response frames are written to
+	 * @throws IOException
+	 *             problem reading or writing a frame, or a malformed frame
+	 */
+	public void serve(final InputStream input, final OutputStream output)
+			throws IOException {
+		final InputStream in = new BufferedInputStream(input);
+		final OutputStream out = new BufferedOutputStream(output);
+		String header;
+		while ((header = readHeader(in)) != null) {
+			final int space = header.lastIndexOf(' ');
+			final String session = space < 0 ? header : header.substring(0,
+					space);
+			long length = -1;
+			if (space > 0) {
+				try {
+					length = Long.parseLong(header.substring(space + 1));
+				} catch (NumberFormatException e) {
+					/* left negative, as the header is malformed */
+				}
+			}
+			if (length < 0) {
+				respond(out, session, fatalError());
+				throw new IOException("malformed frame header: " + header);
+			}
+			if (length > MAX_LENGTH) {
+				skipFully(in, length);
+				respond(out, session, fatalError());
+				continue;
+			}
+
+			final byte[] document = new byte[(int) length];
+			readFully(in, document);
+
+			final byte[] results;
+			if (length == 0) {
+				sessions.remove(session);
+				results = new byte[0];
+			} else {
+				results = process(session, document);
+			}
+			respond(out, session, results);
+		}
+	}
+
+	/**
+	 * Writes a response frame.
+	 *
+	 * @param out
+	 *            stream the response frames are written to
+	 * @param session
+	 *            name of the session
+	 * @param results
+	 *            results document
+	 * @throws IOException
+	 *             problem writing the frame
+	 */
+	private static void respond(final OutputStream out, final String session,
+			final byte[] results) throws IOException {
+		out.write((session + " " + results.length + "\n")
+				.getBytes(StandardCharsets.US_ASCII));
+		out.write(results);
+		out.flush();
+	}
+
+	/**
+	 * Gets the results document of a frame that cannot be processed.
+	 *
+	 * @return document holding only a <code>fatalError</code> element
+	 * @throws IOException
+	 *             problem writing the document
+	 */
+	private static byte[] fatalError() throws IOException {
+		final ByteArrayOutputStream results = new ByteArrayOutputStream();
+		StreamingResultWriter.writeFatalError(results);
+		return results.toByteArray();
+	}
+
+	/**
+	 * Processes a command document against a session's state, creating the
+	 * session if it does not exist.
+	 *
+	 * @param session
+	 *            name of the session
+	 * @param document
+	 *            XML command document
+	 * @return results document
+	 */
+	private byte[] process(final String session, final byte[] document) {
+		final ByteArrayOutputStream results = new ByteArrayOutputStream();
+		Command command = sessions.get(session);
+		if (command == null) {
+			final Command created = new Command();
+			command = sessions.putIfAbsent(session, created);
+			if (command == null) {
+				command = created;
+			}
+		}
+		synchronized (command) {
+			final MeeshQuest meeshQuest = new MeeshQuest(streamInput,
+					trustedInput);
+			meeshQuest.setExitOnUnknownCommand(false);
+			try {
+				meeshQuest.process(new ByteArrayInputStream(document), results,
+						command);
+			} catch (RuntimeException e) {
+				/* results written so far have been closed off */
+				e.printStackTrace();
+			} catch (StackOverflowError e) {
+				e.printStackTrace();
+			}
+		}
+		return results.toByteArray();
+	}
+
+	/**
+	 * Reads a frame header line.
+	 *
+	 * @param in
+	 *            stream of request frames
+	 * @return header line without its newline, or <code>null</code> if the
+	 *         stream ended before another frame
+	 * @throws IOException
+	 *             problem reading the stream
+	 */
+	private static String readHeader(final InputStream in) throws IOException {
+		final StringBuilder header = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c < 0) {
+				if (header.length() == 0) {
+					return null;
+				}
+				throw new EOFException("frame header cut off");
+			}
+			if (c != '\r') {
+				if (header.length() == MAX_HEADER_LENGTH) {
+					throw new IOException("frame header too long");
+				}
+				header.append((char) c);
+			}
+		}
+		return header.toString();
+	}
+
+	/**
+	 * Reads and discards exactly the given number of bytes, a little at a
+	 * time.
+	 *
+	 * @param in
+	 *            stream to skip bytes of
+	 * @param length
+	 *            number of bytes to skip
+	 * @throws IOException
+	 *             the stream ended before that many bytes were skipped
+	 */
+	private static void skipFully(final InputStream in, long length)
+			throws IOException {
+		final byte[] buffer = new byte[8192];
+		while (length > 0) {
+			final int read = in.read(buffer, 0, (int) Math.min(length,
+					buffer.length));
+			if (read < 0) {
+				throw new EOFException("frame cut off");
+			}
+			length -= read;
+		}
+	}
+
+	/**
+	 * Reads exactly enough bytes to fill the buffer.
+	 *
+	 * @param in
+	 *            stream to read from
+	 * @param buffer
+	 *            buffer to fill
+	 * @throws IOException
+	 *             the stream ended before the buffer was filled
+	 */
+	private static void readFully(final InputStream in, final byte[] buffer)
+			throws IOException {
+		int offset = 0;
+		while (offset < buffer.length) {
+			final int read = in.read(buffer, offset, buffer.length - offset);
+			if (read < 0) {
+				throw new EOFException("frame cut off");
+			}
+			offset += read;
+		}
+	}
+}
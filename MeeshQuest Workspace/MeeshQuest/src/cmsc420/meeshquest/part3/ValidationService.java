@@ -0,0 +1,204 @@
+package cmsc420.meeshquest.part3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Parses and validates command documents against the schema they reference.
+ * Works like <code>XmlUtility.validateNoNamespace</code>, except that each
+ * schema is compiled only once and then shared. A compiled
+ * <code>Schema</code> is thread-safe, but its <code>Validator</code>s and
+ * the <code>DocumentBuilder</code>s used for parsing are not, so each thread
+ * keeps its own and reuses them from one document to the next.
+ */
+public final class ValidationService {
+	/** service shared by the whole program */
+	private static final ValidationService instance = new ValidationService();
+
+	/** compiles schemas; not thread-safe, so guarded by its own lock */
+	private final SchemaFactory schemaFactory = SchemaFactory
+			.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+
+	/** compiled schemas keyed by the location they were loaded from */
+	private final Map<String, Schema> schemas = new ConcurrentHashMap<String, Schema>();
+
+	/** creates the document builders */
+	private final DocumentBuilderFactory documentBuilderFactory;
+
+	/** document builder belonging to each thread */
+	private final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<DocumentBuilder>();
+
+	/** validators belonging to each thread, one for each schema */
+	private final ThreadLocal<Map<Schema, Validator>> validators = new ThreadLocal<Map<Schema, Validator>>() {
+		@Override
+		protected Map<Schema, Validator> initialValue() {
+			return new HashMap<Schema, Validator>();
+		}
+	};
+
+	private ValidationService() {
+		documentBuilderFactory = DocumentBuilderFactory.newInstance();
+		documentBuilderFactory.setNamespaceAware(true);
+	}
+
+	/**
+	 * Gets the validation service shared by the whole program.
+	 *
+	 * @return validation service
+	 */
+	public static ValidationService getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Parses an input stream into a DOM Document without validating it.
+	 *
+	 * @param xmlStream
+	 *            XML input stream
+	 * @return representation of XML document tree
+	 * @throws SAXException
+	 *             the document is not well-formed
+	 * @throws IOException
+	 *             problem reading the XML input stream
+	 * @throws ParserConfigurationException
+	 *             a serious configuration error
+	 */
+	public Document parse(final InputStream xmlStream) throws SAXException,
+			IOException, ParserConfigurationException {
+		final DocumentBuilder documentBuilder = getDocumentBuilder();
+		documentBuilder.reset();
+		return documentBuilder.parse(xmlStream);
+	}
+
+	/**
+	 * Creates an empty DOM Document, such as one to build results in.
+	 *
+	 * @return new DOM Document
+	 * @throws ParserConfigurationException
+	 *             a serious configuration error
+	 */
+	public Document newDocument() throws ParserConfigurationException {
+		return getDocumentBuilder().newDocument();
+	}
+
+	/**
+	 * Gets the document builder belonging to this thread, creating it if
+	 * needed.
+	 *
+	 * @return this thread's document builder
+	 * @throws ParserConfigurationException
+	 *             a serious configuration error
+	 */
+	private DocumentBuilder getDocumentBuilder()
+			throws ParserConfigurationException {
+		DocumentBuilder documentBuilder = documentBuilders.get();
+		if (documentBuilder == null) {
+			documentBuilder = documentBuilderFactory.newDocumentBuilder();
+			documentBuilders.set(documentBuilder);
+		}
+		return documentBuilder;
+	}
+
+	/**
+	 * Parses an input stream into a DOM Document and validates it against
+	 * the schema named by its <code>xsi:noNamespaceSchemaLocation</code>
+	 * attribute. The schema is compiled the first time it is used.
+	 *
+	 * @param xmlStream
+	 *            XML input stream containing schema reference
+	 * @return representation of XML document tree
+	 * @throws SAXException
+	 *             encapsulates problem validating the XML document
+	 * @throws IOException
+	 *             problem reading the XML input stream
+	 * @throws ParserConfigurationException
+	 *             a serious configuration error
+	 */
+	public Document validateNoNamespace(final InputStream xmlStream)
+			throws SAXException, IOException, ParserConfigurationException {
+		final Document document = parse(xmlStream);
+		final Schema schema = getSchema(document.getDocumentElement()
+				.getAttribute("xsi:noNamespaceSchemaLocation"));
+
+		final Map<Schema, Validator> threadValidators = validators.get();
+		Validator validator = threadValidators.get(schema);
+		if (validator == null) {
+			validator = schema.newValidator();
+			threadValidators.put(schema, validator);
+		}
+
+		/* validate the DOM tree. throws an exception if there is a problem */
+		try {
+			validator.validate(new DOMSource(document));
+		} finally {
+			validator.reset();
+		}
+		return document;
+	}
+
+	/**
+	 * Gets the compiled schema at the given location, compiling it if it has
+	 * not been used before. Online schemas should be accessed using HTTP (not
+	 * HTTPS).
+	 *
+	 * @param schemaFileName
+	 *            file name or HTTP URL of the schema
+	 * @return compiled schema
+	 * @throws SAXException
+	 *             problem compiling the schema
+	 * @throws IOException
+	 *             problem reading the schema
+	 */
+	public Schema getSchema(final String schemaFileName) throws SAXException,
+			IOException {
+		Schema schema = schemas.get(schemaFileName);
+		if (schema == null) {
+			synchronized (schemaFactory) {
+				schema = schemas.get(schemaFileName);
+				if (schema == null) {
+					schema = schemaFactory.newSchema(getSource(schemaFileName));
+					schemas.put(schemaFileName, schema);
+				}
+			}
+		}
+		return schema;
+	}
+
+	/**
+	 * Opens the schema at the given location.
+	 *
+	 * @param schemaFileName
+	 *            file name or HTTP URL of the schema
+	 * @return source to compile the schema from
+	 * @throws IOException
+	 *             problem opening the schema
+	 */
+	private static Source getSource(final String schemaFileName)
+			throws IOException {
+		if (schemaFileName.startsWith("http://")) {
+			/* download the schema from HTTP server */
+			return new StreamSource(new URL(schemaFileName).openStream(),
+					schemaFileName);
+		}
+		return new StreamSource(new File(schemaFileName));
+	}
+}
@@ -1,7 +1,5 @@
 package cmsc420.mxquadtree;
 
-import java.awt.geom.Point2D;
-
 import cmsc420.geometry.City;
 
 /**
@@ -19,12 +17,13 @@ public class EmptyNode extends Node {
 		super(Node.EMPTY);
 	}
 
-	public Node add(City city, Point2D.Float origin, int width, int height) {
+	public Node add(City city, int originX, int originY, int width,
+			int height) {
 		Node leafNode = new LeafNode();
-		return leafNode.add(city, origin, width, height);
+		return leafNode.add(city, originX, originY, width, height);
 	}
 
-	public Node remove(City city, Point2D.Float origin, int width,
+	public Node remove(City city, int originX, int originY, int width,
 			int height) {
 		/* should never get here, nothing to remove */
 		throw new IllegalArgumentException();
@@ -4,6 +4,7 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 
 import cmsc420.geometry.City;
+import cmsc420.geometry.IntegerGeometry;
 
 
 /**
@@ -13,14 +14,11 @@ public class InternalNode extends Node {
 	/** children nodes of this node */
 	public Node[] children;
 
-	/** rectangular quadrants of the children nodes */
-	protected Rectangle2D.Float[] regions;
+	/** x coordinate of the origin of the rectangular bounds of this node */
+	public int originX;
 
-	/** origin of the rectangular bounds of this node */
-	public Point2D.Float origin;
-
-	/** origins of the rectangular bounds of each child node */
-	protected Point2D.Float[] origins;
+	/** y coordinate of the origin of the rectangular bounds of this node */
+	public int originY;
 
 	/** width of the rectangular bounds of this node */
 	public int width;
@@ -28,26 +26,25 @@ public class InternalNode extends Node {
 	/** height of the rectangular bounds of this node */
 	public int height;
 
-	/** half of the width of the rectangular bounds of this node */
-	protected int halfWidth;
-
-	/** half of the height of the rectangular bounds of this node */
-	protected int halfHeight;
-
 	/**
 	 * Constructs and initializes this internal MX Quadtree node.
 	 * 
-	 * @param origin
-	 *            origin of the rectangular bounds of this node
+	 * @param originX
+	 *            x coordinate of the origin of the rectangular bounds of this
+	 *            node
+	 * @param originY
+	 *            y coordinate of the origin of the rectangular bounds of this
+	 *            node
 	 * @param width
 	 *            width of the rectangular bounds of this node
 	 * @param height
 	 *            height of the rectangular bounds of this node
 	 */
-	public InternalNode(Point2D.Float origin, int width, int height) {
+	public InternalNode(int originX, int originY, int width, int height) {
 		super(Node.INTERNAL);
 
-		this.origin = origin;
+		this.originX = originX;
+		this.originY = originY;
 
 		children = new Node[4];
 		for (int i = 0; i < 4; i++) {
@@ -56,46 +53,36 @@ public class InternalNode extends Node {
 
 		this.width = width;
 		this.height = height;
-
-		halfWidth = width >> 1;
-		halfHeight = height >> 1;
-
-		origins = new Point2D.Float[4];
-		origins[0] = new Point2D.Float(origin.x, origin.y + halfHeight);
-		origins[1] = new Point2D.Float(origin.x + halfWidth, origin.y
-				+ halfHeight);
-		origins[2] = new Point2D.Float(origin.x, origin.y);
-		origins[3] = new Point2D.Float(origin.x + halfWidth, origin.y);
-
-		regions = new Rectangle2D.Float[4];
-		int i = 0;
-		while (i < 4) {
-			regions[i] = new Rectangle2D.Float(origins[i].x, origins[i].y,
-					halfWidth, halfHeight);
-			i++;
-		}
-
 	}
 
-	public Node add(City city, Point2D.Float origin, int width, int height) {
-		final Point2D cityLocation = city.toPoint2D();
+	public Node add(City city, int originX, int originY, int width,
+			int height) {
+		final int x = city.getLocalX();
+		final int y = city.getLocalY();
+		final int halfWidth = getHalfWidth();
+		final int halfHeight = getHalfHeight();
 		for (int i = 0; i < 4; i++) {
-			if (intersects(cityLocation, regions[i])) {
-				children[i] = children[i].add(city, origins[i], halfWidth,
-						halfHeight);
+			if (IntegerGeometry.pointInHalfOpenBox(x, y, getChildX(i),
+					getChildY(i), halfWidth, halfHeight)) {
+				children[i] = children[i].add(city, getChildX(i),
+						getChildY(i), halfWidth, halfHeight);
 				break;
 			}
 		}
 		return this;
 	}
 
-	public Node remove(City city, Point2D.Float origin, int width,
+	public Node remove(City city, int originX, int originY, int width,
 			int height) {
-		final Point2D cityLocation = city.toPoint2D();
+		final int x = city.getLocalX();
+		final int y = city.getLocalY();
+		final int halfWidth = getHalfWidth();
+		final int halfHeight = getHalfHeight();
 		for (int i = 0; i < 4; i++) {
-			if (intersects(cityLocation, regions[i])) {
-				children[i] = children[i].remove(city, origins[i],
-						halfWidth, halfHeight);
+			if (IntegerGeometry.pointInHalfOpenBox(x, y, getChildX(i),
+					getChildY(i), halfWidth, halfHeight)) {
+				children[i] = children[i].remove(city, getChildX(i),
+						getChildY(i), halfWidth, halfHeight);
 			}
 		}
 		return this;
@@ -178,17 +165,42 @@ public class InternalNode extends Node {
 		if (quadrant < 0 || quadrant > 3) {
 			throw new IllegalArgumentException();
 		} else {
-			return regions[quadrant];
+			return new Rectangle2D.Float(getChildX(quadrant),
+					getChildY(quadrant), getHalfWidth(), getHalfHeight());
 		}
 	}
 
+	/**
+	 * Gets the x coordinate of the origin of a child node's rectangular
+	 * bounds.
+	 * 
+	 * @param quadrant
+	 *            quadrant that child lies within
+	 * @return x coordinate of the child's origin
+	 */
+	public int getChildX(int quadrant) {
+		return (quadrant & 1) == 0 ? originX : originX + getHalfWidth();
+	}
+
+	/**
+	 * Gets the y coordinate of the origin of a child node's rectangular
+	 * bounds.
+	 * 
+	 * @param quadrant
+	 *            quadrant that child lies within
+	 * @return y coordinate of the child's origin
+	 */
+	public int getChildY(int quadrant) {
+		return quadrant < 2 ? originY + getHalfHeight() : originY;
+	}
+
 	/**
 	 * Gets the rectangular region contained by this internal node.
 	 * 
 	 * @return rectangular region contained by this internal node
 	 */
 	public Rectangle2D.Float getRegion() {
-		return new Rectangle2D.Float(origin.x, origin.y, width, height);
+		return new Rectangle2D.Float(originX, originY, width, height);
 	}
 
 	/**
@@ -197,7 +209,7 @@ public class InternalNode extends Node {
 	 * @return center X coordinate of this node's rectangular bounds
 	 */
 	public int getCenterX() {
-		return (int) origin.x + halfWidth;
+		return originX + getHalfWidth();
 	}
 
 	/**
@@ -206,7 +218,7 @@ public class InternalNode extends Node {
 	 * @return center Y coordinate of this node's rectangular bounds
 	 */
 	public int getCenterY() {
-		return (int) origin.y + halfHeight;
+		return originY + getHalfHeight();
 	}
 
 	/**
@@ -214,7 +226,7 @@ public class InternalNode extends Node {
 	 * @return half the width of this internal node
 	 */
 	public int getHalfWidth() {
-		return halfWidth;
+		return width >> 1;
 	}
 
 	/** 
@@ -222,6 +234,6 @@ public class InternalNode extends Node {
 	 * @return half the height of this internal node
 	 */
 	public int getHalfHeight() {
-		return halfHeight;
+		return height >> 1;
 	}
 }
@@ -1,7 +1,5 @@
 package cmsc420.mxquadtree;
 
-import java.awt.geom.Point2D;
-
 import cmsc420.geometry.City;
 
 /**
@@ -27,7 +25,7 @@ public class LeafNode extends Node {
 		return city;
 	}
 
-	public Node add(City newCity, Point2D.Float origin, int width,
+	public Node add(City newCity, int originX, int originY, int width,
 			int height) {
 		if (city == null && (width == 1 || height == 1)) {
 			/* node is empty, add city */
@@ -35,16 +33,16 @@ public class LeafNode extends Node {
 			return this;
 		} else {
 			/* have not reached minimum partition, partition node and then add city */
-			InternalNode internalNode = new InternalNode(origin, width,
+			InternalNode internalNode = new InternalNode(originX, originY, width,
 					height);
 			if (city != null)
-				internalNode.add(city, origin, width, height);
-			internalNode.add(newCity, origin, width, height);
+				internalNode.add(city, originX, originY, width, height);
+			internalNode.add(newCity, originX, originY, width, height);
 			return internalNode;
 		}
 	}
 
-	public Node remove(City city, Point2D.Float origin, int width,
+	public Node remove(City city, int originX, int originY, int width,
 			int height) {
 		if (this.city != city) {
 			/* city not here */
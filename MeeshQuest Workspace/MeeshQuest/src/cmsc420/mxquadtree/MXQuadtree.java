@@ -3,10 +3,13 @@ package cmsc420.mxquadtree ;
 
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
 import java.util.HashSet;
 
 import cmsc420.geom.Circle2D;
 import cmsc420.geometry.City;
+import cmsc420.snapshot.SnapshotReader;
+import cmsc420.snapshot.SnapshotWriter;
 
 
 /**
@@ -106,7 +109,7 @@ public class MXQuadtree {
 
 		/* insert city into PRQuadTree */
 		cityNames.add(city.getName());
-		root = root.add(city, spatialOrigin, spatialWidth, spatialHeight);
+		root = root.add(city, 0, 0, spatialWidth, spatialHeight);
 	}
 
 	/**
@@ -122,7 +125,7 @@ public class MXQuadtree {
 		if (success) {
 			cityNames.remove(city.getName());
 			root = root
-					.remove(city, spatialOrigin, spatialWidth, spatialHeight);
+					.remove(city, 0, 0, spatialWidth, spatialHeight);
 		}
 		return success;
 	}
@@ -145,6 +148,80 @@ public class MXQuadtree {
 	}
 
 
+	/**
+	 * Writes the names of the mapped cities and the shape of this PR Quadtree
+	 * to a snapshot. The spatial range is not written.
+	 * 
+	 * @param out
+	 *            snapshot being written
+	 * @throws IOException
+	 *             problem writing the snapshot
+	 */
+	public void writeSnapshot(final SnapshotWriter out) throws IOException {
+		out.writeInt(cityNames.size());
+		for (String name : cityNames) {
+			out.writeObject(name);
+		}
+		writeNode(out, root);
+	}
+
+	private void writeNode(final SnapshotWriter out, final Node node)
+			throws IOException {
+		out.writeInt(node.getType());
+		if (node.getType() == Node.LEAF) {
+			out.writeObject(((LeafNode) node).city);
+		} else if (node.getType() == Node.INTERNAL) {
+			final InternalNode internalNode = (InternalNode) node;
+			out.writeFloat(internalNode.originX);
+			out.writeFloat(internalNode.originY);
+			out.writeInt(internalNode.width);
+			out.writeInt(internalNode.height);
+			for (Node child : internalNode.children) {
+				writeNode(out, child);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the contents of this PR Quadtree with those read from a
+	 * snapshot. The spatial range must already be set.
+	 * 
+	 * @param in
+	 *            snapshot being read
+	 * @throws IOException
+	 *             the snapshot is malformed
+	 */
+	public void readSnapshot(final SnapshotReader in) throws IOException {
+		clear();
+		final int numCityNames = in.readInt();
+		for (int i = 0; i < numCityNames; i++) {
+			cityNames.add(in.readString());
+		}
+		root = readNode(in);
+	}
+
+	private Node readNode(final SnapshotReader in) throws IOException {
+		final int type = in.readInt();
+		if (type == Node.EMPTY) {
+			return EmptyNode.instance;
+		} else if (type == Node.LEAF) {
+			final LeafNode leafNode = new LeafNode();
+			leafNode.city = in.readCity();
+			return leafNode;
+		} else if (type == Node.INTERNAL) {
+			final int originX = (int) in.readFloat();
+			final int originY = (int) in.readFloat();
+			final InternalNode internalNode = new InternalNode(originX,
+					originY, in.readInt(), in.readInt());
+			for (int i = 0; i < 4; i++) {
+				internalNode.children[i] = readNode(in);
+			}
+			return internalNode;
+		} else {
+			throw new IOException("bad PR Quadtree node type " + type);
+		}
+	}
+
 	/**
 	 * Returns if any part of a circle lies within a given rectangular bounds
 	 * according to the rules of the PR Quadtree.
@@ -1,7 +1,5 @@
 package cmsc420.mxquadtree;
 
-import java.awt.geom.Point2D;
-
 import cmsc420.geometry.City;
 
 /**
@@ -39,16 +37,20 @@ public abstract class Node {
 	 * 
 	 * @param city
 	 *            city to be added to the PR Quadtree
-	 * @param origin
-	 *            origin of the rectangular bounds of this node
+	 * @param originX
+	 *            x coordinate of the origin of the rectangular bounds of this
+	 *            node
+	 * @param originY
+	 *            y coordinate of the origin of the rectangular bounds of this
+	 *            node
 	 * @param width
 	 *            width of the rectangular bounds of this node
 	 * @param height
 	 *            height of the rectangular bounds of this node
 	 * @return this node after the city has been added
 	 */
-	public abstract Node add(City city, Point2D.Float origin, int width,
-			int height);
+	public abstract Node add(City city, int originX, int originY,
+			int width, int height);
 
 	/**
 	 * Removes a city from the node. If this is a leaf node and the city is
@@ -58,16 +60,20 @@ public abstract class Node {
 	 * 
 	 * @param city
 	 *            city to be removed
-	 * @param origin
-	 *            origin of the rectangular bounds of this node
+	 * @param originX
+	 *            x coordinate of the origin of the rectangular bounds of this
+	 *            node
+	 * @param originY
+	 *            y coordinate of the origin of the rectangular bounds of this
+	 *            node
 	 * @param width
 	 *            width of the rectangular bounds of this node
 	 * @param height
 	 *            height of the rectangular bounds of this node
 	 * @return this node after the city has been removed
 	 */
-	public abstract Node remove(City city, Point2D.Float origin, int width,
-			int height);
+	public abstract Node remove(City city, int originX, int originY,
+			int width, int height);
 
 	/**
 	 * Gets the type of the node (either empty, leaf, or internal).
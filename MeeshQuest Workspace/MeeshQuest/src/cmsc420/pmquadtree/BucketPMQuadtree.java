@@ -0,0 +1,43 @@
+package cmsc420.pmquadtree;
+
+import cmsc420.command.World;
+
+/**
+ * A bucket PM Quadtree follows the rules of a PM Quadtree of order 3, but a
+ * leaf holds up to a bucket of vertices rather than one:
+ * <p>
+ * 1. At most, bucket size vertices can lie in a region represented by a
+ * quadtree leaf node.
+ * <p>
+ * 2. Each region's quadtree leaf node is maximal.
+ * <p>
+ * Larger buckets keep dense metropoles from being partitioned as deeply, at
+ * the cost of scanning more geometry in each leaf. A bucket size of one
+ * gives the same tree as a PM Quadtree of order 3.
+ */
+public class BucketPMQuadtree extends PMQuadtree {
+	/** most vertices in a leaf */
+	private final int bucketSize;
+
+	/**
+	 * Constructs and initializes this bucket PM Quadtree.
+	 * 
+	 * @param world
+	 *            world whose local spatial map this PM Quadtree covers
+	 * @param bucketSize
+	 *            most vertices a leaf may hold
+	 */
+	public BucketPMQuadtree(final World world, final int bucketSize) {
+		super(new BucketValidator(bucketSize), world, 3);
+		this.bucketSize = bucketSize;
+	}
+
+	/**
+	 * Gets the most vertices a leaf of this PM Quadtree may hold.
+	 * 
+	 * @return bucket size
+	 */
+	public int getBucketSize() {
+		return bucketSize;
+	}
+}
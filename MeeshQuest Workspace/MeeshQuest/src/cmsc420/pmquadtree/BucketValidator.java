@@ -0,0 +1,44 @@
+package cmsc420.pmquadtree;
+
+import cmsc420.geometry.Geometry;
+import cmsc420.pmquadtree.PMQuadtree.Black;
+import cmsc420.pmquadtree.PMQuadtree.Node;
+
+public class BucketValidator implements Validator {
+
+	/** most points a black node may hold */
+	private final int bucketSize;
+
+	/**
+	 * Constructs a validator letting black nodes hold some number of points.
+	 * 
+	 * @param bucketSize
+	 *            most points a black node may hold
+	 */
+	public BucketValidator(final int bucketSize) {
+		if (bucketSize < 1) {
+			throw new IllegalArgumentException("bucketSize must be positive");
+		}
+		this.bucketSize = bucketSize;
+	}
+
+	public boolean valid(final Black node) {
+		return (node.getNumPoints() <= bucketSize);
+	}
+
+	public void added(final Black node, final Geometry g) {
+		/* the point count kept by the geometry list is all the rule needs */
+	}
+
+	public void removed(final Black node, final Geometry g) {
+	}
+
+	public int getMaxPoints() {
+		return bucketSize;
+	}
+
+	public boolean mayMerge(final Node[] children, final Geometry point) {
+		/* any number of roads may share a leaf with its points */
+		return true;
+	}
+}
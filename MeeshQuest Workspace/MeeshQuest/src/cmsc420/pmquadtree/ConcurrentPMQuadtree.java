@@ -0,0 +1,219 @@
+package cmsc420.pmquadtree;
+
+import cmsc420.geometry.Airport;
+import cmsc420.geometry.City;
+import cmsc420.geometry.Road;
+import cmsc420.geometry.Terminal;
+import cmsc420.pmquadtree.PMQuadtree.Node;
+
+/**
+ * Thread-safe wrapper of a PM Quadtree, letting any number of threads read it
+ * while one thread at a time changes it. The wrapped tree is made persistent,
+ * so a change copies the nodes it changes instead of changing them. When a
+ * change completes, its new root is published along with the tree's counts
+ * as a {@link Version}, by a single volatile write.
+ * <p>
+ * Readers take the latest version and traverse it without locking. A
+ * version never changes, so a reader sees the tree as it was after some
+ * complete change, however long the traversal takes. Changes are
+ * serialized on this wrapper; the wrapped tree must not be changed except
+ * through it.
+ */
+public class ConcurrentPMQuadtree {
+	/**
+	 * The tree as it was after some change: its root and counts. The nodes
+	 * below the root are never changed.
+	 */
+	public static final class Version {
+		/** root of the tree */
+		private final Node root;
+
+		/** whether the tree was empty */
+		private final boolean empty;
+
+		/** number of cities, airports and terminals with roads counted */
+		private final int numCities;
+
+		/** number of isolated cities */
+		private final int numIsolatedCities;
+
+		/** number of roads */
+		private final int numRoads;
+
+		private Version(final PMQuadtree pmQuadtree) {
+			root = pmQuadtree.snapshot();
+			empty = pmQuadtree.isEmpty();
+			numCities = pmQuadtree.getNumCities();
+			numIsolatedCities = pmQuadtree.getNumIsolatedCities();
+			numRoads = pmQuadtree.getNumRoads();
+		}
+
+		public Node getRoot() {
+			return root;
+		}
+
+		public boolean isEmpty() {
+			return empty;
+		}
+
+		public int getNumCities() {
+			return numCities;
+		}
+
+		public int getNumIsolatedCities() {
+			return numIsolatedCities;
+		}
+
+		public int getNumRoads() {
+			return numRoads;
+		}
+	}
+
+	/** tree being wrapped */
+	private final PMQuadtree pmQuadtree;
+
+	/** latest version of the tree */
+	private volatile Version version;
+
+	/**
+	 * Wraps a PM Quadtree, making it persistent.
+	 *
+	 * @param pmQuadtree
+	 *            tree to be wrapped
+	 */
+	public ConcurrentPMQuadtree(final PMQuadtree pmQuadtree) {
+		this.pmQuadtree = pmQuadtree;
+		synchronized (this) {
+			pmQuadtree.setPersistent(true);
+			publish();
+		}
+	}
+
+	/**
+	 * Gets the latest version of the tree. It can be read without locking
+	 * while the tree changes.
+	 *
+	 * @return latest version of the tree
+	 */
+	public Version getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the root of the latest version of the tree.
+	 *
+	 * @return root of the latest version
+	 */
+	public Node getRoot() {
+		return version.getRoot();
+	}
+
+	public synchronized void addRoad(final Road road)
+			throws RoadAlreadyExistsThrowable, OutOfBoundsThrowable,
+			PMRuleViolationThrowable, RoadIntersectingThrowable {
+		try {
+			pmQuadtree.addRoad(road);
+		} finally {
+			publish();
+		}
+	}
+
+	public synchronized void addAirport(final Airport airport,
+			final Terminal terminal, final boolean duplicateName,
+			final boolean duplicateCoordinate, final City terminalConnectingCity)
+			throws OutOfBoundsThrowable, PMRuleViolationThrowable,
+			DuplicateNameThrowable, DuplicateCoordinateThrowable,
+			AddOutOfBoundsThrowable, CityDoesNotExistThrowable,
+			NotSameMetropoleThrowable {
+		try {
+			pmQuadtree.addAirport(airport, terminal, duplicateName,
+					duplicateCoordinate, terminalConnectingCity);
+		} finally {
+			publish();
+		}
+	}
+
+	public synchronized void addTerminal(final Terminal terminal,
+			final City terminalConnectingCity)
+			throws PMRuleViolationThrowable, CityNotMappedThrowable,
+			RoadIntersectingThrowable {
+		try {
+			pmQuadtree.addTerminal(terminal, terminalConnectingCity);
+		} finally {
+			publish();
+		}
+	}
+
+	public synchronized void addTerminal(final Terminal terminal,
+			final Airport airport, final City terminalConnectingCity)
+			throws OutOfBoundsThrowable, PMRuleViolationThrowable,
+			AirportDoesNotExistThrowable, CityDoesNotExistThrowable,
+			AirportNotSameMetropoleThrowable, NotSameMetropoleThrowable,
+			CityNotMappedThrowable, RoadIntersectingThrowable {
+		try {
+			pmQuadtree.addTerminal(terminal, airport, terminalConnectingCity);
+		} finally {
+			publish();
+		}
+	}
+
+	public synchronized void addIsolatedCity(final City city)
+			throws IsolatedCityAlreadyExistsThrowable,
+			RoadAlreadyExistsThrowable, OutOfBoundsThrowable,
+			PMRuleViolationThrowable {
+		try {
+			pmQuadtree.addIsolatedCity(city);
+		} finally {
+			publish();
+		}
+	}
+
+	public synchronized void deleteGeometry(final Road road)
+			throws StartDoesNotExistThrowable, EndDoesNotExistThrowable {
+		try {
+			pmQuadtree.deleteGeometry(road);
+		} finally {
+			publish();
+		}
+	}
+
+	public synchronized void deleteGeometry(final Airport airport) {
+		try {
+			pmQuadtree.deleteGeometry(airport);
+		} finally {
+			publish();
+		}
+	}
+
+	public synchronized void deleteGeometry(final Terminal terminal,
+			final boolean roadOnly) {
+		try {
+			pmQuadtree.deleteGeometry(terminal, roadOnly);
+		} finally {
+			publish();
+		}
+	}
+
+	public synchronized void deleteGeometry(final City city) {
+		try {
+			pmQuadtree.deleteGeometry(city);
+		} finally {
+			publish();
+		}
+	}
+
+	public synchronized void clear() {
+		try {
+			pmQuadtree.clear();
+		} finally {
+			publish();
+		}
+	}
+
+	/**
+	 * Publishes the tree as it is now as the latest version.
+	 */
+	private void publish() {
+		version = new Version(pmQuadtree);
+	}
+}
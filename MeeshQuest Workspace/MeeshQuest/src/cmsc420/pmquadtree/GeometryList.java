@@ -0,0 +1,188 @@
+package cmsc420.pmquadtree;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import cmsc420.geometry.Geometry;
+
+/**
+ * Sorted geometry of a PM Quadtree black node, kept in an array. Cities,
+ * airports and terminals sort before roads, so the array holds a section of
+ * points followed by a section of segments, told apart by the number of
+ * points. Searching, inserting and deleting is a binary search and a shift
+ * of the array; nothing is allocated unless the array has to grow.
+ * <p>
+ * Points are searched for over the whole array, probing the same elements a
+ * binary search of a list would, since cities and airports do not compare
+ * consistently with each other. Roads are searched for in the segment section
+ * only, where the order is consistent.
+ * <p>
+ * The list itself is read-only; it is changed through {@link #insert} and
+ * {@link #delete}.
+ */
+public class GeometryList extends AbstractList<Geometry> implements
+		RandomAccess {
+	/** capacity of a new list */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** sorted geometry, points first */
+	private Geometry[] elements = new Geometry[INITIAL_CAPACITY];
+
+	/** number of elements */
+	private int size = 0;
+
+	/** number of cities, airports and terminals, at the start of the array */
+	private int numPoints = 0;
+
+	/**
+	 * Constructs an empty list.
+	 */
+	public GeometryList() {
+	}
+
+	/**
+	 * Constructs a list holding the same geometry as another, in an array of
+	 * its own.
+	 *
+	 * @param list
+	 *            list to be copied
+	 */
+	public GeometryList(final GeometryList list) {
+		elements = Arrays.copyOf(list.elements, Math.max(INITIAL_CAPACITY,
+				list.size));
+		size = list.size;
+		numPoints = list.numPoints;
+	}
+
+	public Geometry get(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size);
+		}
+		return elements[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of cities, airports and terminals in the list. They are
+	 * the elements before this index.
+	 *
+	 * @return number of points
+	 */
+	public int getNumPoints() {
+		return numPoints;
+	}
+
+	/**
+	 * Gets the number of roads in the list. They are the elements from the
+	 * number of points on.
+	 *
+	 * @return number of segments
+	 */
+	public int getNumSegments() {
+		return size - numPoints;
+	}
+
+	/**
+	 * Gets the index of geometry in this list.
+	 *
+	 * @param g
+	 *            geometry to be searched for
+	 * @return index of the geometry, if it is contained in the list;
+	 *         otherwise, (-(insertion point) - 1)
+	 */
+	public int search(final Geometry g) {
+		int low = isPoint(g) ? 0 : numPoints;
+		int high = size - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = elements[mid].compareTo(g);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Inserts geometry in order, unless the list already contains it.
+	 *
+	 * @param g
+	 *            geometry to be inserted
+	 * @return <code>true</code> if the geometry was inserted
+	 */
+	public boolean insert(final Geometry g) {
+		final int index = search(g);
+		if (index >= 0) {
+			return false;
+		}
+		final int insertion = -index - 1;
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size << 1);
+		}
+		System.arraycopy(elements, insertion, elements, insertion + 1, size
+				- insertion);
+		elements[insertion] = g;
+		size++;
+		if (isPoint(g)) {
+			numPoints++;
+		}
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Deletes geometry from the list.
+	 *
+	 * @param g
+	 *            geometry to be deleted
+	 * @return <code>true</code> if the list contained the geometry
+	 */
+	public boolean delete(final Geometry g) {
+		final int index = search(g);
+		if (index < 0) {
+			return false;
+		}
+		System.arraycopy(elements, index + 1, elements, index, size - index
+				- 1);
+		elements[--size] = null;
+		if (isPoint(g)) {
+			numPoints--;
+		}
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Adds geometry to the end of the list without searching, for geometry
+	 * already known to be in order, such as a black node being read back.
+	 *
+	 * @param g
+	 *            geometry to be appended
+	 */
+	void append(final Geometry g) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size << 1);
+		}
+		elements[size++] = g;
+		if (isPoint(g)) {
+			numPoints++;
+		}
+		modCount++;
+	}
+
+	/**
+	 * Returns if geometry belongs in the point section.
+	 */
+	private static boolean isPoint(final Geometry g) {
+		return g.isCity() || g.isAirport() || g.isTerminal();
+	}
+}
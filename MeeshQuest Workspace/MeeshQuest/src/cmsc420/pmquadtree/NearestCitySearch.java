@@ -0,0 +1,262 @@
+package cmsc420.pmquadtree;
+
+import java.util.Arrays;
+
+import cmsc420.geometry.City;
+import cmsc420.geometry.Geometry;
+import cmsc420.pmquadtree.PMQuadtree.Black;
+import cmsc420.pmquadtree.PMQuadtree.Gray;
+import cmsc420.pmquadtree.PMQuadtree.Node;
+
+/**
+ * Finds the cities of a PM Quadtree nearest to a point, best first. Regions
+ * waiting to be visited are kept in a min-heap and the nearest cities found
+ * so far in a max-heap bounded by the number wanted, both held in arrays
+ * that are kept from one search to the next. Distances are compared
+ * squared. The arrays grow as needed, to no more cities than are found, and
+ * once they have grown large enough a search allocates nothing.
+ * <p>
+ * Cities at the same distance are ordered as the PM Quadtree orders them. A
+ * search is reused by one thread at a time.
+ */
+public class NearestCitySearch {
+	/** squared distance to each region waiting to be visited, a min-heap */
+	private double[] regionDistances = new double[64];
+
+	/** regions waiting to be visited, in the same order */
+	private Node[] regions = new Node[64];
+
+	/** number of regions waiting to be visited */
+	private int numRegions;
+
+	/**
+	 * squared distance to each of the nearest cities found so far, a
+	 * max-heap until the search completes and then sorted nearest first
+	 */
+	private double[] cityDistances = new double[16];
+
+	/** nearest cities found so far, in the same order */
+	private City[] cities = new City[16];
+
+	/** number of cities found */
+	private int numCities;
+
+	/**
+	 * Finds the cities nearest to a point.
+	 *
+	 * @param root
+	 *            root of the PM Quadtree searched
+	 * @param x
+	 *            x coordinate of the point
+	 * @param y
+	 *            y coordinate of the point
+	 * @param k
+	 *            most cities to find; none are found if it is not positive
+	 * @return number of cities found, at most <code>k</code>
+	 */
+	public int search(final Node root, final double x, final double y,
+			final int k) {
+		Arrays.fill(cities, 0, numCities, null);
+		numCities = 0;
+		if (k <= 0) {
+			return 0;
+		}
+
+		pushRegion(0, root);
+		while (numRegions > 0) {
+			if (numCities == k && regionDistances[0] > cityDistances[0]) {
+				break;
+			}
+			final Node node = popRegion();
+			if (node.getType() == Node.BLACK) {
+				final GeometryList geometry = ((Black) node).getGeometry();
+				for (int i = 0; i < geometry.getNumPoints(); i++) {
+					final Geometry g = geometry.get(i);
+					if (g.isCity()) {
+						final City city = (City) g;
+						final double dx = city.getLocalX() - x;
+						final double dy = city.getLocalY() - y;
+						offerCity(dx * dx + dy * dy, city, k);
+					}
+				}
+			} else if (node.getType() == Node.GRAY) {
+				final Gray gray = (Gray) node;
+				for (int i = 0; i < 4; i++) {
+					final Node child = gray.getChild(i);
+					if (child.getType() != Node.WHITE) {
+						final int childX = gray.getChildX(i);
+						final int childY = gray.getChildY(i);
+						final double dx = Math.max(0, Math.max(childX - x, x
+								- (childX + gray.getHalfWidth())));
+						final double dy = Math.max(0, Math.max(childY - y, y
+								- (childY + gray.getHalfHeight())));
+						pushRegion(dx * dx + dy * dy, child);
+					}
+				}
+			}
+		}
+		Arrays.fill(regions, 0, numRegions, null);
+		numRegions = 0;
+
+		/* sort the max-heap in place, nearest first */
+		for (int end = numCities - 1; end > 0; end--) {
+			swapCities(0, end);
+			siftCityDown(0, end);
+		}
+		return numCities;
+	}
+
+	/**
+	 * Gets one of the cities found by the last search.
+	 *
+	 * @param i
+	 *            rank of the city, from 0 for the nearest
+	 * @return city of that rank
+	 */
+	public City getCity(final int i) {
+		return cities[i];
+	}
+
+	/**
+	 * Gets the squared distance to one of the cities found by the last
+	 * search.
+	 *
+	 * @param i
+	 *            rank of the city, from 0 for the nearest
+	 * @return squared distance from the point searched to the city
+	 */
+	public double getDistanceSquared(final int i) {
+		return cityDistances[i];
+	}
+
+	/**
+	 * Keeps a city if it is among the k nearest found so far. A city held by
+	 * several leaves is kept once.
+	 */
+	private void offerCity(final double distance, final City city, final int k) {
+		if (numCities == k
+				&& !before(distance, city, cityDistances[0], cities[0])) {
+			return;
+		}
+		for (int i = 0; i < numCities; i++) {
+			if (cities[i] == city) {
+				return;
+			}
+		}
+		if (numCities < k) {
+			if (numCities == cities.length) {
+				final int length = (int) Math.min(k, 2L * numCities);
+				cities = Arrays.copyOf(cities, length);
+				cityDistances = Arrays.copyOf(cityDistances, length);
+			}
+			cityDistances[numCities] = distance;
+			cities[numCities] = city;
+			siftCityUp(numCities++);
+		} else {
+			cityDistances[0] = distance;
+			cities[0] = city;
+			siftCityDown(0, numCities);
+		}
+	}
+
+	/**
+	 * Returns if one city comes before another: it is nearer, or as near and
+	 * ordered first by the PM Quadtree.
+	 */
+	private static boolean before(final double distance, final City city,
+			final double otherDistance, final City other) {
+		return distance < otherDistance
+				|| (distance == otherDistance && city.compareTo(other) < 0);
+	}
+
+	private void siftCityUp(int i) {
+		while (i > 0) {
+			final int parent = (i - 1) >> 1;
+			if (!before(cityDistances[parent], cities[parent],
+					cityDistances[i], cities[i])) {
+				return;
+			}
+			swapCities(parent, i);
+			i = parent;
+		}
+	}
+
+	private void siftCityDown(int i, final int size) {
+		while (true) {
+			final int left = 2 * i + 1;
+			if (left >= size) {
+				return;
+			}
+			int last = left;
+			if (left + 1 < size
+					&& before(cityDistances[left], cities[left],
+							cityDistances[left + 1], cities[left + 1])) {
+				last = left + 1;
+			}
+			if (!before(cityDistances[i], cities[i], cityDistances[last],
+					cities[last])) {
+				return;
+			}
+			swapCities(i, last);
+			i = last;
+		}
+	}
+
+	private void swapCities(final int i, final int j) {
+		final double distance = cityDistances[i];
+		cityDistances[i] = cityDistances[j];
+		cityDistances[j] = distance;
+		final City city = cities[i];
+		cities[i] = cities[j];
+		cities[j] = city;
+	}
+
+	private void pushRegion(final double distance, final Node node) {
+		if (numRegions == regions.length) {
+			regions = Arrays.copyOf(regions, 2 * numRegions);
+			regionDistances = Arrays.copyOf(regionDistances, 2 * numRegions);
+		}
+		int i = numRegions++;
+		while (i > 0) {
+			final int parent = (i - 1) >> 1;
+			if (regionDistances[parent] <= distance) {
+				break;
+			}
+			regionDistances[i] = regionDistances[parent];
+			regions[i] = regions[parent];
+			i = parent;
+		}
+		regionDistances[i] = distance;
+		regions[i] = node;
+	}
+
+	private Node popRegion() {
+		final Node first = regions[0];
+		final int size = --numRegions;
+		final double distance = regionDistances[size];
+		final Node node = regions[size];
+		regions[size] = null;
+		if (size > 0) {
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size
+						&& regionDistances[child + 1] < regionDistances[child]) {
+					child++;
+				}
+				if (distance <= regionDistances[child]) {
+					break;
+				}
+				regionDistances[i] = regionDistances[child];
+				regions[i] = regions[child];
+				i = child;
+			}
+			regionDistances[i] = distance;
+			regions[i] = node;
+		}
+		return first;
+	}
+}
@@ -1,5 +1,7 @@
 package cmsc420.pmquadtree;
 
+import cmsc420.command.World;
+
 /**
  * A PM Quadtree of order 3 has the following rules:
  * <p>
@@ -12,12 +14,10 @@ public class PM1Quadtree extends PMQuadtree {
 	/**
 	 * Constructs and initializes this PM Quadtree of order 3.
 	 * 
-	 * @param spatialWidth
-	 *            width of the spatial map
-	 * @param spatialHeight
-	 *            height of the spatial map
+	 * @param world
+	 *            world whose local spatial map this PM Quadtree covers
 	 */
-	public PM1Quadtree(final int spatialWidth, final int spatialHeight) {
-		super(new PM1Validator(), spatialWidth, spatialHeight, 1);
+	public PM1Quadtree(final World world) {
+		super(new PM1Validator(), world, 1);
 	}
 }
\ No newline at end of file
@@ -6,79 +6,121 @@ import cmsc420.geometry.Geometry;
 import cmsc420.geometry.Road;
 import cmsc420.geometry.Terminal;
 import cmsc420.pmquadtree.PMQuadtree.Black;
+import cmsc420.pmquadtree.PMQuadtree.Node;
 
 public class PM1Validator implements Validator {
 
 	//Node only valid when there is one city/airport/terminal in a quadrant (can have multiple roads), or
 	//when there is ONLY one road.
+	//A node with one point keeps the number of its roads that do not end at that point exactly once.
 	@Override
 	public boolean valid(final Black node) {
-		City nodeCity = null;
-		Airport nodeAirport = null;
-		Terminal nodeTerminal = null;
-		
-		for (Geometry g : node.getGeometry()) {
-			if (g.isCity()) {
-				nodeCity = (City)g;
-			} else if (g.isAirport()) {
-				nodeAirport = (Airport)g;
-			} else if (g.isTerminal()) {
-				nodeTerminal = (Terminal)g;
+		if (node.getNumPoints() == 1) {
+			return node.numNonIncidentRoads == 0;
+		} else if (node.getNumPoints() == 0) {
+			return node.getGeometry().getNumSegments() == 1;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public void added(final Black node, final Geometry g) {
+		if (g.isRoad()) {
+			if (node.getNumPoints() == 1 && !isIncident((Road)g, node.getGeometry().get(0))) {
+				node.numNonIncidentRoads++;
 			}
+		} else if (node.getNumPoints() == 1) {
+			countNonIncidentRoads(node);
 		}
-	
-		if (node.getNumPoints() == 1) {
-			for (Geometry g : node.getGeometry()) {
-				if (g.isRoad()) {
-					Road road = (Road)g;
-			
-					int numOfAllowedIntersections = 0;
-					if (nodeCity != null) {
-						
-						if (road.getStart() != null && road.getStart().equals(nodeCity)) numOfAllowedIntersections++;
-						if (road.getEnd() != null && road.getEnd().equals(nodeCity)) numOfAllowedIntersections++;
-						if (road.getStartTerminal() != null && road.getStartTerminal().getTerminalName().equals(nodeCity.getName())) numOfAllowedIntersections++;
-						if (road.getEndTerminal() != null && road.getEndTerminal().getTerminalName().equals(nodeCity.getName())) numOfAllowedIntersections++;
-									
-						if (numOfAllowedIntersections != 1) {
-							return false;
-						}
-					} else if (nodeAirport != null) {
-						if (road.getStart() != null && road.getStart().getName().equals(nodeAirport.getName())) numOfAllowedIntersections++;
-						if (road.getEnd() != null && road.getEnd().getName().equals(nodeAirport.getName())) numOfAllowedIntersections++;
-						if (road.getStartTerminal() != null && road.getStartTerminal().getTerminalName().equals(nodeAirport.getName())) numOfAllowedIntersections++;
-						if (road.getEndTerminal() != null && road.getEndTerminal().getTerminalName().equals(nodeAirport.getName())) numOfAllowedIntersections++;
-									
-						if (numOfAllowedIntersections != 1) {
-							return false;
-						}
-					} else if (nodeTerminal != null) {
-						if (road.getStart() != null && road.getStart().getName().equals(nodeTerminal.getTerminalName())) numOfAllowedIntersections++;
-						if (road.getEnd() != null && road.getEnd().getName().equals(nodeTerminal.getTerminalName())) numOfAllowedIntersections++;
-						if (road.getStartTerminal() != null && road.getStartTerminal().getTerminalName().equals(nodeTerminal.getTerminalName())) numOfAllowedIntersections++;
-						if (road.getEndTerminal() != null && road.getEndTerminal().getTerminalName().equals(nodeTerminal.getTerminalName())) numOfAllowedIntersections++;
-									
-						if (numOfAllowedIntersections != 1) {
+	}
+
+	@Override
+	public void removed(final Black node, final Geometry g) {
+		if (g.isRoad()) {
+			if (node.getNumPoints() == 1 && !isIncident((Road)g, node.getGeometry().get(0))) {
+				node.numNonIncidentRoads--;
+			}
+		} else if (node.getNumPoints() == 1) {
+			countNonIncidentRoads(node);
+		}
+	}
+
+	@Override
+	public int getMaxPoints() {
+		return 1;
+	}
+
+	@Override
+	public boolean mayMerge(final Node[] children, final Geometry point) {
+		if (point == null) {
+			//without a point, the children must all hold the same single road
+			Geometry road = null;
+			for (Node child : children) {
+				if (child.getType() == Node.BLACK) {
+					final GeometryList geometry = ((Black)child).getGeometry();
+					if (geometry.getNumSegments() > 1) {
+						return false;
+					} else if (geometry.getNumSegments() == 1) {
+						final Geometry g = geometry.get(geometry.getNumPoints());
+						if (road == null) {
+							road = g;
+						} else if (road.compareTo(g) != 0) {
 							return false;
 						}
 					}
-
 				}
 			}
 			return true;
-		} else if (node.getNumPoints() == 0) {
-			int countRoads = 0;
-			
-			for (Geometry g : node.getGeometry()) {
-				if (g.isRoad()) {
-					countRoads++;
-				}
+		}
+		
+		//every road sharing a child with the point must end at it
+		for (Node child : children) {
+			if (child.getType() == Node.BLACK && ((Black)child).getNumPoints() == 1
+					&& ((Black)child).numNonIncidentRoads != 0) {
+				return false;
 			}
-			
-			return (countRoads == 1) ? true : false; 
+		}
+		return true;
+	}
+
+	/**
+	 * Recounts the roads of a node with one point that do not end at it
+	 * exactly once.
+	 */
+	private static void countNonIncidentRoads(final Black node) {
+		final GeometryList geometry = node.getGeometry();
+		final Geometry point = geometry.get(0);
+		int count = 0;
+		for (int i = geometry.getNumPoints(); i < geometry.size(); i++) {
+			if (!isIncident((Road)geometry.get(i), point)) {
+				count++;
+			}
+		}
+		node.numNonIncidentRoads = count;
+	}
+
+	/**
+	 * Returns if exactly one endpoint of a road is a point. A city endpoint
+	 * matches an equal city; otherwise endpoints match by name.
+	 */
+	private static boolean isIncident(final Road road, final Geometry point) {
+		int numOfAllowedIntersections = 0;
+		final String name;
+		if (point.isCity()) {
+			final City nodeCity = (City)point;
+			if (road.getStart() != null && road.getStart().equals(nodeCity)) numOfAllowedIntersections++;
+			if (road.getEnd() != null && road.getEnd().equals(nodeCity)) numOfAllowedIntersections++;
+			name = nodeCity.getName();
 		} else {
-			return false;
+			name = point.isAirport() ? ((Airport)point).getName() : ((Terminal)point).getTerminalName();
+			if (road.getStart() != null && road.getStart().getName().equals(name)) numOfAllowedIntersections++;
+			if (road.getEnd() != null && road.getEnd().getName().equals(name)) numOfAllowedIntersections++;
 		}
+		if (road.getStartTerminal() != null && road.getStartTerminal().getTerminalName().equals(name)) numOfAllowedIntersections++;
+		if (road.getEndTerminal() != null && road.getEndTerminal().getTerminalName().equals(name)) numOfAllowedIntersections++;
+		
+		return numOfAllowedIntersections == 1;
 	}
 
 }
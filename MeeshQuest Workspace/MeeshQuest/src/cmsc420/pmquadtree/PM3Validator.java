@@ -1,11 +1,29 @@
 package cmsc420.pmquadtree;
 
 
+import cmsc420.geometry.Geometry;
 import cmsc420.pmquadtree.PMQuadtree.Black;
+import cmsc420.pmquadtree.PMQuadtree.Node;
 
 public class PM3Validator implements Validator {
 	
 	public boolean valid(final Black node) {
 		return (node.getNumPoints() <= 1);
 	}
+
+	public void added(final Black node, final Geometry g) {
+		/* the point count kept by the geometry list is all the rule needs */
+	}
+
+	public void removed(final Black node, final Geometry g) {
+	}
+
+	public int getMaxPoints() {
+		return 1;
+	}
+
+	public boolean mayMerge(final Node[] children, final Geometry point) {
+		/* any number of roads may share a leaf with its one point */
+		return true;
+	}
 }
@@ -1,30 +1,51 @@
 package cmsc420.pmquadtree;
 
 import java.awt.geom.Point2D;
-import java.awt.geom.Point2D.Float;
 import java.awt.geom.Rectangle2D;
-import java.util.Collections;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
 
-import cmsc420.command.Command;
+import cmsc420.command.World;
 import cmsc420.geom.Inclusive2DIntersectionVerifier;
 import cmsc420.geometry.Airport;
 import cmsc420.geometry.City;
 import cmsc420.geometry.Geometry;
+import cmsc420.geometry.IntegerGeometry;
 import cmsc420.geometry.Road;
 import cmsc420.geometry.RoadNameComparator;
 import cmsc420.geometry.Terminal;
+import cmsc420.snapshot.SnapshotReader;
+import cmsc420.snapshot.SnapshotWriter;
 
 public abstract class PMQuadtree {
 
 	/** stores all mapped roads in the PM Quadtree */
 	final protected TreeSet<Road> allRoads;
+
+	/** indexes the segments of allRoads, to find the roads a segment may cross */
+	final protected RoadIndex roadIndex;
 	
 	/** stores how many roads are connected to each city */
 	final protected HashMap<String, Integer> numRoadsForCity;
+
+	/**
+	 * counts of the roads in allRoads incident to each city, as seen from
+	 * either end of a road being deleted; see {@link #deleteGeometry(Road)}
+	 */
+	final protected HashMap<Endpoints, int[]> incidentRoads;
+
+	/** counts of the roads in allRoads between each ordered pair of cities */
+	final protected HashMap<Endpoints, int[]> parallelRoads;
 	
 	final protected HashSet<City> allMappedTerminalCities;
 	
@@ -52,11 +73,26 @@ public abstract class PMQuadtree {
 	/** validator for the PM Quadtree */
 	final protected Validator validator;
 
+	/**
+	 * token of the nodes the current change may change in place; nodes made
+	 * under another token are copied first
+	 */
+	protected Object edit = new Object();
+
+	/**
+	 * whether each change takes a new token, leaving the nodes of earlier
+	 * versions of the tree unchanged
+	 */
+	protected boolean persistent = false;
+
 	/** singleton white node */
 	final protected White white = new White();
 
 	/** order of the PM Quadtree (one of: {1,2,3}) */
 	final protected int order;
+
+	/** world this PM Quadtree is a metropole of */
+	final protected World world;
 	
 	protected boolean needToThrowPMRuleException = false;
 
@@ -73,6 +109,9 @@ public abstract class PMQuadtree {
 		/** type of PR Quadtree node (either empty, leaf, or internal) */
 		protected final int type;
 
+		/** token of the change that made this node */
+		protected final Object edit;
+
 		/**
 		 * Constructor for abstract Node class.
 		 * 
@@ -81,6 +120,18 @@ public abstract class PMQuadtree {
 		 */
 		protected Node(final int type) {
 			this.type = type;
+			edit = PMQuadtree.this.edit;
+		}
+
+		/**
+		 * Returns if the current change may change this node in place. Nodes
+		 * made by earlier changes to a persistent tree may be shared with
+		 * earlier versions of it, so they are copied instead.
+		 * 
+		 * @return <code>true</code> if this node may be changed
+		 */
+		protected boolean isEditable() {
+			return edit == PMQuadtree.this.edit;
 		}
 
 		/**
@@ -97,8 +148,12 @@ public abstract class PMQuadtree {
 		 * 
 		 * @param g
 		 *            road to be added
-		 * @param origin
-		 *            origin of the rectangular bounds of this node
+		 * @param originX
+		 *            x coordinate of the origin of the rectangular bounds of
+		 *            this node
+		 * @param originY
+		 *            y coordinate of the origin of the rectangular bounds of
+		 *            this node
 		 * @param width
 		 *            width of the rectangular bounds of this node
 		 * @param height
@@ -110,12 +165,13 @@ public abstract class PMQuadtree {
 		 * @throws IntersectingRoadsThrowable
 		 *             if this road intersects with another road
 		 */
-		public Node add(final Geometry g, final Point2D.Float origin,
-				final int width, final int height) throws PMRuleViolationThrowable {
+		public Node add(final Geometry g, final int originX,
+				final int originY, final int width, final int height) throws PMRuleViolationThrowable {
 			throw new UnsupportedOperationException();
 		}
 		
-		public Node remove(Geometry g, Float float1, int halfWidth, int halfHeight) {
+		public Node remove(final Geometry g, final int originX,
+				final int originY, final int width, final int height) {
 			throw new UnsupportedOperationException();
 		}
 
@@ -147,8 +203,12 @@ public abstract class PMQuadtree {
 		 * 
 		 * @param g
 		 *            road to be added
-		 * @param origin
-		 *            origin of the rectangular bounds of this node
+		 * @param originX
+		 *            x coordinate of the origin of the rectangular bounds of
+		 *            this node
+		 * @param originY
+		 *            y coordinate of the origin of the rectangular bounds of
+		 *            this node
 		 * @param width
 		 *            width of the rectangular bounds of this node
 		 * @param height
@@ -160,14 +220,14 @@ public abstract class PMQuadtree {
 		 * @throws IntersectingRoadsThrowable
 		 *             if this road intersects with another road
 		 */
-		public Node add(final Geometry g, final Point2D.Float origin,
-				final int width, final int height) throws PMRuleViolationThrowable {
+		public Node add(final Geometry g, final int originX,
+				final int originY, final int width, final int height) throws PMRuleViolationThrowable {
 			final Black blackNode = new Black();
-			return blackNode.add(g, origin, width, height);
+			return blackNode.add(g, originX, originY, width, height);
 		}
 		
-		public Node remove(final Geometry g, final Point2D.Float origin,
-				final int width, final int height) {
+		public Node remove(final Geometry g, final int originX,
+				final int originY, final int width, final int height) {
 			throw new UnsupportedOperationException();
 		}
 
@@ -198,41 +258,44 @@ public abstract class PMQuadtree {
 	 */
 	public class Black extends Node {
 
-		/** list of cities and roads contained within black node */
-		final protected LinkedList<Geometry> geometry;
+		/** sorted list of cities, airports, terminals and roads contained within black node */
+		final protected GeometryList geometry;
 
-		/** number of airpoints contained within this black node */
-		protected int numPoints;
+		/**
+		 * number of roads not ending exactly once at this node's point, kept
+		 * by validators that need it while the node holds one point
+		 */
+		protected int numNonIncidentRoads;
 
 		/**
 		 * Constructs and initializes a non-empty PM Quadtree leaf node.
 		 */
 		public Black() {
 			super(BLACK);
-			geometry = new LinkedList<Geometry>();
-			numPoints = 0;
+			geometry = new GeometryList();
 		}
 
 		/**
-		 * Gets a linked list of the cities and roads contained by this black
-		 * node.
+		 * Constructs a copy of a black node, which the current change may
+		 * change.
 		 * 
-		 * @return list of cities and roads contained within this black node
+		 * @param black
+		 *            node to be copied
 		 */
-		public LinkedList<Geometry> getGeometry() {
-			return geometry;
+		public Black(final Black black) {
+			super(BLACK);
+			geometry = new GeometryList(black.geometry);
+			numNonIncidentRoads = black.numNonIncidentRoads;
 		}
 
 		/**
-		 * Gets the index of the road in this black node's geometry list.
+		 * Gets the sorted list of the cities and roads contained by this black
+		 * node.
 		 * 
-		 * @param g
-		 *            road to be searched for in the sorted geometry list
-		 * @return index of the search key, if it is contained in the list;
-		 *         otherwise, (-(insertion point) - 1)
+		 * @return list of cities and roads contained within this black node
 		 */
-		private int getIndex(final Geometry g) {
-			return Collections.binarySearch(geometry, g);
+		public GeometryList getGeometry() {
+			return geometry;
 		}
 
 		/**
@@ -240,36 +303,30 @@ public abstract class PMQuadtree {
 		 * invalid, it will be split into a Gray node.
 		 * @throws PMRuleViolationThrowable 
 		 */
-		public Node add(final Geometry g, final Point2D.Float origin,
-				final int width, final int height) throws PMRuleViolationThrowable {
+		public Node add(final Geometry g, final int originX,
+				final int originY, final int width, final int height) throws PMRuleViolationThrowable {
+			if (!isEditable()) {
+				return new Black(this).add(g, originX, originY, width, height);
+			}
 			
 			if (g.isRoad()) {
 				// g is a road
 				Road r = (Road)g;
-				/* create region rectangle */
-				final Rectangle2D.Float rect = new Rectangle2D.Float(origin.x,
-						origin.y, width, height);
 				
 				/* check if start point intersects with region */
-				if (r.getStartTerminal() != null) {
-					if (Inclusive2DIntersectionVerifier.intersects(r.getStartTerminal().localPoint2D(), rect)) {
-						addGeometryToList(r.getStartTerminal());
-					}
-				} else {
-					if (Inclusive2DIntersectionVerifier.intersects(r.getStart().toPoint2D(), rect)) {
-						addGeometryToList(r.getStart());
-					}
+				final Geometry start = r.getStartTerminal() != null ? r
+						.getStartTerminal() : r.getStart();
+				if (IntegerGeometry.intersects(start, originX, originY, width,
+						height)) {
+					addGeometryToList(start);
 				}
 				
 				/* check if end point intersects with region */
-				if (r.getEndTerminal() != null) {
-					if (Inclusive2DIntersectionVerifier.intersects(r.getEndTerminal().localPoint2D(), rect)) {
-						addGeometryToList(r.getEndTerminal());
-					}
-				} else {
-					if (Inclusive2DIntersectionVerifier.intersects(r.getEnd().toPoint2D(), rect)) {
-						addGeometryToList(r.getEnd());
-					}
+				final Geometry end = r.getEndTerminal() != null ? r
+						.getEndTerminal() : r.getEnd();
+				if (IntegerGeometry.intersects(end, originX, originY, width,
+						height)) {
+					addGeometryToList(end);
 				}
 					
 			}
@@ -283,28 +340,23 @@ public abstract class PMQuadtree {
 				return this;
 			} else {
 				/* invalid so partition into a Gray node */
-				return partition(origin, width, height);
+				return partition(originX, originY, width, height);
 			}
 		}
 		
 		private boolean removeGeometryToList(final Geometry g) {
-			/* search for the non-existent item */
-			final int index = getIndex(g);
-
-			if (index < 0) return false;
-			
-			geometry.remove(index);
-
-			if (g.isCity() || g.isAirport() || g.isTerminal()) {
-					// g is an ISO city or airport
-				numPoints--;
+			if (geometry.delete(g)) {
+				validator.removed(this, g);
+				return true;
 			}
-			
-			return true;
+			return false;
 		}
 		
-		public Node remove(final Geometry g, final Point2D.Float origin,
-				final int width, final int height) {
+		public Node remove(final Geometry g, final int originX,
+				final int originY, final int width, final int height) {
+			if (!isEditable()) {
+				return new Black(this).remove(g, originX, originY, width, height);
+			}
 			removeGeometryToList(g);
 			if (geometry.isEmpty()) return white;
 			else return this;
@@ -317,17 +369,8 @@ public abstract class PMQuadtree {
 		 *            road to be added
 		 */
 		private boolean addGeometryToList(final Geometry g) {
-			/* search for the non-existent item */
-			final int index = getIndex(g);
-
-			/* add the non-existent item to the list */
-			if (index < 0) {
-				geometry.add(-index - 1, g);
-
-				if (g.isCity() || g.isAirport() || g.isTerminal()) {
-					// g is an ISO city or airport
-					numPoints++;
-				}
+			if (geometry.insert(g)) {
+				validator.added(this, g);
 				return true;
 			}
 			return false;
@@ -349,15 +392,19 @@ public abstract class PMQuadtree {
 		 * @return number of cities contained in this black node
 		 */
 		public int getNumPoints() {
-			return numPoints;
+			return geometry.getNumPoints();
 		}
 
 		/**
 		 * Partitions an invalid back node into a gray node and adds this black
 		 * node's roads to the new gray node.
 		 * 
-		 * @param origin
-		 *            origin of the rectangular bounds of this node
+		 * @param originX
+		 *            x coordinate of the origin of the rectangular bounds of
+		 *            this node
+		 * @param originY
+		 *            y coordinate of the origin of the rectangular bounds of
+		 *            this node
 		 * @param width
 		 *            width of the rectangular bounds of this node
 		 * @param height
@@ -369,24 +416,25 @@ public abstract class PMQuadtree {
 		 * @throws IntersectingRoadsThrowable
 		 *             if two roads intersect
 		 */
-		private Node partition(final Point2D.Float origin, final int width, final int height) throws PMRuleViolationThrowable {
+		private Node partition(final int originX, final int originY, final int width, final int height) throws PMRuleViolationThrowable {
 			//][			
 
 			/* create new gray node */
-			Node gray = new Gray(origin, width, height);
+			Node gray = new Gray(originX, originY, width, height);
 
 			// add airports/terminals only; endpoints of roads are added in recursive calls
 			// to black.add()
+			final int numPoints = geometry.getNumPoints();
 			for (int i = 0; i < numPoints; i++) {
 				final Geometry g = geometry.get(i);
 				if (g.isAirport()) {
-					gray = gray.add(g, origin, width, height);
+					gray = gray.add(g, originX, originY, width, height);
 				}
 			}			
 			// add roads
 			for (int i = numPoints; i < geometry.size(); i++) {
 				final Geometry g = geometry.get(i);
-				gray = gray.add(g, origin, width, height);
+				gray = gray.add(g, originX, originY, width, height);
 			}
 			return gray;
 		}
@@ -406,14 +454,14 @@ public abstract class PMQuadtree {
 		 * @return if this black node contains a city
 		 */
 		public boolean containsCity() {
-			return (numPoints > 0);
+			return (geometry.getNumPoints() > 0);
 		}
 
 		/**
 		 * @return true if this black node contains at least a road
 		 */
 		public boolean containsRoad() {
-			return (geometry.size() - numPoints) > 0;
+			return geometry.getNumSegments() > 0;
 		}
 
 		/**
@@ -423,7 +471,7 @@ public abstract class PMQuadtree {
 		 * @return the city if it exists, else <code>null</code>
 		 */
 		public City getCity() {
-			final Geometry g = geometry.getFirst();
+			final Geometry g = geometry.get(0);
 			return g.isCity() ? (City)g : null;
 		}		
 	}
@@ -435,14 +483,11 @@ public abstract class PMQuadtree {
 		/** this gray node's 4 child nodes */
 		final protected Node[] children;
 
-		/** regions representing this gray node's 4 child nodes */
-		final protected Rectangle2D.Float[] regions;
-
-		/** origin of the rectangular bounds of this node */
-		final protected Point2D.Float origin;
+		/** x coordinate of the origin of the rectangular bounds of this node */
+		final protected int originX;
 
-		/** the origin of rectangular bounds of each of the node's child nodes */
-		final protected Point2D.Float[] origins;
+		/** y coordinate of the origin of the rectangular bounds of this node */
+		final protected int originY;
 
 		/** half the width of the rectangular bounds of this node */
 		final protected int halfWidth;
@@ -453,19 +498,24 @@ public abstract class PMQuadtree {
 		/**
 		 * Constructs and initializes an internal PM Quadtree node.
 		 * 
-		 * @param origin
-		 *            origin of the rectangular bounds of this node
+		 * @param originX
+		 *            x coordinate of the origin of the rectangular bounds of
+		 *            this node
+		 * @param originY
+		 *            y coordinate of the origin of the rectangular bounds of
+		 *            this node
 		 * @param width
 		 *            width of the rectangular bounds of this node
 		 * @param height
 		 *            height of the rectangular bounds of this node
 		 */
-		public Gray(final Point2D.Float origin, final int width,
+		public Gray(final int originX, final int originY, final int width,
 				final int height) {
 			super(GRAY);
 
 			/* set this node's origin */
-			this.origin = origin;
+			this.originX = originX;
+			this.originY = originY;
 
 			/* initialize the children as white nodes */
 			children = new Node[4];
@@ -476,21 +526,22 @@ public abstract class PMQuadtree {
 			/* get half the width and half the height */
 			halfWidth = width >> 1;
 			halfHeight = height >> 1;
+		}
 
-			/* initialize the child origins */
-			origins = new Point2D.Float[4];
-			origins[0] = new Point2D.Float(origin.x, origin.y + halfHeight);
-			origins[1] = new Point2D.Float(origin.x + halfWidth, origin.y
-					+ halfHeight);
-			origins[2] = new Point2D.Float(origin.x, origin.y);
-			origins[3] = new Point2D.Float(origin.x + halfWidth, origin.y);
-
-			/* initialize the child regions */
-			regions = new Rectangle2D.Float[4];
-			for (int i = 0; i < 4; i++) {
-				regions[i] = new Rectangle2D.Float(origins[i].x, origins[i].y,
-						halfWidth, halfHeight);
-			}
+		/**
+		 * Constructs a copy of a gray node, sharing its children, which the
+		 * current change may change.
+		 * 
+		 * @param gray
+		 *            node to be copied
+		 */
+		public Gray(final Gray gray) {
+			super(GRAY);
+			children = gray.children.clone();
+			originX = gray.originX;
+			originY = gray.originY;
+			halfWidth = gray.halfWidth;
+			halfHeight = gray.halfHeight;
 		}
 
 		/**
@@ -498,8 +549,12 @@ public abstract class PMQuadtree {
 		 * 
 		 * @param g
 		 *            road to be added
-		 * @param origin
-		 *            origin of the rectangular bounds of this node
+		 * @param originX
+		 *            x coordinate of the origin of the rectangular bounds of
+		 *            this node
+		 * @param originY
+		 *            y coordinate of the origin of the rectangular bounds of
+		 *            this node
 		 * @param width
 		 *            width of the rectangular bounds of this node
 		 * @param height
@@ -512,8 +567,11 @@ public abstract class PMQuadtree {
 		 *             if this road intersects with another road
 		 */
 		
-		public Node add(final Geometry g, final Point2D.Float origin,
-				final int width, final int height) throws PMRuleViolationThrowable  {
+		public Node add(final Geometry g, final int originX,
+				final int originY, final int width, final int height) throws PMRuleViolationThrowable  {
+			if (!isEditable()) {
+				return new Gray(this).add(g, originX, originY, width, height);
+			}
 			
 			if (halfWidth < 1 || halfHeight < 1) {
 				needToThrowPMRuleException = true;
@@ -523,23 +581,19 @@ public abstract class PMQuadtree {
 			
 			for (int i = 0; i < 4; i++) {
 				//FIXED: Need support for airport and terminal stuff
-				if (g.isRoad() && Inclusive2DIntersectionVerifier.intersects(
-						((Road)g).toLine2D(),regions[i]) 
-						|| g.isCity() && Inclusive2DIntersectionVerifier.intersects(
-								((City)g).toPoint2D(),regions[i])
-						|| g.isTerminal() && Inclusive2DIntersectionVerifier.intersects(
-								((Terminal)g).localPoint2D(),regions[i]) 
-								|| g.isAirport() && Inclusive2DIntersectionVerifier.intersects(
-										((Airport)g).localPoint2D(),regions[i])) {
-					children[i] = children[i].add(g, origins[i], halfWidth,
-							halfHeight);
+				if (intersectsChild(g, i)) {
+					children[i] = children[i].add(g, getChildX(i), getChildY(i),
+							halfWidth, halfHeight);
 				}
 			}
 			return this;
 		}
 		
-		public Node remove(final Geometry g, final Point2D.Float origin,
-				final int width, final int height) {
+		public Node remove(final Geometry g, final int originX,
+				final int originY, final int width, final int height) {
+			if (!isEditable()) {
+				return new Gray(this).remove(g, originX, originY, width, height);
+			}
 			
 			int numWhite = 0;
 			int numBlack = 0;
@@ -547,18 +601,11 @@ public abstract class PMQuadtree {
 			Black blackNode = null;
 			
 			for (int i = 0; i < 4; i++) {
-				if (g.isRoad() && Inclusive2DIntersectionVerifier.intersects(
-						((Road)g).toLine2D(),regions[i]) 
-						|| g.isCity() && Inclusive2DIntersectionVerifier.intersects(
-								((City)g).toPoint2D(),regions[i])
-						|| g.isTerminal() && Inclusive2DIntersectionVerifier.intersects(
-								((Terminal)g).localPoint2D(),regions[i]) 
-								|| g.isAirport() && Inclusive2DIntersectionVerifier.intersects(
-										((Airport)g).localPoint2D(),regions[i])) {
+				if (intersectsChild(g, i)) {
 					/*if ((g.isRoad()) && ((Road)g).getEndTerminal() != null)
 						System.out.println("Terminal: " + ((Road)g).getEndTerminal().getTerminalName() + " at " + i);*/
-					children[i] = children[i].remove(g, origins[i], halfWidth,
-							halfHeight);
+					children[i] = children[i].remove(g, getChildX(i),
+							getChildY(i), halfWidth, halfHeight);
 				}
 				
 			}
@@ -580,6 +627,29 @@ public abstract class PMQuadtree {
 				return blackNode; 
 			}
 			else if (numGray == 0) {
+				//a leaf holds no more points than the rules allow, so count the distinct ones before merging
+				final int maxPoints = validator.getMaxPoints();
+				Geometry point = null;
+				Geometry[] points = null;
+				int numPoints = 0;
+				for (int i = 0; i < 4; i++) {
+					if (children[i].type == Node.BLACK) {
+						final GeometryList geometry = ((Black)children[i]).geometry;
+						for (int j = 0; j < geometry.getNumPoints(); j++) {
+							final Geometry p = geometry.get(j);
+							if (point == null) {
+								point = p;
+								numPoints = 1;
+							} else if (point.compareTo(p) != 0 && !containsPoint(points, numPoints, p)) {
+								if (numPoints == maxPoints) return this;
+								if (points == null) points = new Geometry[maxPoints];
+								points[numPoints++] = p;
+							}
+						}
+					}
+				}
+				if (!validator.mayMerge(children, point)) return this;
+				
 				Black newBlack = new Black();
 				//Add all geometry in this subtree into b
 				for (int i = 0; i < 4; i++) {
@@ -596,6 +666,17 @@ public abstract class PMQuadtree {
 			}
 		}
 
+		/**
+		 * Returns if a point equals one of the points after the first found so
+		 * far, which are kept from index 1 on.
+		 */
+		private boolean containsPoint(final Geometry[] points, final int numPoints, final Geometry p) {
+			for (int i = 1; i < numPoints; i++) {
+				if (points[i].compareTo(p) == 0) return true;
+			}
+			return false;
+		}
+
 		/**
 		 * Returns if this node follows the rules of the PM Quadtree.
 		 * 
@@ -645,17 +726,50 @@ public abstract class PMQuadtree {
 			if (quadrant < 0 || quadrant > 3) {
 				throw new IllegalArgumentException();
 			} else {
-				return regions[quadrant];
+				return new Rectangle2D.Float(getChildX(quadrant),
+						getChildY(quadrant), halfWidth, halfHeight);
 			}
 		}
 
+		/**
+		 * Gets the x coordinate of the origin of a child node's rectangular
+		 * bounds.
+		 * 
+		 * @param quadrant
+		 *            quadrant that child lies within
+		 * @return x coordinate of the child's origin
+		 */
+		public int getChildX(final int quadrant) {
+			return (quadrant & 1) == 0 ? originX : originX + halfWidth;
+		}
+
+		/**
+		 * Gets the y coordinate of the origin of a child node's rectangular
+		 * bounds.
+		 * 
+		 * @param quadrant
+		 *            quadrant that child lies within
+		 * @return y coordinate of the child's origin
+		 */
+		public int getChildY(final int quadrant) {
+			return quadrant < 2 ? originY + halfHeight : originY;
+		}
+
+		/**
+		 * Returns if geometry lies within the closed region of a child node.
+		 */
+		private boolean intersectsChild(final Geometry g, final int quadrant) {
+			return IntegerGeometry.intersects(g, getChildX(quadrant),
+					getChildY(quadrant), halfWidth, halfHeight);
+		}
+
 		/**
 		 * Gets the center X coordinate of this node's rectangular bounds.
 		 * 
 		 * @return center X coordinate of this node's rectangular bounds
 		 */
 		public int getCenterX() {
-			return (int) origin.x + halfWidth;
+			return originX + halfWidth;
 		}
 
 		/**
@@ -664,7 +778,7 @@ public abstract class PMQuadtree {
 		 * @return center Y coordinate of this node's rectangular bounds
 		 */
 		public int getCenterY() {
-			return (int) origin.y + halfHeight;
+			return originY + halfHeight;
 		}
 
 		/**
@@ -686,19 +800,23 @@ public abstract class PMQuadtree {
 		}
 	}
 
-	public PMQuadtree(final Validator validator, final int spatialWidth,
-			final int spatialHeight, final int order) {
+	public PMQuadtree(final Validator validator, final World world,
+			final int order) {
 		if (order != 1 && order != 3) {
 			throw new IllegalArgumentException("order must be one of: {1,3}");
 		}
 
 		root = white;
 		this.validator = validator;
-		this.spatialWidth = spatialWidth;
-		this.spatialHeight = spatialHeight;
+		this.world = world;
+		this.spatialWidth = world.getLocalSpatialWidth();
+		this.spatialHeight = world.getLocalSpatialHeight();
 		spatialOrigin = new Point2D.Float(0.0f, 0.0f);
 		allRoads = new TreeSet<Road>(new RoadNameComparator());
+		roadIndex = new RoadIndex(spatialWidth, spatialHeight);
 		numRoadsForCity = new HashMap<String, Integer>();
+		incidentRoads = new HashMap<Endpoints, int[]>();
+		parallelRoads = new HashMap<Endpoints, int[]>();
 		allMappedTerminalCities = new HashSet<City>();
 		this.order = order;
 	}
@@ -706,6 +824,50 @@ public abstract class PMQuadtree {
 	public Node getRoot() {
 		return root;
 	}
+
+	/**
+	 * Sets whether the tree is persistent. A change to a persistent tree
+	 * copies the nodes on the paths it changes, up to a new root, rather than
+	 * changing them, so every earlier root still holds the tree as it was.
+	 * Making a tree persistent takes effect from the next change.
+	 * 
+	 * @param persistent
+	 *            <code>true</code> to keep earlier versions of the tree
+	 */
+	public void setPersistent(final boolean persistent) {
+		this.persistent = persistent;
+		edit = new Object();
+	}
+
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	/**
+	 * Gets the root of the tree as it is now, which later changes to a
+	 * persistent tree leave as it is. It can be read, without locking, while
+	 * the tree changes; its nodes must not be changed.
+	 * 
+	 * @return root of the current version of the tree
+	 * @throws IllegalStateException
+	 *             if the tree is not persistent
+	 */
+	public Node snapshot() {
+		if (!persistent) {
+			throw new IllegalStateException("PM Quadtree is not persistent");
+		}
+		return root;
+	}
+
+	/**
+	 * Starts a change to the tree. In a persistent tree, the change takes a
+	 * new token, so nodes of earlier versions are copied before changing.
+	 */
+	private void beginChange() {
+		if (persistent) {
+			edit = new Object();
+		}
+	}
 	
 	public void setRoot(Node newRoot) {
 		root = newRoot;
@@ -716,9 +878,7 @@ public abstract class PMQuadtree {
 			PMRuleViolationThrowable, RoadIntersectingThrowable {
 
 
-		Rectangle2D.Float world = new Rectangle2D.Float(spatialOrigin.x, spatialOrigin.y, 
-				spatialWidth, spatialHeight);
-		if (!Inclusive2DIntersectionVerifier.intersects(g.toLine2D(), world)) {
+		if (!IntegerGeometry.intersects(g, 0, 0, spatialWidth, spatialHeight)) {
 			throw new OutOfBoundsThrowable();
 		}
 		
@@ -728,20 +888,9 @@ public abstract class PMQuadtree {
 			throw new RoadAlreadyExistsThrowable();
 		}
 		
-		for (Road r : allRoads) {
-			if (Inclusive2DIntersectionVerifier.intersects(g.toLine2D(), r.toLine2D())) {
-				int numOfAllowedIntersections = 0;
-				
-				if (r.getStart() != null && r.getStart().equals(g.getStart())) numOfAllowedIntersections++;
-				if (r.getStart() != null && r.getStart().equals(g.getEnd())) numOfAllowedIntersections++;
-				if (r.getEnd() != null && r.getEnd().equals(g.getStart())) numOfAllowedIntersections++;
-				if (r.getEnd() != null && r.getEnd().equals(g.getEnd())) numOfAllowedIntersections++;
-				if (r.getStartTerminal() != null && r.getStartTerminal().getTerminalName().equals(g.getStart().getName())) numOfAllowedIntersections++;
-				if (r.getStartTerminal() != null && r.getStartTerminal().getTerminalName().equals(g.getEnd().getName())) numOfAllowedIntersections++;
-				if (r.getEndTerminal() != null && r.getEndTerminal().getTerminalName().equals(g.getStart().getName())) numOfAllowedIntersections++;
-				if (r.getEndTerminal() != null && r.getEndTerminal().getTerminalName().equals(g.getEnd().getName())) numOfAllowedIntersections++;
-				
-				if (numOfAllowedIntersections != 1) throw new RoadIntersectingThrowable();
+		for (Road r : roadIndex.getCandidates(g.toLine2D())) {
+			if (IntegerGeometry.intersects(g, r)) {
+				if (countSharedEndpoints(r, g) != 1) throw new RoadIntersectingThrowable();
 			}
 			//Else, safe for this iteration. Check next one to see if need to throw an error
 		}
@@ -752,21 +901,15 @@ public abstract class PMQuadtree {
 			throw new PMRuleViolationThrowable();
 		}*/
 		
+		beginChange();
 		needToThrowPMRuleException = false;
-		root = root.add(g, spatialOrigin, spatialWidth, spatialHeight);
+		root = root.add(g, 0, 0, spatialWidth, spatialHeight);
 		
 		if (needToThrowPMRuleException) {
 			throw new PMRuleViolationThrowable();
 		}
 		
-		allRoads.add(g);
-		if (Inclusive2DIntersectionVerifier.intersects(g.getStart().toPoint2D(), world)) {
-			increaseNumRoadsMap(g.getStart().getName());
-		}
-		if (Inclusive2DIntersectionVerifier.intersects(g.getEnd().toPoint2D(), world)) {
-			increaseNumRoadsMap(g.getEnd().getName());
-		}
-
+		countRoad(g);
 	}
 	
 	public void addAirport(final Airport airport, final Terminal terminal, boolean duplicateName,
@@ -788,7 +931,7 @@ public abstract class PMQuadtree {
 		}*/
 		
 		if (terminal.remotePoint2D().getX() < 0 || terminal.remotePoint2D().getY() < 0
-				|| terminal.remotePoint2D().getX() >= Command.remoteSpatialWidth || terminal.remotePoint2D().getY() >= Command.remoteSpatialHeight) {
+				|| terminal.remotePoint2D().getX() >= world.getRemoteSpatialWidth() || terminal.remotePoint2D().getY() >= world.getRemoteSpatialHeight()) {
 			throw new AddOutOfBoundsThrowable();
 		}
 		
@@ -814,9 +957,9 @@ public abstract class PMQuadtree {
 			throw new NotSameMetropoleThrowable();
 		}
 		
-		for (Road r : allRoads) {
-			if (Inclusive2DIntersectionVerifier.intersects(airport.localPoint2D(), 
-					r.toLine2D())) {
+		final int airportX = airport.getLocalX(), airportY = airport.getLocalY();
+		for (Road r : roadIndex.getCandidates(airportX, airportY, airportX, airportY)) {
+			if (IntegerGeometry.liesOn(airport, r)) {
 				throw new PMRuleViolationThrowable();
 			}
 		}
@@ -828,8 +971,9 @@ public abstract class PMQuadtree {
 		numAirports++;	
 		numRoadsForCity.put(airport.getName(), 0);
 		
+		beginChange();
 		needToThrowPMRuleException = false;
-		root = root.add(airport, spatialOrigin, spatialWidth, spatialHeight);
+		root = root.add(airport, 0, 0, spatialWidth, spatialHeight);
 		
 		if (needToThrowPMRuleException) {
 			throw new PMRuleViolationThrowable();
@@ -842,7 +986,7 @@ public abstract class PMQuadtree {
 			CityNotMappedThrowable, RoadIntersectingThrowable {
 		
 		//Not mapped error
-		if (!Command.remoteSpatialMap.contains(terminalConnectingCity.getName())) {
+		if (!world.getRemoteSpatialMap().contains(terminalConnectingCity.getName())) {
 			throw new CityNotMappedThrowable();
 		}
 
@@ -851,22 +995,12 @@ public abstract class PMQuadtree {
 			throw new RoadIntersectingThrowable();
 		}
 		
-		allRoads.add(terminalRoad);
-		Rectangle2D.Float world = new Rectangle2D.Float(spatialOrigin.x, spatialOrigin.y, 
-				spatialWidth, spatialHeight);
-
-		if (Inclusive2DIntersectionVerifier.intersects(terminal.localPoint2D(), world)) {
-			increaseNumRoadsMap(terminal.getTerminalName());
-		}
-		
-		City nonNullCity = terminalRoad.getStart() != null ? terminalRoad.getStart() : terminalRoad.getEnd();
-		if (Inclusive2DIntersectionVerifier.intersects(nonNullCity.toPoint2D(), world)) {
-			increaseNumRoadsMap(nonNullCity.getName());
-		}
+		countTerminalRoad(terminalRoad, terminal);
 		
-		//root = root.add(terminal, spatialOrigin, spatialWidth, spatialHeight);		
+		//root = root.add(terminal, 0, 0, spatialWidth, spatialHeight);		
+		beginChange();
 		needToThrowPMRuleException = false;
-		root = root.add(terminalRoad, spatialOrigin, spatialWidth, spatialHeight);
+		root = root.add(terminalRoad, 0, 0, spatialWidth, spatialHeight);
 		
 		if (needToThrowPMRuleException) {
 			throw new PMRuleViolationThrowable();
@@ -903,7 +1037,7 @@ public abstract class PMQuadtree {
 		}
 
 		//Not mapped error
-		if (!Command.remoteSpatialMap.contains(terminalConnectingCity.getName())) {
+		if (!world.getRemoteSpatialMap().contains(terminalConnectingCity.getName())) {
 			throw new CityNotMappedThrowable();
 		}
 
@@ -912,22 +1046,12 @@ public abstract class PMQuadtree {
 			throw new RoadIntersectingThrowable();
 		}
 		
-		allRoads.add(r);
-		Rectangle2D.Float world = new Rectangle2D.Float(spatialOrigin.x, spatialOrigin.y, 
-				spatialWidth, spatialHeight);
-
-		if (Inclusive2DIntersectionVerifier.intersects(terminal.localPoint2D(), world)) {
-			increaseNumRoadsMap(terminal.getTerminalName());
-		}
-		
-		City nonNullCity = r.getStart() != null ? r.getStart() : r.getEnd();
-		if (Inclusive2DIntersectionVerifier.intersects(nonNullCity.toPoint2D(), world)) {
-			increaseNumRoadsMap(nonNullCity.getName());
-		}
+		countTerminalRoad(r, terminal);
 		
-		//root = root.add(terminal, spatialOrigin, spatialWidth, spatialHeight);		
+		//root = root.add(terminal, 0, 0, spatialWidth, spatialHeight);		
+		beginChange();
 		needToThrowPMRuleException = false;
-		root = root.add(r, spatialOrigin, spatialWidth, spatialHeight);
+		root = root.add(r, 0, 0, spatialWidth, spatialHeight);
 		
 		if (needToThrowPMRuleException) {
 			throw new PMRuleViolationThrowable();
@@ -935,55 +1059,47 @@ public abstract class PMQuadtree {
 	}
 	
 	private boolean intersectingErrorTerminal(Road terminalRoad) {
-		
-		for (Road r : allRoads) {
-			if (Inclusive2DIntersectionVerifier.intersects(terminalRoad.toLine2D(), r.toLine2D())) {
-				int numOfAllowedIntersections = 0;
-				
-				//R start to All
-				if (r.getStart() != null && terminalRoad.getStartTerminal() != null && 
-						r.getStart().getName().equals(terminalRoad.getStartTerminal().getTerminalName())) numOfAllowedIntersections++;
-				if (r.getStart() != null && terminalRoad.getEnd() != null && 
-						r.getStart().equals(terminalRoad.getEnd())) numOfAllowedIntersections++;
-				if (r.getStart() != null && terminalRoad.getEndTerminal() != null && 
-						r.getStart().getName().equals(terminalRoad.getEndTerminal().getTerminalName())) numOfAllowedIntersections++;
-				if (r.getStart() != null && terminalRoad.getStart() != null && 
-						r.getStart().equals(terminalRoad.getStart())) numOfAllowedIntersections++;
-				//R end to all
-				if (r.getEnd() != null && terminalRoad.getStartTerminal() != null && 
-						r.getEnd().getName().equals(terminalRoad.getStartTerminal().getTerminalName())) numOfAllowedIntersections++;
-				if (r.getEnd() != null && terminalRoad.getEnd() != null && 
-						r.getEnd().equals(terminalRoad.getEnd())) numOfAllowedIntersections++;
-				if (r.getEnd() != null && terminalRoad.getEndTerminal() != null && 
-						r.getEnd().getName().equals(terminalRoad.getEndTerminal().getTerminalName())) numOfAllowedIntersections++;
-				if (r.getEnd() != null && terminalRoad.getStart() != null && 
-						r.getEnd().equals(terminalRoad.getStart())) numOfAllowedIntersections++;
-				//R startTerminal to all
-				if (r.getStartTerminal() != null && terminalRoad.getStartTerminal() != null && 
-						r.getStartTerminal().getTerminalName().equals(terminalRoad.getStartTerminal().getTerminalName())) numOfAllowedIntersections++;
-				if (r.getStartTerminal() != null && terminalRoad.getEnd() != null && 
-						r.getStartTerminal().getTerminalName().equals(terminalRoad.getEnd().getName())) numOfAllowedIntersections++;
-				if (r.getStartTerminal() != null && terminalRoad.getEndTerminal() != null && 
-						r.getStartTerminal().getTerminalName().equals(terminalRoad.getEndTerminal().getTerminalName())) numOfAllowedIntersections++;
-				if (r.getStartTerminal() != null && terminalRoad.getStart() != null && 
-						r.getStartTerminal().getTerminalName().equals(terminalRoad.getStart().getName())) numOfAllowedIntersections++;
-				//R endTerminal to all
-				if (r.getEndTerminal() != null && terminalRoad.getStartTerminal() != null && 
-						r.getEndTerminal().getTerminalName().equals(terminalRoad.getStartTerminal().getTerminalName())) numOfAllowedIntersections++;
-				if (r.getEndTerminal() != null && terminalRoad.getEnd() != null && 
-						r.getEndTerminal().getTerminalName().equals(terminalRoad.getEnd().getName())) numOfAllowedIntersections++;
-				if (r.getEndTerminal() != null && terminalRoad.getEndTerminal() != null && 
-						r.getEndTerminal().getTerminalName().equals(terminalRoad.getEndTerminal().getTerminalName())) numOfAllowedIntersections++;
-				if (r.getEndTerminal() != null && terminalRoad.getStart() != null && 
-						r.getEndTerminal().getTerminalName().equals(terminalRoad.getStart().getName())) numOfAllowedIntersections++;
-				
-				if (numOfAllowedIntersections != 1) return true;
+		for (Road r : roadIndex.getCandidates(terminalRoad.toLine2D())) {
+			if (IntegerGeometry.intersects(terminalRoad, r)) {
+				if (countSharedEndpoints(r, terminalRoad) != 1) return true;
 			}
 			//Else, safe for this iteration. Check next one to see if need to throw an error
 		}
 		
 		return false;
 	}
+
+	/**
+	 * Counts the pairs of endpoints two roads share. Two cities are the same
+	 * endpoint if they are equal; a terminal is the same endpoint only as
+	 * itself.
+	 * 
+	 * @param r
+	 *            road already mapped
+	 * @param g
+	 *            road being mapped
+	 * @return number of pairs of shared endpoints
+	 */
+	private static int countSharedEndpoints(final Road r, final Road g) {
+		int shared = 0;
+		if (isSameEndpoint(r.getStart(), r.getStartTerminal(), g.getStart(), g.getStartTerminal())) shared++;
+		if (isSameEndpoint(r.getStart(), r.getStartTerminal(), g.getEnd(), g.getEndTerminal())) shared++;
+		if (isSameEndpoint(r.getEnd(), r.getEndTerminal(), g.getStart(), g.getStartTerminal())) shared++;
+		if (isSameEndpoint(r.getEnd(), r.getEndTerminal(), g.getEnd(), g.getEndTerminal())) shared++;
+		return shared;
+	}
+
+	/**
+	 * Returns if two road endpoints, each either a city or a terminal, are the
+	 * same.
+	 */
+	private static boolean isSameEndpoint(final City city, final Terminal terminal,
+			final City otherCity, final Terminal otherTerminal) {
+		if (city != null && otherCity != null) {
+			return city.equals(otherCity);
+		}
+		return terminal != null && terminal == otherTerminal;
+	}
 	
 	public void addIsolatedCity(final City c) 
 			throws IsolatedCityAlreadyExistsThrowable, RoadAlreadyExistsThrowable, OutOfBoundsThrowable, PMRuleViolationThrowable {
@@ -1004,7 +1120,227 @@ public abstract class PMQuadtree {
 		numIsolatedCities++;
 		numRoadsForCity.put(c.getName(), 0);		
 
-		root = root.add(c, spatialOrigin, spatialWidth, spatialHeight);		
+		beginChange();
+		root = root.add(c, 0, 0, spatialWidth, spatialHeight);		
+	}
+
+	/**
+	 * Maps airports and roads to this empty PM Quadtree all at once. The tree
+	 * is built top-down: each region is given the geometry intersecting it
+	 * and is partitioned only if that breaks the rules of the PM Quadtree, so
+	 * no node is built more than once. Quadrants with enough geometry are
+	 * built in parallel. Roads with a terminal are mapped as terminal roads.
+	 * <p>
+	 * The tree built is the one mapping the airports and then the roads one
+	 * at a time would build, in any order, if every one of them were
+	 * accepted; otherwise, the tree is not changed and a throwable one of
+	 * them would have caused is thrown. Roads are checked for intersections
+	 * with the roads sharing a leaf with them, which holds every
+	 * intersection within the tree's bounds, except between roads of zero
+	 * length, which are checked against each other. Isolated cities can be
+	 * added afterwards.
+	 * 
+	 * @param airports
+	 *            airports to be mapped
+	 * @param roads
+	 *            roads and terminal roads to be mapped
+	 * @throws IllegalStateException
+	 *             if the tree is not empty
+	 */
+	public void load(final Collection<Airport> airports,
+			final Collection<Road> roads) throws OutOfBoundsThrowable,
+			RoadAlreadyExistsThrowable, RoadIntersectingThrowable,
+			PMRuleViolationThrowable {
+		if (root != white || !allRoads.isEmpty()) {
+			throw new IllegalStateException("PM Quadtree is not empty");
+		}
+
+		final Geometry[] geometry = new Geometry[airports.size() + roads.size()];
+		int size = 0;
+		for (Airport airport : airports) {
+			if (!Inclusive2DIntersectionVerifier.intersects(airport.localPoint2D(), 
+					new Rectangle2D.Float(spatialOrigin.x, spatialOrigin.y, 
+							spatialWidth, spatialHeight))) {
+				throw new OutOfBoundsThrowable();
+			}
+			geometry[size++] = airport;
+		}
+
+		/*
+		 * sorted the way allRoads is, so it can be added in linear time;
+		 * roads leaving the bounds may also intersect outside them, and roads
+		 * of zero length intersect each other wherever they are
+		 */
+		final TreeSet<Road> mapped = new TreeSet<Road>(allRoads.comparator());
+		final ArrayList<Road> unbounded = new ArrayList<Road>();
+		for (Road road : roads) {
+			if (!IntegerGeometry.intersects(road, 0, 0, spatialWidth, spatialHeight)) {
+				throw new OutOfBoundsThrowable();
+			}
+			if (!mapped.add(road) && road.getStartTerminal() == null
+					&& road.getEndTerminal() == null) {
+				throw new RoadAlreadyExistsThrowable();
+			}
+			if (road.getDistance() == 0
+					|| !IntegerGeometry.intersects(getStartPoint(road), 0, 0, spatialWidth, spatialHeight)
+					|| !IntegerGeometry.intersects(getEndPoint(road), 0, 0, spatialWidth, spatialHeight)) {
+				for (Road r : unbounded) {
+					if (IntegerGeometry.intersects(road, r) && countSharedEndpoints(r, road) != 1) {
+						throw new RoadIntersectingThrowable();
+					}
+				}
+				unbounded.add(road);
+			}
+			geometry[size++] = road;
+		}
+
+		/* sorted once here, the geometry of every region is in order */
+		Arrays.sort(geometry);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		beginChange();
+		final Node newRoot = ForkJoinPool.commonPool().invoke(
+				new BuildTask(geometry, 0, 0, spatialWidth, spatialHeight, failure));
+		if (failure.get() instanceof RoadIntersectingThrowable) {
+			throw (RoadIntersectingThrowable)failure.get();
+		} else if (failure.get() != null) {
+			throw (PMRuleViolationThrowable)failure.get();
+		}
+		root = newRoot;
+
+		allRoads.addAll(mapped);
+		for (Road road : mapped) {
+			roadIndex.add(road);
+			countIncidentRoad(road);
+		}
+		for (Airport airport : airports) {
+			numAirports++;
+			numRoadsForCity.put(airport.getName(), 0);
+		}
+		for (Road road : roads) {
+			if (road.getStartTerminal() != null) {
+				countTerminalEndpoints(road, road.getStartTerminal());
+			} else if (road.getEndTerminal() != null) {
+				countTerminalEndpoints(road, road.getEndTerminal());
+			} else {
+				countEndpoints(road);
+			}
+		}
+	}
+
+	/**
+	 * Gets the city or terminal a road starts at.
+	 */
+	private static Geometry getStartPoint(final Road road) {
+		return road.getStartTerminal() != null ? road.getStartTerminal() : road.getStart();
+	}
+
+	/**
+	 * Gets the city or terminal a road ends at.
+	 */
+	private static Geometry getEndPoint(final Road road) {
+		return road.getEndTerminal() != null ? road.getEndTerminal() : road.getEnd();
+	}
+
+	/**
+	 * Adds a mapped road to the set of all roads and counts it for each of
+	 * its cities within the bounds.
+	 */
+	private void countRoad(final Road g) {
+		addToAllRoads(g);
+		countEndpoints(g);
+	}
+
+	/**
+	 * Counts a mapped road for each of its cities within the bounds.
+	 */
+	private void countEndpoints(final Road g) {
+		if (IntegerGeometry.intersects(g.getStart(), 0, 0, spatialWidth, spatialHeight)) {
+			increaseNumRoadsMap(g.getStart().getName());
+		}
+		if (IntegerGeometry.intersects(g.getEnd(), 0, 0, spatialWidth, spatialHeight)) {
+			increaseNumRoadsMap(g.getEnd().getName());
+		}
+	}
+
+	/**
+	 * Adds a terminal road to the set of all roads and counts it for its
+	 * terminal and its city, if they are within the bounds.
+	 */
+	private void countTerminalRoad(final Road r, final Terminal terminal) {
+		addToAllRoads(r);
+		countTerminalEndpoints(r, terminal);
+	}
+
+	/**
+	 * Counts a terminal road for its terminal and its city, if they are
+	 * within the bounds.
+	 */
+	private void countTerminalEndpoints(final Road r, final Terminal terminal) {
+		Rectangle2D.Float world = new Rectangle2D.Float(spatialOrigin.x, spatialOrigin.y, 
+				spatialWidth, spatialHeight);
+
+		if (Inclusive2DIntersectionVerifier.intersects(terminal.localPoint2D(), world)) {
+			increaseNumRoadsMap(terminal.getTerminalName());
+		}
+		
+		City nonNullCity = r.getStart() != null ? r.getStart() : r.getEnd();
+		if (Inclusive2DIntersectionVerifier.intersects(nonNullCity.toPoint2D(), world)) {
+			increaseNumRoadsMap(nonNullCity.getName());
+		}
+	}
+
+	/**
+	 * Adds a road to the set of all roads and, if it was not already there,
+	 * to the road index and the counts of incident roads.
+	 * 
+	 * @param road
+	 *            road to be added
+	 */
+	private void addToAllRoads(final Road road) {
+		if (allRoads.add(road)) {
+			roadIndex.add(road);
+			countIncidentRoad(road);
+		}
+	}
+
+	/**
+	 * Counts a road as incident to its cities. A road with a start city is
+	 * counted from the start side for both its cities, and a road with an end
+	 * city from the end side, once per city.
+	 */
+	private void countIncidentRoad(final Road road) {
+		final City start = road.getStart(), end = road.getEnd();
+		if (start != null) {
+			increaseCount(incidentRoads, new Endpoints(start, null), 0);
+			if (end != null && !end.equals(start)) {
+				increaseCount(incidentRoads, new Endpoints(end, null), 0);
+			}
+		}
+		if (end != null) {
+			increaseCount(incidentRoads, new Endpoints(end, null), 1);
+			if (start != null && !start.equals(end)) {
+				increaseCount(incidentRoads, new Endpoints(start, null), 1);
+			}
+		}
+		if (start != null && end != null) {
+			increaseCount(parallelRoads, new Endpoints(start, end), 0);
+		}
+	}
+
+	private static void increaseCount(final HashMap<Endpoints, int[]> counts,
+			final Endpoints key, final int side) {
+		int[] count = counts.get(key);
+		if (count == null) {
+			count = new int[2];
+			counts.put(key, count);
+		}
+		count[side]++;
+	}
+
+	private static int getCount(final HashMap<Endpoints, int[]> counts,
+			final Endpoints key, final int side) {
+		final int[] count = counts.get(key);
+		return count == null ? 0 : count[side];
 	}
 
 	private void increaseNumRoadsMap(final String name) {
@@ -1031,6 +1367,9 @@ public abstract class PMQuadtree {
 	public void clear() {
 		root = white;
 		allRoads.clear();
+		roadIndex.clear();
+		incidentRoads.clear();
+		parallelRoads.clear();
 		numRoadsForCity.clear();
 		numIsolatedCities = 0;
 	}
@@ -1076,6 +1415,16 @@ public abstract class PMQuadtree {
 		return true;
 	}
 
+	/**
+	 * Removes a road from the PM Quadtree, along with each of its cities that
+	 * no other road in the set of all roads touches. Roads stay in that set
+	 * once mapped, so the counts of incident roads only grow; other roads are
+	 * those not equal to this one, and there are as many roads equal to it as
+	 * there are between cities equal to its own.
+	 * 
+	 * @param road
+	 *            road to be removed
+	 */
 	public void deleteGeometry(Road road) throws StartDoesNotExistThrowable, EndDoesNotExistThrowable {
 		//TODO: Make the road throw an error when encountering a terminalCity
 		if (road.getStartTerminal() != null) {
@@ -1084,35 +1433,23 @@ public abstract class PMQuadtree {
 			throw new EndDoesNotExistThrowable();
 		}
 		
-		root = root.remove(road, spatialOrigin, spatialWidth, spatialHeight);
+		beginChange();
+		root = root.remove(road, 0, 0, spatialWidth, spatialHeight);
 		
-		boolean cannotRemoveStart = false, cannotRemoveEnd = false;
-		
-		for (Road existingRoad : allRoads) {
-			if (!existingRoad.equals(road)) {
-				if (existingRoad.getStart() != null) {
-					if (road.getStart().equals(existingRoad.getStart()) || 
-							road.getStart().equals(existingRoad.getEnd())) {
-						cannotRemoveStart = true;
-					}
-				}
-				
-				if (existingRoad.getEnd() != null) {
-					if (road.getEnd().equals(existingRoad.getEnd())
-							|| road.getEnd().equals(existingRoad.getStart())) {
-						cannotRemoveEnd = true;
-					}
-				}
-			}
-		}
+		final int equalRoads = getCount(parallelRoads, new Endpoints(
+				road.getStart(), road.getEnd()), 0);
+		final boolean cannotRemoveStart = getCount(incidentRoads,
+				new Endpoints(road.getStart(), null), 0) > equalRoads;
+		final boolean cannotRemoveEnd = getCount(incidentRoads,
+				new Endpoints(road.getEnd(), null), 1) > equalRoads;
 		
 		if (!cannotRemoveStart) {
-			root = root.remove(road.getStart(), spatialOrigin, spatialWidth, spatialHeight);
+			root = root.remove(road.getStart(), 0, 0, spatialWidth, spatialHeight);
 			decreaseNumRoadsMap(road.getStart().getName());
 		}
 		
 		if (!cannotRemoveEnd) {
-			root = root.remove(road.getEnd(), spatialOrigin, spatialWidth, spatialHeight);
+			root = root.remove(road.getEnd(), 0, 0, spatialWidth, spatialHeight);
 			if (cannotRemoveStart) 	
 				decreaseNumRoadsMap(road.getEnd().getName());
 		}
@@ -1120,19 +1457,335 @@ public abstract class PMQuadtree {
 	}
 
 	public void deleteGeometry(Airport airport) {
-		root = root.remove(airport, spatialOrigin, spatialWidth, spatialHeight);
+		beginChange();
+		root = root.remove(airport, 0, 0, spatialWidth, spatialHeight);
 	}
 
 	public void deleteGeometry(Terminal terminal, boolean roadOnly) {
 		if (roadOnly) {
-			root = root.remove(new Road(terminal), spatialOrigin, spatialWidth, spatialHeight);
+			beginChange();
+			root = root.remove(new Road(terminal), 0, 0, spatialWidth, spatialHeight);
 		} else {
-			root = root.remove(terminal, spatialOrigin, spatialWidth, spatialHeight);
-			root = root.remove(new Road(terminal), spatialOrigin, spatialWidth, spatialHeight);
+			beginChange();
+			root = root.remove(terminal, 0, 0, spatialWidth, spatialHeight);
+			root = root.remove(new Road(terminal), 0, 0, spatialWidth, spatialHeight);
 		}
 	}
 
 	public void deleteGeometry(City city) {
-		root = root.remove(city, spatialOrigin, spatialWidth, spatialHeight);
+		beginChange();
+		root = root.remove(city, 0, 0, spatialWidth, spatialHeight);
+	}
+
+	/**
+	 * Writes the state of this PM Quadtree to a snapshot: its mapped roads,
+	 * its road counts and the shape of its nodes. The validator and spatial
+	 * bounds are not written.
+	 * 
+	 * @param out
+	 *            snapshot being written
+	 * @throws IOException
+	 *             problem writing the snapshot
+	 */
+	public void writeSnapshot(final SnapshotWriter out) throws IOException {
+		out.writeInt(allRoads.size());
+		for (Road road : allRoads) {
+			out.writeObject(road);
+		}
+		out.writeInt(numRoadsForCity.size());
+		for (Map.Entry<String, Integer> entry : numRoadsForCity.entrySet()) {
+			out.writeObject(entry.getKey());
+			out.writeInt(entry.getValue());
+		}
+		out.writeInt(allMappedTerminalCities.size());
+		for (City city : allMappedTerminalCities) {
+			out.writeObject(city);
+		}
+		out.writeInt(numIsolatedCities);
+		out.writeInt(numAirports);
+		out.writeInt(numTerminals);
+		writeNode(out, root);
+	}
+
+	private void writeNode(final SnapshotWriter out, final Node node)
+			throws IOException {
+		out.writeInt(node.getType());
+		if (node.getType() == Node.BLACK) {
+			final Black black = (Black) node;
+			out.writeInt(black.geometry.getNumPoints());
+			out.writeInt(black.geometry.size());
+			for (Geometry g : black.geometry) {
+				out.writeObject(g);
+			}
+		} else if (node.getType() == Node.GRAY) {
+			final Gray gray = (Gray) node;
+			out.writeInt(gray.originX);
+			out.writeInt(gray.originY);
+			out.writeInt(gray.halfWidth);
+			out.writeInt(gray.halfHeight);
+			for (Node child : gray.children) {
+				writeNode(out, child);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the state of this PM Quadtree with that read from a snapshot.
+	 * Nodes are linked as they were written; no road is checked against the
+	 * rules of the PM Quadtree or against the other roads.
+	 * 
+	 * @param in
+	 *            snapshot being read
+	 * @throws IOException
+	 *             the snapshot is malformed
+	 */
+	public void readSnapshot(final SnapshotReader in) throws IOException {
+		clear();
+		allMappedTerminalCities.clear();
+		final int numRoads = in.readInt();
+		for (int i = 0; i < numRoads; i++) {
+			addToAllRoads(in.read(Road.class));
+		}
+		final int numCities = in.readInt();
+		for (int i = 0; i < numCities; i++) {
+			numRoadsForCity.put(in.readString(), in.readInt());
+		}
+		final int numTerminalCities = in.readInt();
+		for (int i = 0; i < numTerminalCities; i++) {
+			allMappedTerminalCities.add(in.readCity());
+		}
+		numIsolatedCities = in.readInt();
+		numAirports = in.readInt();
+		numTerminals = in.readInt();
+		root = readNode(in);
+	}
+
+	private Node readNode(final SnapshotReader in) throws IOException {
+		final int type = in.readInt();
+		if (type == Node.WHITE) {
+			return white;
+		} else if (type == Node.BLACK) {
+			final Black black = new Black();
+			final int numPoints = in.readInt();
+			final int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				final Geometry g = in.read(Geometry.class);
+				black.geometry.append(g);
+				validator.added(black, g);
+			}
+			if (black.geometry.getNumPoints() != numPoints) {
+				throw new IOException("bad PM Quadtree black node");
+			}
+			return black;
+		} else if (type == Node.GRAY) {
+			final int originX = in.readInt();
+			final int originY = in.readInt();
+			final Gray gray = new Gray(originX, originY, in.readInt() << 1,
+					in.readInt() << 1);
+			for (int i = 0; i < 4; i++) {
+				gray.children[i] = readNode(in);
+			}
+			return gray;
+		} else {
+			throw new IOException("bad PM Quadtree node type " + type);
+		}
+	}
+
+	/**
+	 * Builds the node of a region from the sorted airports and roads
+	 * intersecting it, for {@link #load}. A region with at most one point
+	 * whose geometry is valid becomes a black node, whose roads are checked
+	 * against each other; any other region becomes a gray node, whose
+	 * quadrants are built as tasks of their own, forked if the region has
+	 * enough geometry. The first problem found is recorded, after which the
+	 * remaining tasks build nothing.
+	 */
+	private class BuildTask extends RecursiveTask<Node> {
+		private static final long serialVersionUID = 1L;
+
+		/** least geometry in a region to build its quadrants in parallel */
+		private static final int FORK_THRESHOLD = 1 << 10;
+
+		/** sorted airports and roads intersecting the region */
+		private final Geometry[] geometry;
+
+		/** x coordinate of the origin of the region */
+		private final int originX;
+
+		/** y coordinate of the origin of the region */
+		private final int originY;
+
+		/** width of the region */
+		private final int width;
+
+		/** height of the region */
+		private final int height;
+
+		/** first throwable found by any task of the load */
+		private final AtomicReference<Throwable> failure;
+
+		private BuildTask(final Geometry[] geometry, final int originX,
+				final int originY, final int width, final int height,
+				final AtomicReference<Throwable> failure) {
+			this.geometry = geometry;
+			this.originX = originX;
+			this.originY = originY;
+			this.width = width;
+			this.height = height;
+			this.failure = failure;
+		}
+
+		protected Node compute() {
+			if (geometry.length == 0 || failure.get() != null) {
+				return white;
+			}
+
+			final Black black = createBlack();
+			if (black != null && black.isValid()) {
+				checkRoads(black.geometry);
+				return black;
+			}
+			if ((width >> 1) < 1 || (height >> 1) < 1) {
+				failure.compareAndSet(null, new PMRuleViolationThrowable());
+				return white;
+			}
+
+			final Gray gray = new Gray(originX, originY, width, height);
+			final BuildTask[] tasks = new BuildTask[4];
+			for (int i = 0; i < 4; i++) {
+				tasks[i] = new BuildTask(select(gray, i), gray.getChildX(i),
+						gray.getChildY(i), gray.halfWidth, gray.halfHeight,
+						failure);
+			}
+			if (geometry.length >= FORK_THRESHOLD) {
+				invokeAll(tasks);
+				for (int i = 0; i < 4; i++) {
+					gray.children[i] = tasks[i].join();
+				}
+			} else {
+				for (int i = 0; i < 4; i++) {
+					gray.children[i] = tasks[i].compute();
+				}
+			}
+			return gray;
+		}
+
+		/**
+		 * Creates the black node holding the region's geometry, with the
+		 * endpoints of its roads within the region, or returns
+		 * <code>null</code> if the region holds more distinct points than the
+		 * rules let a leaf hold.
+		 */
+		private Black createBlack() {
+			final int maxPoints = validator.getMaxPoints();
+			final List<Geometry> points = new ArrayList<Geometry>(maxPoints);
+			for (Geometry g : geometry) {
+				final int numEnds = g.isRoad() ? 2 : 1;
+				for (int end = 0; end < numEnds; end++) {
+					final Geometry p;
+					if (!g.isRoad()) {
+						p = g;
+					} else {
+						p = end == 0 ? getStartPoint((Road)g) : getEndPoint((Road)g);
+						if (!IntegerGeometry.intersects(p, originX, originY, width, height)) {
+							continue;
+						}
+					}
+					if (!containsPoint(points, p)) {
+						if (points.size() == maxPoints) return null;
+						points.add(p);
+					}
+				}
+			}
+
+			final Black black = new Black();
+			for (Geometry p : points) {
+				black.addGeometryToList(p);
+			}
+			for (Geometry g : geometry) {
+				if (g.isRoad()) {
+					black.addGeometryToList(g);
+				}
+			}
+			return black;
+		}
+
+		/**
+		 * Returns if a point equals one of the points found so far.
+		 */
+		private boolean containsPoint(final List<Geometry> points, final Geometry p) {
+			for (int i = 0; i < points.size(); i++) {
+				if (points.get(i).compareTo(p) == 0) return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Records an intersection between two roads of a leaf, unless they
+		 * meet at one shared endpoint.
+		 */
+		private void checkRoads(final GeometryList leaf) {
+			for (int i = leaf.getNumPoints(); i < leaf.size(); i++) {
+				final Road r = (Road)leaf.get(i);
+				for (int j = i + 1; j < leaf.size(); j++) {
+					final Road g = (Road)leaf.get(j);
+					if (IntegerGeometry.intersects(g, r) && countSharedEndpoints(r, g) != 1) {
+						failure.compareAndSet(null, new RoadIntersectingThrowable());
+						return;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Selects the geometry intersecting a quadrant of the region, in
+		 * order.
+		 */
+		private Geometry[] select(final Gray gray, final int quadrant) {
+			final ArrayList<Geometry> selected = new ArrayList<Geometry>();
+			for (Geometry g : geometry) {
+				if (gray.intersectsChild(g, quadrant)) {
+					selected.add(g);
+				}
+			}
+			return selected.toArray(new Geometry[selected.size()]);
+		}
+	}
+
+	/**
+	 * Key of one city, or of an ordered pair of cities, comparing them the way
+	 * <code>City.equals</code> does: by location, radius and color, but not
+	 * by name.
+	 */
+	protected static final class Endpoints {
+		/** first city */
+		final City first;
+
+		/** second city, or <code>null</code> for a key of one city */
+		final City second;
+
+		Endpoints(final City first, final City second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Endpoints)) {
+				return false;
+			}
+			final Endpoints e = (Endpoints) obj;
+			return first.equals(e.first)
+					&& (second == null ? e.second == null : second
+							.equals(e.second));
+		}
+
+		public int hashCode() {
+			return 37 * hash(first) + hash(second);
+		}
+
+		private static int hash(final City city) {
+			return city == null ? 0 : 37 * city.getLocalX()
+					+ city.getLocalY();
+		}
 	}
 }
@@ -0,0 +1,332 @@
+package cmsc420.pmquadtree;
+
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+
+import cmsc420.geometry.Road;
+
+/**
+ * PMR quadtree over the segments of the roads of a PM Quadtree, used to find
+ * the few roads a new segment could intersect without testing every road. A
+ * leaf holds every road whose segment may pass through its closed region.
+ * When an insertion takes a leaf past {@link #BUCKET_SIZE} roads it is split
+ * into four, once: the new leaves are not split again by the same insertion,
+ * which keeps roads that cannot be separated from being split down to the
+ * smallest regions. Regions one unit wide or high are not split.
+ * <p>
+ * The index holds exactly the roads in the PM Quadtree's set of all roads,
+ * which also keeps roads whose segments have been removed from the tree
+ * itself. The tree's own nodes cannot stand in for it.
+ * <p>
+ * Candidates are a superset of the roads a segment intersects. If two
+ * segments meet at a point, that point lies in the closed region of some
+ * leaf which both segments pass through, so both are stored there. Whether a
+ * segment passes through a region is decided with exact arithmetic on
+ * integer coordinates up to {@link #EXACT_LIMIT} in magnitude, where
+ * <code>Line2D.intersectsLine</code> is exact too. Roads with larger
+ * coordinates are returned as candidates for every segment, and segments
+ * with larger coordinates get every road as a candidate.
+ * <p>
+ * <code>Line2D.intersectsLine</code> finds that two segments of zero length
+ * intersect wherever they are, so a road of zero length is a candidate for
+ * every other segment of zero length.
+ * <p>
+ * A point is found to lie on a segment when its squared distance from the
+ * segment rounds to zero, so a segment passing very close to the point is
+ * found too. Such a segment passes through a leaf holding the point as long
+ * as the point lies strictly inside the root's region; roads reaching outside
+ * the region are candidates for any query that touches its boundary.
+ */
+class RoadIndex {
+	/** roads a leaf holds before it is split */
+	static final int BUCKET_SIZE = 8;
+
+	/** largest coordinate magnitude the index decides intersections for */
+	static final double EXACT_LIMIT = 1 << 20;
+
+	/** a road and the bounds of its segment */
+	private static final class Entry {
+		/** road indexed */
+		final Road road;
+
+		/** endpoints of the road's segment */
+		final double x1, y1, x2, y2;
+
+		/** query that last returned this entry */
+		int mark = 0;
+
+		Entry(final Road road) {
+			this.road = road;
+			final Line2D line = road.toLine2D();
+			x1 = line.getX1();
+			y1 = line.getY1();
+			x2 = line.getX2();
+			y2 = line.getY2();
+		}
+	}
+
+	/** node of the quadtree, covering a closed region */
+	private static final class Node {
+		/** bounds of the closed region */
+		final int minX, minY, maxX, maxY;
+
+		/** roads that may pass through the region, if this is a leaf */
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+
+		/** children, if this is an internal node */
+		Node[] children;
+
+		Node(final int minX, final int minY, final int maxX, final int maxY) {
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+		}
+	}
+
+	/** root of the quadtree, covering the spatial bounds */
+	private Node root;
+
+	/** bounds of the root's region */
+	private final int width, height;
+
+	/** every indexed road */
+	private final ArrayList<Entry> all = new ArrayList<Entry>();
+
+	/** roads reaching outside the root's region */
+	private final ArrayList<Entry> outside = new ArrayList<Entry>();
+
+	/** roads whose segments have zero length */
+	private final ArrayList<Entry> points = new ArrayList<Entry>();
+
+	/** roads whose coordinates are too large to index */
+	private final ArrayList<Entry> unindexed = new ArrayList<Entry>();
+
+	/** candidates found by the last query */
+	private final ArrayList<Road> candidates = new ArrayList<Road>();
+
+	/** mark of the last query */
+	private int mark = 0;
+
+	/**
+	 * Constructs an empty index over the given spatial bounds.
+	 *
+	 * @param width
+	 *            spatial width covered by the quadtree
+	 * @param height
+	 *            spatial height covered by the quadtree
+	 */
+	RoadIndex(final int width, final int height) {
+		this.width = width;
+		this.height = height;
+		root = new Node(0, 0, width, height);
+	}
+
+	/**
+	 * Adds a road to the index.
+	 *
+	 * @param road
+	 *            road to be added
+	 */
+	void add(final Road road) {
+		final Entry entry = new Entry(road);
+		all.add(entry);
+		if (entry.x1 == entry.x2 && entry.y1 == entry.y2) {
+			points.add(entry);
+		}
+		if (!isExact(entry.x1, entry.y1, entry.x2, entry.y2)
+				|| width > EXACT_LIMIT || height > EXACT_LIMIT) {
+			unindexed.add(entry);
+			return;
+		}
+		if (!isInside(entry.x1, entry.y1, entry.x2, entry.y2)) {
+			outside.add(entry);
+		}
+		add(root, entry);
+	}
+
+	/**
+	 * Removes every road from the index.
+	 */
+	void clear() {
+		root = new Node(0, 0, width, height);
+		all.clear();
+		outside.clear();
+		points.clear();
+		unindexed.clear();
+	}
+
+	/**
+	 * Gets the roads a segment may intersect. Every road it does intersect is
+	 * among them, each once. The list returned is reused by the next query.
+	 *
+	 * @param segment
+	 *            segment to be checked
+	 * @return roads the segment may intersect
+	 */
+	ArrayList<Road> getCandidates(final Line2D segment) {
+		return getCandidates(segment.getX1(), segment.getY1(),
+				segment.getX2(), segment.getY2());
+	}
+
+	/**
+	 * Gets the roads the segment from (x1,y1) to (x2,y2) may intersect. Every
+	 * road it does intersect is among them, each once. The list returned is
+	 * reused by the next query.
+	 *
+	 * @return roads the segment may intersect
+	 */
+	ArrayList<Road> getCandidates(final double x1, final double y1,
+			final double x2, final double y2) {
+		candidates.clear();
+		if (!isExact(x1, y1, x2, y2)) {
+			for (Entry entry : all) {
+				candidates.add(entry.road);
+			}
+			return candidates;
+		}
+
+		if (++mark == 0) {
+			/* wrapped around; forget every old mark */
+			for (Entry entry : all) {
+				entry.mark = 0;
+			}
+			mark = 1;
+		}
+		collect(root, x1, y1, x2, y2);
+		if (!isStrictlyInside(x1, y1, x2, y2)) {
+			collect(outside);
+		}
+		if (x1 == x2 && y1 == y2) {
+			collect(points);
+		}
+		collect(unindexed);
+		return candidates;
+	}
+
+	/**
+	 * Adds an entry to every leaf below a node whose region its segment may
+	 * pass through, splitting leaves that grow too large.
+	 */
+	private void add(final Node node, final Entry entry) {
+		if (!crosses(node, entry.x1, entry.y1, entry.x2, entry.y2)) {
+			return;
+		}
+		if (node.children != null) {
+			for (Node child : node.children) {
+				add(child, entry);
+			}
+			return;
+		}
+		node.entries.add(entry);
+		if (node.entries.size() > BUCKET_SIZE && node.maxX - node.minX > 1
+				&& node.maxY - node.minY > 1) {
+			split(node);
+		}
+	}
+
+	/**
+	 * Turns a leaf into an internal node with four leaves covering its
+	 * region, and moves its entries into them without splitting them.
+	 */
+	private void split(final Node node) {
+		final int midX = node.minX + ((node.maxX - node.minX) >> 1);
+		final int midY = node.minY + ((node.maxY - node.minY) >> 1);
+		node.children = new Node[] {
+				new Node(node.minX, midY, midX, node.maxY),
+				new Node(midX, midY, node.maxX, node.maxY),
+				new Node(node.minX, node.minY, midX, midY),
+				new Node(midX, node.minY, node.maxX, midY) };
+		for (Entry entry : node.entries) {
+			for (Node child : node.children) {
+				if (crosses(child, entry.x1, entry.y1, entry.x2, entry.y2)) {
+					child.entries.add(entry);
+				}
+			}
+		}
+		node.entries = null;
+	}
+
+	/**
+	 * Collects the roads of every leaf below a node whose region a segment
+	 * may pass through.
+	 */
+	private void collect(final Node node, final double x1, final double y1,
+			final double x2, final double y2) {
+		if (!crosses(node, x1, y1, x2, y2)) {
+			return;
+		}
+		if (node.children != null) {
+			for (Node child : node.children) {
+				collect(child, x1, y1, x2, y2);
+			}
+		} else {
+			collect(node.entries);
+		}
+	}
+
+	/**
+	 * Collects the roads of a list of entries not already collected by this
+	 * query.
+	 */
+	private void collect(final ArrayList<Entry> entries) {
+		for (int i = 0; i < entries.size(); i++) {
+			final Entry entry = entries.get(i);
+			if (entry.mark != mark) {
+				entry.mark = mark;
+				candidates.add(entry.road);
+			}
+		}
+	}
+
+	/**
+	 * Returns if a segment passes through the closed region of a node: its
+	 * bounding box overlaps the region, and the corners of the region do not
+	 * all lie strictly on one side of its line. Exact for coordinates within
+	 * the exact limit.
+	 */
+	private static boolean crosses(final Node node, final double x1,
+			final double y1, final double x2, final double y2) {
+		if (Math.max(x1, x2) < node.minX || Math.min(x1, x2) > node.maxX
+				|| Math.max(y1, y2) < node.minY
+				|| Math.min(y1, y2) > node.maxY) {
+			return false;
+		}
+		final double dx = x2 - x1, dy = y2 - y1;
+		final double a = dx * (node.minY - y1) - dy * (node.minX - x1);
+		final double b = dx * (node.minY - y1) - dy * (node.maxX - x1);
+		final double c = dx * (node.maxY - y1) - dy * (node.minX - x1);
+		final double d = dx * (node.maxY - y1) - dy * (node.maxX - x1);
+		return !(a > 0 && b > 0 && c > 0 && d > 0)
+				&& !(a < 0 && b < 0 && c < 0 && d < 0);
+	}
+
+	/**
+	 * Returns if a segment lies within the region of the root.
+	 */
+	private boolean isInside(final double x1, final double y1,
+			final double x2, final double y2) {
+		return Math.min(x1, x2) >= 0 && Math.max(x1, x2) <= width
+				&& Math.min(y1, y2) >= 0 && Math.max(y1, y2) <= height;
+	}
+
+	/**
+	 * Returns if a segment lies within the region of the root without
+	 * touching its boundary.
+	 */
+	private boolean isStrictlyInside(final double x1, final double y1,
+			final double x2, final double y2) {
+		return Math.min(x1, x2) > 0 && Math.max(x1, x2) < width
+				&& Math.min(y1, y2) > 0 && Math.max(y1, y2) < height;
+	}
+
+	/**
+	 * Returns if the coordinates of a segment are small enough for
+	 * intersections with it to be decided exactly.
+	 */
+	private static boolean isExact(final double x1, final double y1,
+			final double x2, final double y2) {
+		return Math.abs(x1) <= EXACT_LIMIT && Math.abs(y1) <= EXACT_LIMIT
+				&& Math.abs(x2) <= EXACT_LIMIT && Math.abs(y2) <= EXACT_LIMIT;
+	}
+}
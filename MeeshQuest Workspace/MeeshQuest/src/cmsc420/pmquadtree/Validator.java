@@ -1,8 +1,69 @@
 package cmsc420.pmquadtree;
 
+import cmsc420.geometry.Geometry;
 import cmsc420.pmquadtree.PMQuadtree.Black;
+import cmsc420.pmquadtree.PMQuadtree.Node;
 
+/**
+ * Decides whether black nodes follow the rules of a PM Quadtree. Whatever
+ * summary of a node's geometry the rules need is kept up to date as geometry
+ * is added to and removed from the node, so that checking a node takes
+ * constant time.
+ */
 public interface Validator {
 
+	/**
+	 * Returns if a black node follows the rules of the PM Quadtree.
+	 * 
+	 * @param node
+	 *            black node to be checked
+	 * @return <code>true</code> if the node follows the rules
+	 */
 	public boolean valid(Black node);
+
+	/**
+	 * Updates the summary of a black node after geometry has been added to
+	 * it.
+	 * 
+	 * @param node
+	 *            black node the geometry was added to
+	 * @param g
+	 *            geometry added
+	 */
+	public void added(Black node, Geometry g);
+
+	/**
+	 * Updates the summary of a black node after geometry has been removed
+	 * from it.
+	 * 
+	 * @param node
+	 *            black node the geometry was removed from
+	 * @param g
+	 *            geometry removed
+	 */
+	public void removed(Black node, Geometry g);
+
+	/**
+	 * Gets the most distinct points the rules let a black node hold.
+	 * 
+	 * @return most points in a black node
+	 */
+	public int getMaxPoints();
+
+	/**
+	 * Returns if the geometry of a gray node's children, none of them gray,
+	 * could make a valid black node, judging from their summaries alone. The
+	 * children hold at most {@link #getMaxPoints()} distinct points between
+	 * them. May accept geometry that turns out not to be valid once merged,
+	 * but never rejects geometry that would be.
+	 * 
+	 * @param children
+	 *            white and black children of the gray node
+	 * @param point
+	 *            a point the children hold, or <code>null</code> if they
+	 *            hold none
+	 * @return <code>false</code> if merging the children cannot give a valid
+	 *         black node
+	 */
+	public boolean mayMerge(Node[] children, Geometry point);
 }
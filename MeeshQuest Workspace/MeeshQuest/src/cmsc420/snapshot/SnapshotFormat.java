@@ -0,0 +1,58 @@
+package cmsc420.snapshot;
+
+/**
+ * Layout of a snapshot file, which holds the state of one MeeshQuest world so
+ * it can be restored without replaying the commands that built it.
+ * <p>
+ * A snapshot file starts with the four bytes <code>MQS1</code> and a 4-byte
+ * version number. The rest of the file is written by each structure in turn,
+ * as integers, floats and object references. All numbers are big-endian.
+ * <p>
+ * Names and geometry are written as object references, so an object shared
+ * by several structures is written once and is shared again when the
+ * snapshot is read. A reference is a 4-byte integer:
+ * <ul>
+ * <li><code>0</code> for <code>null</code></li>
+ * <li><code>-1</code> for an object written for the first time, followed by
+ * a 1-byte kind and the object's fields. Objects are numbered from 1 in the
+ * order their definitions end, so the objects a definition refers to are
+ * numbered before it.</li>
+ * <li>the number of an object already written</li>
+ * </ul>
+ * Strings are written as a 4-byte length followed by that many bytes of
+ * UTF-8.
+ */
+final class SnapshotFormat {
+	/** first four bytes of every snapshot file: "MQS1" */
+	static final int MAGIC = 0x4D515331;
+
+	/** version of the layout written by this code */
+	static final int VERSION = 4;
+
+	/** reference to <code>null</code> */
+	static final int NULL = 0;
+
+	/** reference to an object defined where it is referred to */
+	static final int DEFINITION = -1;
+
+	/** kind of a string definition */
+	static final byte STRING = 0;
+
+	/** kind of a city definition */
+	static final byte CITY = 1;
+
+	/** kind of an airport definition */
+	static final byte AIRPORT = 2;
+
+	/** kind of a terminal definition */
+	static final byte TERMINAL = 3;
+
+	/** kind of a road definition */
+	static final byte ROAD = 4;
+
+	/** kind of a metropole definition */
+	static final byte METROPOLE = 5;
+
+	private SnapshotFormat() {
+	}
+}
@@ -0,0 +1,221 @@
+package cmsc420.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import cmsc420.geometry.Airport;
+import cmsc420.geometry.City;
+import cmsc420.geometry.Metropole;
+import cmsc420.geometry.Road;
+import cmsc420.geometry.Terminal;
+
+/**
+ * Reads a snapshot file in the layout described by {@link SnapshotFormat}.
+ * Each structure reads back its own state in the order it wrote it. Nothing
+ * read is validated beyond the layout itself: the snapshot is trusted to hold
+ * state that was valid when it was written.
+ */
+public class SnapshotReader {
+	/** buffer holding the snapshot */
+	private final ByteBuffer buffer;
+
+	/** each object read so far, indexed by its number less one */
+	private final ArrayList<Object> objects = new ArrayList<Object>();
+
+	/**
+	 * Constructs a reader over a buffer holding a snapshot file.
+	 *
+	 * @param buffer
+	 *            buffer positioned at the start of the file
+	 * @throws IOException
+	 *             the buffer does not hold a snapshot file of this version
+	 */
+	public SnapshotReader(final ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.remaining() < 8
+				|| buffer.getInt() != SnapshotFormat.MAGIC) {
+			throw new IOException("not a snapshot file");
+		}
+		final int version = buffer.getInt();
+		if (version != SnapshotFormat.VERSION) {
+			throw new IOException("unsupported snapshot version " + version);
+		}
+	}
+
+	/**
+	 * Opens a reader over a snapshot file, mapping the file into memory.
+	 *
+	 * @param file
+	 *            snapshot file
+	 * @return reader over the file
+	 * @throws IOException
+	 *             problem mapping the file, or it is not a snapshot file
+	 */
+	public static SnapshotReader open(final File file) throws IOException {
+		final RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = input.getChannel();
+			/* the mapping stays valid after the file is closed */
+			return new SnapshotReader(channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Reads an integer.
+	 *
+	 * @return integer read
+	 * @throws IOException
+	 *             the snapshot is cut off
+	 */
+	public int readInt() throws IOException {
+		try {
+			return buffer.getInt();
+		} catch (BufferUnderflowException e) {
+			throw new IOException("snapshot cut off");
+		}
+	}
+
+	/**
+	 * Reads a float.
+	 *
+	 * @return float read
+	 * @throws IOException
+	 *             the snapshot is cut off
+	 */
+	public float readFloat() throws IOException {
+		try {
+			return buffer.getFloat();
+		} catch (BufferUnderflowException e) {
+			throw new IOException("snapshot cut off");
+		}
+	}
+
+	/**
+	 * Reads a boolean written as one byte.
+	 *
+	 * @return boolean read
+	 * @throws IOException
+	 *             the snapshot is cut off
+	 */
+	public boolean readBoolean() throws IOException {
+		try {
+			return buffer.get() != 0;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("snapshot cut off");
+		}
+	}
+
+	/**
+	 * Reads a reference to a string, city, airport, terminal, road or
+	 * metropole, reading the object itself if this is its first reference.
+	 *
+	 * @return object referred to, or <code>null</code>
+	 * @throws IOException
+	 *             the reference is malformed or the snapshot is cut off
+	 */
+	public Object readObject() throws IOException {
+		final int reference = readInt();
+		if (reference == SnapshotFormat.NULL) {
+			return null;
+		} else if (reference > 0 && reference <= objects.size()) {
+			return objects.get(reference - 1);
+		} else if (reference != SnapshotFormat.DEFINITION) {
+			throw new IOException("bad object reference " + reference);
+		}
+
+		final Object object;
+		final byte kind;
+		try {
+			kind = buffer.get();
+		} catch (BufferUnderflowException e) {
+			throw new IOException("snapshot cut off");
+		}
+		switch (kind) {
+		case SnapshotFormat.STRING:
+			final int length = readInt();
+			if (length < 0 || length > buffer.remaining()) {
+				throw new IOException("bad string length " + length);
+			}
+			final byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			object = new String(bytes, StandardCharsets.UTF_8);
+			break;
+		case SnapshotFormat.CITY:
+			object = new City(readString(), readInt(), readInt(), readInt(),
+					readInt(), readInt(), readString());
+			break;
+		case SnapshotFormat.AIRPORT:
+			object = new Airport(readString(), readInt(), readInt(),
+					readInt(), readInt());
+			break;
+		case SnapshotFormat.TERMINAL:
+			object = new Terminal(readString(), readString(), readInt(),
+					readInt(), readInt(), readInt(), readCity());
+			break;
+		case SnapshotFormat.ROAD:
+			if (readBoolean()) {
+				object = new Road(read(Terminal.class));
+			} else {
+				object = new Road(readCity(), readCity());
+			}
+			break;
+		case SnapshotFormat.METROPOLE:
+			object = new Metropole(readString(), readInt(), readInt());
+			break;
+		default:
+			throw new IOException("unknown object kind " + kind);
+		}
+		objects.add(object);
+		return object;
+	}
+
+	/**
+	 * Reads a reference to a string.
+	 *
+	 * @return string referred to, or <code>null</code>
+	 * @throws IOException
+	 *             the reference is malformed or is not to a string
+	 */
+	public String readString() throws IOException {
+		return read(String.class);
+	}
+
+	/**
+	 * Reads a reference to a city.
+	 *
+	 * @return city referred to, or <code>null</code>
+	 * @throws IOException
+	 *             the reference is malformed or is not to a city
+	 */
+	public City readCity() throws IOException {
+		return read(City.class);
+	}
+
+	/**
+	 * Reads a reference to an object of the given class.
+	 *
+	 * @param type
+	 *            class the object must be an instance of
+	 * @return object referred to, or <code>null</code>
+	 * @throws IOException
+	 *             the reference is malformed or is to an object of another
+	 *             class
+	 */
+	public <T> T read(final Class<T> type) throws IOException {
+		final Object object = readObject();
+		if (object != null && !type.isInstance(object)) {
+			throw new IOException("expected " + type.getSimpleName()
+					+ " but read " + object.getClass().getSimpleName());
+		}
+		return type.cast(object);
+	}
+}
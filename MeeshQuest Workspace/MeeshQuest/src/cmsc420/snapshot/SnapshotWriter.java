@@ -0,0 +1,172 @@
+package cmsc420.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+
+import cmsc420.geometry.Airport;
+import cmsc420.geometry.City;
+import cmsc420.geometry.Metropole;
+import cmsc420.geometry.Road;
+import cmsc420.geometry.Terminal;
+
+/**
+ * Writes a snapshot file in the layout described by {@link SnapshotFormat}.
+ * Each structure writes its own state; this class writes the header, the
+ * numbers and the object references they are made of.
+ */
+public class SnapshotWriter {
+	/** stream the snapshot is written to */
+	private final DataOutputStream out;
+
+	/** number of each object already written, by identity */
+	private final IdentityHashMap<Object, Integer> numbers = new IdentityHashMap<Object, Integer>();
+
+	/**
+	 * Constructs a writer and writes the header of a snapshot file.
+	 *
+	 * @param output
+	 *            stream to write the snapshot to
+	 * @throws IOException
+	 *             problem writing to the stream
+	 */
+	public SnapshotWriter(final OutputStream output) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(output));
+		out.writeInt(SnapshotFormat.MAGIC);
+		out.writeInt(SnapshotFormat.VERSION);
+	}
+
+	/**
+	 * Writes an integer.
+	 *
+	 * @param value
+	 *            integer to be written
+	 * @throws IOException
+	 *             problem writing to the stream
+	 */
+	public void writeInt(final int value) throws IOException {
+		out.writeInt(value);
+	}
+
+	/**
+	 * Writes a float.
+	 *
+	 * @param value
+	 *            float to be written
+	 * @throws IOException
+	 *             problem writing to the stream
+	 */
+	public void writeFloat(final float value) throws IOException {
+		out.writeFloat(value);
+	}
+
+	/**
+	 * Writes a boolean as one byte.
+	 *
+	 * @param value
+	 *            boolean to be written
+	 * @throws IOException
+	 *             problem writing to the stream
+	 */
+	public void writeBoolean(final boolean value) throws IOException {
+		out.writeBoolean(value);
+	}
+
+	/**
+	 * Writes a reference to a string, city, airport, terminal, road or
+	 * metropole. The object itself is written the first time it is referred
+	 * to.
+	 *
+	 * @param object
+	 *            object to be referred to, or <code>null</code>
+	 * @throws IOException
+	 *             problem writing to the stream
+	 * @throws IllegalArgumentException
+	 *             the object is not of a kind a snapshot can hold
+	 */
+	public void writeObject(final Object object) throws IOException {
+		if (object == null) {
+			out.writeInt(SnapshotFormat.NULL);
+			return;
+		}
+		final Integer number = numbers.get(object);
+		if (number != null) {
+			out.writeInt(number);
+			return;
+		}
+
+		out.writeInt(SnapshotFormat.DEFINITION);
+		if (object instanceof String) {
+			out.writeByte(SnapshotFormat.STRING);
+			final byte[] bytes = ((String) object)
+					.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} else if (object instanceof City) {
+			final City city = (City) object;
+			out.writeByte(SnapshotFormat.CITY);
+			writeObject(city.getName());
+			out.writeInt(city.getLocalX());
+			out.writeInt(city.getLocalY());
+			out.writeInt(city.getRemoteX());
+			out.writeInt(city.getRemoteY());
+			out.writeInt(city.getRadius());
+			writeObject(city.getColor());
+		} else if (object instanceof Airport) {
+			final Airport airport = (Airport) object;
+			out.writeByte(SnapshotFormat.AIRPORT);
+			writeObject(airport.getName());
+			out.writeInt(airport.getLocalX());
+			out.writeInt(airport.getLocalY());
+			out.writeInt(airport.getRemoteX());
+			out.writeInt(airport.getRemoteY());
+		} else if (object instanceof Terminal) {
+			final Terminal terminal = (Terminal) object;
+			out.writeByte(SnapshotFormat.TERMINAL);
+			writeObject(terminal.getAirportName());
+			writeObject(terminal.getTerminalName());
+			out.writeInt(terminal.getLocalX());
+			out.writeInt(terminal.getLocalY());
+			out.writeInt(terminal.getRemoteX());
+			out.writeInt(terminal.getRemoteY());
+			writeObject(terminal.getEnd());
+		} else if (object instanceof Road) {
+			final Road road = (Road) object;
+			out.writeByte(SnapshotFormat.ROAD);
+			/* a road to a terminal is rebuilt from the terminal alone */
+			final Terminal terminal = road.getStartTerminal() != null ? road
+					.getStartTerminal() : road.getEndTerminal();
+			out.writeBoolean(terminal != null);
+			if (terminal != null) {
+				writeObject(terminal);
+			} else {
+				writeObject(road.getStart());
+				writeObject(road.getEnd());
+			}
+		} else if (object instanceof Metropole) {
+			final Metropole metropole = (Metropole) object;
+			out.writeByte(SnapshotFormat.METROPOLE);
+			writeObject(metropole.getName());
+			out.writeInt(metropole.getX());
+			out.writeInt(metropole.getY());
+		} else {
+			throw new IllegalArgumentException("cannot write "
+					+ object.getClass().getName() + " to a snapshot");
+		}
+		numbers.put(object, numbers.size() + 1);
+	}
+
+	/**
+	 * Flushes the snapshot to the underlying stream. Does not close the
+	 * stream.
+	 *
+	 * @throws IOException
+	 *             problem writing to the stream
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+}
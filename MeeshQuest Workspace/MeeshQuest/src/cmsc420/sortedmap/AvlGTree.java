@@ -1,11 +1,14 @@
 package cmsc420.sortedmap;
 
+import java.io.IOException;
 import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -15,6 +18,9 @@ import java.util.SortedMap;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import cmsc420.snapshot.SnapshotReader;
+import cmsc420.snapshot.SnapshotWriter;
+
 /**
  * E. Wang's AVL-g tree implementation.
  */
@@ -950,6 +956,106 @@ public class AvlGTree<K, V> extends AbstractMap<K, V> implements
         }
     }
 
+    /**
+     * Writes the nodes of this tree to a snapshot exactly as they are linked,
+     * with the heights each node holds for its subtrees, so the tree read back
+     * prints and rebalances the same way this one does. Parent links are kept
+     * too, including any to nodes no longer in the tree.
+     * 
+     * @param out
+     *            snapshot being written
+     * @throws IOException
+     *             problem writing the snapshot
+     */
+    public void writeSnapshot(final SnapshotWriter out) throws IOException {
+        final ArrayList<AvlNode<K, V>> nodes = new ArrayList<AvlNode<K, V>>();
+        final IdentityHashMap<AvlNode<K, V>, Integer> indices = new IdentityHashMap<AvlNode<K, V>, Integer>();
+        if (root != null) {
+            indices.put(root, 0);
+            nodes.add(root);
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            final AvlNode<K, V> node = nodes.get(i);
+            number(node.left, nodes, indices);
+            number(node.right, nodes, indices);
+            number(node.parent, nodes, indices);
+        }
+
+        out.writeInt(size());
+        out.writeInt(nodes.size());
+        for (AvlNode<K, V> node : nodes) {
+            out.writeObject(node.key);
+            out.writeObject(node.value);
+            out.writeInt(node.left == null ? -1 : indices.get(node.left));
+            out.writeInt(node.right == null ? -1 : indices.get(node.right));
+            out.writeInt(node.parent == null ? -1 : indices.get(node.parent));
+            out.writeInt(node.leftHeight);
+            out.writeInt(node.rightHeight);
+        }
+    }
+
+    /**
+     * Numbers a node linked from a numbered node, unless it is numbered
+     * already.
+     */
+    private static <K, V> void number(final AvlNode<K, V> linked,
+            final ArrayList<AvlNode<K, V>> nodes,
+            final IdentityHashMap<AvlNode<K, V>, Integer> indices) {
+        if (linked != null && !indices.containsKey(linked)) {
+            indices.put(linked, nodes.size());
+            nodes.add(linked);
+        }
+    }
+
+    /**
+     * Replaces the contents of this tree with nodes read from a snapshot
+     * written by {@link #writeSnapshot(SnapshotWriter)}. Keys are not
+     * compared while reading.
+     * 
+     * @param in
+     *            snapshot being read
+     * @throws IOException
+     *             the snapshot is malformed
+     */
+    public void readSnapshot(final SnapshotReader in) throws IOException {
+        clear();
+        final int newSize = in.readInt();
+        final int numNodes = in.readInt();
+        if (numNodes < 0) {
+            throw new IOException("bad AVL tree size " + numNodes);
+        }
+        final ArrayList<AvlNode<K, V>> nodes = new ArrayList<AvlNode<K, V>>(
+                numNodes);
+        final int[] links = new int[3 * numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            /* the snapshot was written from a tree of the same types */
+            @SuppressWarnings("unchecked")
+            final K key = (K) in.readObject();
+            @SuppressWarnings("unchecked")
+            final V value = (V) in.readObject();
+            final AvlNode<K, V> node = new AvlNode<K, V>(key, value, comparator);
+            for (int j = 0; j < 3; j++) {
+                links[3 * i + j] = in.readInt();
+                if (links[3 * i + j] < -1 || links[3 * i + j] >= numNodes) {
+                    throw new IOException("bad AVL tree link");
+                }
+            }
+            node.leftHeight = in.readInt();
+            node.rightHeight = in.readInt();
+            nodes.add(node);
+        }
+        for (int i = 0; i < numNodes; i++) {
+            final AvlNode<K, V> node = nodes.get(i);
+            node.left = links[3 * i] < 0 ? null : nodes.get(links[3 * i]);
+            node.right = links[3 * i + 1] < 0 ? null : nodes
+                    .get(links[3 * i + 1]);
+            node.parent = links[3 * i + 2] < 0 ? null : nodes
+                    .get(links[3 * i + 2]);
+        }
+        root = numNodes == 0 ? null : nodes.get(0);
+        size = newSize;
+    }
+
     public Node createXml(final Node parent) {
         final Element rootNode = parent.getOwnerDocument().createElement(
                 "AvlGTree");
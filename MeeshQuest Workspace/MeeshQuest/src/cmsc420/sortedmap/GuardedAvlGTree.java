@@ -1,8 +1,13 @@
 package cmsc420.sortedmap;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.Map;
 import java.util.TreeMap;
+
+import cmsc420.snapshot.SnapshotReader;
+import cmsc420.snapshot.SnapshotWriter;
     
 public class GuardedAvlGTree<K, V> extends AvlGTree<K, V> {
     private TreeMap<K, V> guard;
@@ -68,4 +73,25 @@ public class GuardedAvlGTree<K, V> extends AvlGTree<K, V> {
     public Collection<V> values() {
         return guard.values();
     }
-}
\ No newline at end of file
+
+    @Override
+    public void writeSnapshot(final SnapshotWriter out) throws IOException {
+        super.writeSnapshot(out);
+        out.writeInt(guard.size());
+        for (Map.Entry<K, V> entry : guard.entrySet()) {
+            out.writeObject(entry.getKey());
+            out.writeObject(entry.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void readSnapshot(final SnapshotReader in) throws IOException {
+        super.readSnapshot(in);
+        guard.clear();
+        final int guardSize = in.readInt();
+        for (int i = 0; i < guardSize; i++) {
+            guard.put((K) in.readObject(), (V) in.readObject());
+        }
+    }
+}